@@ -9,20 +9,30 @@ import com.centit.stat.dao.DBCPDao;
 import com.centit.stat.po.QueryCondition;
 import com.centit.stat.po.html.table.CTableCell;
 import com.centit.stat.po.html.table.CTableLine;
+import com.centit.stat.service.FormDataJsonWriter;
 import com.centit.stat.service.FormDataManager;
 import com.centit.stat.service.FormDataModel;
+import com.centit.stat.service.ReportJob;
+import com.centit.stat.service.ReportJobManager;
+import com.centit.stat.service.ResultFingerprint;
+import com.centit.stat.service.pipeline.ExcelStreamSink;
+import com.centit.stat.service.pipeline.HtmlStreamSink;
 import com.centit.support.algorithm.DatetimeOpt;
 import com.centit.support.algorithm.StringBaseOpt;
 import com.centit.support.algorithm.StringRegularOpt;
 import com.centit.support.json.JsonPropertyUtils;
 import com.centit.support.network.HtmlFormUtils;
+import com.centit.support.report.StatReportException;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
 import org.apache.poi.hssf.usermodel.HSSFCellStyle;
 import org.apache.poi.hssf.usermodel.HSSFSheet;
 import org.apache.poi.hssf.usermodel.HSSFWorkbook;
 import org.apache.poi.hssf.util.HSSFColor;
 import org.apache.poi.ss.usermodel.*;
 import org.apache.poi.ss.util.CellRangeAddress;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -34,6 +44,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.validation.Valid;
 import java.io.IOException;
+import java.io.Writer;
 import java.math.BigDecimal;
 import java.text.SimpleDateFormat;
 import java.util.*;
@@ -41,10 +52,25 @@ import java.util.*;
 @Controller
 @RequestMapping("/stat/twodimenform")
 public class FormDataController extends BaseController {
+    private static final Logger logger = LoggerFactory.getLogger(FormDataController.class);
+
+    /**
+     * 流式导出 xlsx 时内存中保留的行数
+     */
+    private static final int EXCEL_ROW_WINDOW = 500;
 
     @Resource
     protected FormDataManager dataManager;
 
+    @Resource
+    protected ReportJobManager jobManager;
+
+    /**
+     * 模块的查询条件和下拉框选项，内容没有变化时返回 304
+     * @param modelName 传入统计模块代码
+     * @param request HttpServletRequest
+     * @param response HttpServletResponse
+     */
     @RequestMapping(value = "/meta/{modelName}", method = RequestMethod.GET)
     public void getMetaDate(@PathVariable String modelName,
             HttpServletRequest request, HttpServletResponse response) {
@@ -52,11 +78,19 @@ public class FormDataController extends BaseController {
         formObj.copyModelMetaData(dataManager.getDataModel(modelName));
         try {
             collectParams(request, formObj,true);
-            JsonResultUtils.writeSingleDataJson(formObj, response,
+            String json = JSON.toJSONString(formObj,
                     JsonPropertyUtils.getIncludePropPreFilter(
                             FormDataModel.class, "modelName",
                                     "paramCount", "conditions",
                                     "formNameFormat", "formName"));
+            if (ReportResponses.checkNotModified(request, response, ResultFingerprint.of(json))) {
+                return;
+            }
+            Writer writer = ReportResponses.openWriter(request, response, "application/json;charset=UTF-8");
+            writer.write("{\"code\":0,\"message\":\"\",\"data\":");
+            writer.write(json);
+            writer.write('}');
+            writer.close();
         } catch (Exception e) {
             JsonResultUtils.writeErrorMessageJson(e.getMessage(), response);
             e.printStackTrace();
@@ -64,22 +98,211 @@ public class FormDataController extends BaseController {
     }
 
     /**
-     * 统计入口，返回包装好的FormDataModel对象
+     * 统计入口，返回包装好的FormDataModel对象；统计结果逐行写入响应流，数字和日期保持原来的类型。
+     * 结果没有变化时返回 304，客户端接受时压缩输出
      * @param modelName 传入统计模块代码
      * @param page 分页信息，交叉表不支持分页，会自动忽略
+     * @param layout 统计结果的布局 rows（默认，每行一个数组）或者 columnar（列名只写一次，按列输出值）
      * @param request HttpServletRequest
      * @param response HttpServletResponse
+     * @throws IOException 写入响应失败
      */
     @RequestMapping(value = "/{modelName}", method = RequestMethod.GET)
-    public void doStat(@PathVariable String modelName, PageDesc page,
-            HttpServletRequest request, HttpServletResponse response) {
+    public void doStat(@PathVariable String modelName, PageDesc page, String layout,
+            HttpServletRequest request, HttpServletResponse response) throws IOException {
             FormDataModel formObj = new FormDataModel();
             FormDataModel fm=dataManager.getDataModel(modelName);
             formObj.copyModelMetaData(fm);
-            queryDatabase(page, formObj, request);
-            JsonResultUtils.writeSingleDataJson(formObj, response);
+            try {
+                queryDatabase(page, formObj, request);
+            } catch (StatReportException e) {
+                // 超时、超过最大行数等查询失败的原因返回给页面
+                JsonResultUtils.writeErrorMessageJson(e.getMessage(), response);
+                return;
+            }
+            writeJson(formObj, page, layout, request, response);
     }
 
+    /**
+     * 统计结果以 JSON 流的方式写入响应，不在内存中生成整个 JSON 字符串；结果没有变化时返回 304
+     * @param formObj 已经完成查询的报表模型
+     * @param page 分页信息
+     * @param layout 统计结果的布局
+     * @param request HttpServletRequest
+     * @param response HttpServletResponse
+     * @throws IOException 写入响应失败
+     */
+    private void writeJson(FormDataModel formObj, PageDesc page, String layout,
+            HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String etag = ResultFingerprint.of(formObj, page,
+            FormDataJsonWriter.LAYOUT_COLUMNAR.equals(layout) ? "json-columnar" : "json");
+        if (ReportResponses.checkNotModified(request, response, etag)) {
+            return;
+        }
+        // 序列化失败时也要关闭写入流，结束压缩流
+        try (Writer writer = ReportResponses.openWriter(request, response, "application/json;charset=UTF-8")) {
+            new FormDataJsonWriter(writer, layout).writeResponse(formObj);
+        }
+    }
+
+    /**
+     * 已经生成的表格输出为 HTML，结果没有变化时返回 304
+     * @param formObj 已经完成查询的报表模型
+     * @param page 分页信息
+     * @param request HttpServletRequest
+     * @param response HttpServletResponse
+     * @throws IOException 写入响应失败
+     */
+    private void writeHtml(FormDataModel formObj, PageDesc page,
+            HttpServletRequest request, HttpServletResponse response) throws IOException {
+        if (ReportResponses.checkNotModified(request, response, ResultFingerprint.of(formObj, page, "html"))) {
+            return;
+        }
+        try (Writer writer = ReportResponses.openWriter(request, response, "text/html;charset=UTF-8")) {
+            formObj.getTablePanel().writeHtml(writer);
+        }
+    }
+
+    /**
+     * 统计结果直接输出为 HTML 表格，单元格逐个写入响应流，不在内存中拼接整个表格；
+     * 二维报表从游标逐行输出，只缓存行头分组还没有结束的行；
+     * 客户端接受时压缩输出，同比、环比和交叉表的结果没有变化时返回 304
+     * @param modelName 传入统计模块代码
+     * @param page 分页信息，交叉表不支持分页，会自动忽略
+     * @param request HttpServletRequest
+     * @param response HttpServletResponse
+     * @throws IOException 写入响应失败
+     */
+    @RequestMapping(value = "/{modelName}/html", method = RequestMethod.GET)
+    public void doStatHtml(@PathVariable String modelName, PageDesc page,
+            HttpServletRequest request, HttpServletResponse response) throws IOException {
+        FormDataModel formObj = new FormDataModel();
+        formObj.copyModelMetaData(dataManager.getDataModel(modelName));
+        String modelType = formObj.getModelType();
+        if ("3".equals(modelType) || "4".equals(modelType) || "5".equals(modelType)) {
+            try {
+                queryDatabase(page, formObj, request);
+            } catch (StatReportException e) {
+                JsonResultUtils.writeErrorMessageJson(e.getMessage(), response);
+                return;
+            }
+            writeHtml(formObj, page, request, response);
+            return;
+        }
+        // 边查询边输出，写入之前结果还不存在，不能计算 ETag
+        try (ReportResponses.DeferredWriter writer =
+                 new ReportResponses.DeferredWriter(request, response, "text/html;charset=UTF-8")) {
+            HtmlStreamSink sink = new HtmlStreamSink(writer);
+            try {
+                prepareQuery(formObj, request);
+                dataManager.queryFormData(formObj, page, sink);
+            } catch (StatReportException e) {
+                if (writer.isOpened()) {
+                    // 表格已经输出了一部分，只能在表格中写出错误信息
+                    sink.writeError(e.getMessage());
+                } else {
+                    JsonResultUtils.writeErrorMessageJson(e.getMessage(), response);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * 提交后台统计任务，立即返回任务编号，不在 servlet 线程中执行查询
+     * @param modelName 传入统计模块代码
+     * @param page 分页信息，交叉表不支持分页，会自动忽略
+     * @param request HttpServletRequest
+     * @param response HttpServletResponse
+     */
+    @RequestMapping(value = "/{modelName}/jobs", method = RequestMethod.POST)
+    public void submitJob(@PathVariable String modelName, PageDesc page,
+            HttpServletRequest request, HttpServletResponse response) {
+        FormDataModel formObj = new FormDataModel();
+        formObj.copyModelMetaData(dataManager.getDataModel(modelName));
+        prepareQuery(formObj, request);
+        try {
+            ReportJob job = jobManager.submitJob(formObj, () -> runQuery(page, formObj));
+            JsonResultUtils.writeSingleDataJson(job, response);
+        } catch (StatReportException e) {
+            JsonResultUtils.writeErrorMessageJson(e.getMessage(), response);
+        }
+    }
+
+    /**
+     * 查询统计任务的状态和进度
+     * @param jobId 任务编号
+     * @param response HttpServletResponse
+     */
+    @RequestMapping(value = "/jobs/{jobId}", method = RequestMethod.GET)
+    public void getJob(@PathVariable String jobId, HttpServletResponse response) {
+        ReportJob job = jobManager.getJob(jobId);
+        if (job == null) {
+            JsonResultUtils.writeErrorMessageJson("统计任务不存在或者结果已经过期！", response);
+            return;
+        }
+        JsonResultUtils.writeSingleDataJson(job, response);
+    }
+
+    /**
+     * 取消统计任务，正在执行的查询会被中断
+     * @param jobId 任务编号
+     * @param response HttpServletResponse
+     */
+    @RequestMapping(value = "/jobs/{jobId}", method = RequestMethod.DELETE)
+    public void cancelJob(@PathVariable String jobId, HttpServletResponse response) {
+        ReportJob job = jobManager.cancelJob(jobId);
+        if (job == null) {
+            JsonResultUtils.writeErrorMessageJson("统计任务不存在或者结果已经过期！", response);
+            return;
+        }
+        JsonResultUtils.writeSingleDataJson(job, response);
+    }
+
+    /**
+     * 获取统计任务的结果
+     * @param jobId 任务编号
+     * @param format 结果格式 json（默认）、html、xls
+     * @param layout json 格式统计结果的布局 rows（默认）或者 columnar
+     * @param request HttpServletRequest
+     * @param response HttpServletResponse
+     * @throws IOException 写入响应失败
+     */
+    @RequestMapping(value = "/jobs/{jobId}/result", method = RequestMethod.GET)
+    public void getJobResult(@PathVariable String jobId, String format, String layout,
+            HttpServletRequest request, HttpServletResponse response) throws IOException {
+        ReportJob job = jobManager.getJob(jobId);
+        if (job == null) {
+            JsonResultUtils.writeErrorMessageJson("统计任务不存在或者结果已经过期！", response);
+            return;
+        }
+        if (ReportJob.STATUS_FAILED.equals(job.getStatus())) {
+            // 超时、超过最大行数等查询失败的原因
+            JsonResultUtils.writeErrorMessageJson("统计任务执行失败：" + job.getErrorMessage(), response);
+            return;
+        }
+        if (!ReportJob.STATUS_DONE.equals(job.getStatus())) {
+            JsonResultUtils.writeErrorMessageJson("统计任务没有完成，当前状态：" + job.getStatus(), response);
+            return;
+        }
+        FormDataModel formObj = job.getFormData();
+        if ("html".equalsIgnoreCase(format)) {
+            writeHtml(formObj, null, request, response);
+        } else if ("xls".equalsIgnoreCase(format)) {
+            writeXls(formObj, response);
+        } else {
+            writeJson(formObj, null, layout, request, response);
+        }
+    }
+
+    /**
+     * 每个数据库的统计查询排队情况：并发上限、正在执行和排队的查询个数、排队时间
+     * @param response HttpServletResponse
+     */
+    @RequestMapping(value = "/scheduler/metrics", method = RequestMethod.GET)
+    public void getSchedulerMetrics(HttpServletResponse response) {
+        JsonResultUtils.writeSingleDataJson(dataManager.listQueryQueueMetrics(), response);
+    }
 
     /**
      * formdatamodel对象导入excel并推送至页面下载
@@ -91,20 +314,30 @@ public class FormDataController extends BaseController {
      */
     @RequestMapping(value = "/excels", method = RequestMethod.POST)
     public void exportToExcel(HttpServletRequest request, String modelName, boolean paging,
-            @Valid PageDesc page, HttpServletResponse response) {
+            @Valid PageDesc page, String fileType, HttpServletResponse response) {
         FormDataModel fdm = new FormDataModel();
         fdm.copyModelMetaData(dataManager.getDataModel(modelName));
 
-        queryDatabase(paging?page:null, fdm, request);
+        if ("xlsx".equalsIgnoreCase(fileType)) {
+            exportToXlsx(request, paging ? page : null, fdm, response);
+            return;
+        }
+
+        try {
+            queryDatabase(paging?page:null, fdm, request);
+        } catch (StatReportException e) {
+            // 超时、超过最大行数等查询失败的原因返回给页面
+            JsonResultUtils.writeErrorMessageJson(e.getMessage(), response);
+            return;
+        }
+        writeXls(fdm, response);
+    }
 
+    private void writeXls(FormDataModel fdm, HttpServletResponse response) {
         response.reset();
         response.setContentType("application/vnd.ms-excel;charset=utf-8");
 
-        SimpleDateFormat sdf=new SimpleDateFormat("YYYYMMddhhmm");
-        Date date=new Date();
-        String time=sdf.format(date);
-        String fileName = StringUtils.isBlank(fdm.getFormNameFormat()) ? "未命名"
-                : fdm.getFormNameFormat()+time;
+        String fileName = excelFileName(fdm);
         HSSFWorkbook excel = exportToExcel(fdm);
         try {
             response.setHeader("Content-Disposition", "attachment;filename="
@@ -122,6 +355,46 @@ public class FormDataController extends BaseController {
         }
     }
 
+    private static String excelFileName(FormDataModel fdm) {
+        SimpleDateFormat sdf=new SimpleDateFormat("YYYYMMddhhmm");
+        Date date=new Date();
+        String time=sdf.format(date);
+        return StringUtils.isBlank(fdm.getFormNameFormat()) ? "未命名"
+                : fdm.getFormNameFormat()+time;
+    }
+
+    /**
+     * 以流式方式导出 xlsx，二维报表直接从游标逐行写入工作簿，不受 xls 65536 行的限制；
+     * 其他报表在内存中汇总后写入。
+     */
+    private void exportToXlsx(HttpServletRequest request, PageDesc page, FormDataModel fdm,
+            HttpServletResponse response) {
+        try (ExcelStreamSink sink = new ExcelStreamSink(EXCEL_ROW_WINDOW)) {
+            String modelType = fdm.getModelType();
+            try {
+                if ("3".equals(modelType) || "4".equals(modelType) || "5".equals(modelType)) {
+                    queryDatabase(page, fdm, request);
+                    sink.writeTablePanel(fdm.getTablePanel());
+                } else {
+                    prepareQuery(fdm, request);
+                    dataManager.queryFormData(fdm, page, sink);
+                }
+            } catch (StatReportException e) {
+                // 工作簿写入响应之前查询失败，返回错误信息
+                JsonResultUtils.writeErrorMessageJson(e.getMessage(), response);
+                return;
+            }
+
+            response.reset();
+            response.setContentType("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet");
+            response.setHeader("Content-Disposition", "attachment;filename="
+                    + new String((excelFileName(fdm) + ".xlsx").getBytes(), "iso-8859-1"));
+            sink.write(response.getOutputStream());
+        } catch (IOException e) {
+            logger.error("导出报表 " + fdm.getModelName() + " 失败：" + e.getLocalizedMessage(), e);
+        }
+    }
+
     // 把formDataModel写入一个excel中
     private HSSFWorkbook exportToExcel(FormDataModel fdm) {
         List<CTableLine> headLines = fdm.getTablePanel().getThead().getLines();
@@ -269,14 +542,11 @@ public class FormDataController extends BaseController {
     }
 
     /**
-     * 从数据库中取元数据
-     * @param page 分页信息
+     * 从请求中获取结果名称、对比时间段个数和查询条件
      * @param formObj FormDataModel对象
      * @param request HttpServletRequest
      */
-    private void queryDatabase(PageDesc page, FormDataModel formObj,
-            HttpServletRequest request) {
-
+    private void prepareQuery(FormDataModel formObj, HttpServletRequest request) {
         Map<String, String[]> paramMap = request.getParameterMap();
         Object oValue = paramMap.get("resultName");
         if (oValue != null) {
@@ -284,6 +554,23 @@ public class FormDataController extends BaseController {
             if (sValue != null && !"".equals(sValue))
                 formObj.setResultName(sValue);
         }
+        oValue = paramMap.get("comparePeriods");
+        if (oValue != null) {
+            String sValue = HtmlFormUtils.getParameterString(oValue);
+            formObj.setComparePeriods(NumberUtils.toInt(sValue, 1));
+        }
+        // keyset 分页：第一页传空的 pageToken，之后传返回的 nextPageToken
+        oValue = paramMap.get("pageToken");
+        if (oValue != null) {
+            String sValue = HtmlFormUtils.getParameterString(oValue);
+            formObj.setPageToken(sValue == null ? "" : sValue);
+        }
+        oValue = paramMap.get("countMode");
+        if (oValue != null) {
+            String sValue = HtmlFormUtils.getParameterString(oValue);
+            if (DBCPDao.COUNT_ESTIMATE.equals(sValue) || DBCPDao.COUNT_NONE.equals(sValue))
+                formObj.setCountMode(sValue);
+        }
         // 获取参数
         try {
             collectParams(request, formObj,true);
@@ -291,6 +578,27 @@ public class FormDataController extends BaseController {
             // log.error("获取参数失败："+e.getMessage());
             e.printStackTrace();
         }
+    }
+
+    /**
+     * 从数据库中取元数据
+     * @param page 分页信息
+     * @param formObj FormDataModel对象
+     * @param request HttpServletRequest
+     */
+    private void queryDatabase(PageDesc page, FormDataModel formObj,
+            HttpServletRequest request) {
+
+        prepareQuery(formObj, request);
+        runQuery(page, formObj);
+    }
+
+    /**
+     * 按照报表类型查询数据，查询条件已经收集
+     * @param page 分页信息
+     * @param formObj FormDataModel对象
+     */
+    private void runQuery(PageDesc page, FormDataModel formObj) {
         Integer totalRows = 0;
         String modelType = formObj.getModelType();
         // 普通二维报表
@@ -6,6 +6,7 @@ import com.centit.framework.common.ResponseMapData;
 import com.centit.framework.core.controller.BaseController;
 import com.centit.support.database.utils.PageDesc;
 import com.centit.stat.po.QueryModel;
+import com.centit.stat.service.FormDataManager;
 import com.centit.stat.service.QueryModelManager;
 import org.apache.commons.lang3.ArrayUtils;
 import org.springframework.stereotype.Controller;
@@ -28,6 +29,9 @@ public class QueryModelControl extends BaseController{
     @Resource
     private QueryModelManager queryModelMag;
 
+    @Resource
+    private FormDataManager formDataManager;
+
 
     @RequestMapping(value="",method={RequestMethod.GET})
     public void list(PageDesc pageDesc,String[] field,  String _search,HttpServletRequest request, HttpServletResponse response){
@@ -64,6 +68,7 @@ public class QueryModelControl extends BaseController{
     public void create(@Valid QueryModel qm,HttpServletRequest request, HttpServletResponse response){
         qm.setQuerySql(dealPlusAndAnd(qm.getQuerySql()));
         queryModelMag.saveNewObject(qm);
+        formDataManager.refreshDataModel(qm.getModelName());
         JsonResultUtils.writeSingleDataJson(qm, response);
     }
 
@@ -75,6 +80,7 @@ public class QueryModelControl extends BaseController{
         if(null!=dbqm)
             dbqm.copyNotNullProperty(qm);
         queryModelMag.saveObject(dbqm);
+        formDataManager.refreshDataModel(modelName);
         JsonResultUtils.writeSingleDataJson(dbqm, response);
     }
 
@@ -109,6 +115,7 @@ public class QueryModelControl extends BaseController{
         QueryModel dbqm=queryModelMag.getObjectById(queryName);
         if(null!=dbqm)
             queryModelMag.deleteObjectById(queryName);
+        formDataManager.refreshDataModel(queryName);
         JsonResultUtils.writeSuccessJson(response);
     }
 
@@ -0,0 +1,157 @@
+package com.centit.stat.controller;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * 报表响应的条件请求和压缩：ETag 和 If-None-Match 相同时返回 304，不再输出结果；
+ * 客户端接受 gzip 时压缩输出。
+ */
+final class ReportResponses {
+
+    private static final int GZIP_BUFFER_SIZE = 8192;
+
+    private ReportResponses() {
+    }
+
+    /**
+     * 设置 ETag，和请求的 If-None-Match 相同时返回 304
+     * @param request HttpServletRequest
+     * @param response HttpServletResponse
+     * @param etag 带引号的 ETag
+     * @return 是否已经返回 304，为 true 时调用方不再输出内容
+     */
+    static boolean checkNotModified(HttpServletRequest request, HttpServletResponse response, String etag) {
+        response.setHeader("ETag", etag);
+        // 每次都需要向服务器确认，统计结果可能随数据变化
+        response.setHeader("Cache-Control", "no-cache");
+        response.setHeader("Vary", "Accept-Encoding");
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            // 压缩时部分代理会改为弱 ETag，比较时忽略
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if ("*".equals(tag) || etag.equals(tag)) {
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 打开响应的输出，客户端接受 gzip 时压缩；输出结束后必须调用 close 完成压缩
+     * @param request HttpServletRequest
+     * @param response HttpServletResponse
+     * @param contentType 内容类型，包括字符集 UTF-8
+     * @return 输出
+     * @throws IOException 打开输出失败
+     */
+    static Writer openWriter(HttpServletRequest request, HttpServletResponse response, String contentType)
+            throws IOException {
+        response.setContentType(contentType);
+        response.setHeader("Vary", "Accept-Encoding");
+        if (!acceptsGzip(request.getHeader("Accept-Encoding"))) {
+            return response.getWriter();
+        }
+        response.setHeader("Content-Encoding", "gzip");
+        return new BufferedWriter(new OutputStreamWriter(
+            new GZIPOutputStream(response.getOutputStream(), GZIP_BUFFER_SIZE), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 第一次写入时才打开响应的输出。边查询边输出时，写入之前查询失败还可以返回 JSON 错误信息
+     */
+    static final class DeferredWriter extends Writer {
+        private final HttpServletRequest request;
+        private final HttpServletResponse response;
+        private final String contentType;
+        private Writer out;
+
+        DeferredWriter(HttpServletRequest request, HttpServletResponse response, String contentType) {
+            this.request = request;
+            this.response = response;
+            this.contentType = contentType;
+        }
+
+        /**
+         * @return 是否已经开始输出
+         */
+        boolean isOpened() {
+            return out != null;
+        }
+
+        private Writer open() throws IOException {
+            if (out == null) {
+                out = openWriter(request, response, contentType);
+            }
+            return out;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            open().write(cbuf, off, len);
+        }
+
+        @Override
+        public void write(String str, int off, int len) throws IOException {
+            open().write(str, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (out != null) {
+                out.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (out != null) {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * @param acceptEncoding 请求头 Accept-Encoding
+     * @return 是否接受 gzip，q=0 表示不接受
+     */
+    private static boolean acceptsGzip(String acceptEncoding) {
+        if (StringUtils.isBlank(acceptEncoding)) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.trim().split(";");
+            if (!"gzip".equalsIgnoreCase(parts[0].trim())) {
+                continue;
+            }
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].replace(" ", "");
+                if (param.startsWith("q=")) {
+                    try {
+                        return Double.parseDouble(param.substring(2)) > 0;
+                    } catch (NumberFormatException e) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+}
@@ -1,24 +1,43 @@
 package com.centit.stat.dao;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
-import com.centit.support.database.jsonmaptable.GeneralJsonObjectDao;
-import com.centit.support.database.jsonmaptable.JsonObjectDao;
+import com.centit.support.database.utils.DBType;
 import com.centit.support.database.utils.PageDesc;
 import com.centit.framework.ip.po.DatabaseInfo;
-import com.centit.support.database.utils.DataSourceDescription;
 import com.centit.support.database.utils.DatabaseAccess;
-import com.centit.support.database.utils.DbcpConnectPools;
 import com.centit.support.database.utils.QueryAndNamedParams;
+import com.centit.support.database.utils.QueryAndParams;
+import com.centit.support.database.utils.QueryUtils;
+import com.centit.support.report.StatReportException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class DBCPDao {
     public static final Logger logger = LoggerFactory.getLogger(DBCPDao.class);
+
+    /**
+     * 分页查询时精确计算总行数
+     */
+    public static final String COUNT_EXACT = "exact";
+    /**
+     * 分页查询时估算总行数，从当前页开始最多数 ESTIMATE_LIMIT 行
+     */
+    public static final String COUNT_ESTIMATE = "estimate";
+    /**
+     * 分页查询时不计算总行数，只判断是否还有下一页
+     */
+    public static final String COUNT_NONE = "none";
+
+    private static final int ESTIMATE_LIMIT = 10000;
     /**
      * 这里的params必须和queryString里面的？一一对应。
      * @param dbinfo 数据库连接信息
@@ -27,19 +46,10 @@ public class DBCPDao {
      */
     public static List<Object[]> findObjectsBySql(DatabaseInfo dbinfo, String queryString){
         List<Object[]> currDatas=new ArrayList<Object[]>();
-        Connection conn =null;
-        try {
-            conn = getConn(dbinfo);
+        try(Connection conn = getConn(dbinfo)) {
             currDatas = DatabaseAccess.findObjectsBySql(conn, queryString);
         }catch (Exception e) {
             e.printStackTrace();
-        }finally{
-            try {
-                conn.close();
-            } catch (SQLException e) {
-                // TODO Auto-generated catch block
-                e.printStackTrace();
-            }
         }
         return currDatas;
     }
@@ -53,8 +63,7 @@ public class DBCPDao {
      */
     public static List<Object[]> findObjectsBySql(DatabaseInfo dbinfo,String queryString,List<Object> params){
         List<Object[]> currDatas=new ArrayList<Object[]>();
-        try {
-            Connection conn = getConn(dbinfo);
+        try(Connection conn = getConn(dbinfo)) {
             currDatas = DatabaseAccess.findObjectsBySql(conn, queryString, params);
         }catch (Exception e) {
             e.printStackTrace();
@@ -64,8 +73,7 @@ public class DBCPDao {
 
     public static List<Object[]> findObjectsBySql(DatabaseInfo dbinfo,String queryString,Object[] params){
         List<Object[]> currDatas=new ArrayList<Object[]>();
-        try {
-            Connection conn = getConn(dbinfo);
+        try(Connection conn = getConn(dbinfo)) {
             currDatas = DatabaseAccess.findObjectsBySql(conn, queryString, params);
         }catch (Exception e) {
             e.printStackTrace();
@@ -75,8 +83,7 @@ public class DBCPDao {
 
     public static List<Object[]> findObjectsBySql(DatabaseInfo dbinfo,String queryString,Object oneParam){
         List<Object[]> currDatas=new ArrayList<Object[]>();
-        try {
-            Connection conn = getConn(dbinfo);
+        try(Connection conn = getConn(dbinfo)) {
             currDatas = DatabaseAccess.findObjectsBySql(conn, queryString, oneParam);
         }catch (Exception e) {
             e.printStackTrace();
@@ -86,8 +93,7 @@ public class DBCPDao {
 
     public static List<Object[]> findObjectsNamedSql(DatabaseInfo dbinfo,String sSql,Map<String,Object> params){
         List<Object[]> currDatas=new ArrayList<Object[]>();
-        try {
-            Connection conn = getConn(dbinfo);
+        try(Connection conn = getConn(dbinfo)) {
             currDatas = DatabaseAccess.findObjectsByNamedSql(conn, sSql, params);
         }catch (Exception e) {
             e.printStackTrace();
@@ -95,36 +101,476 @@ public class DBCPDao {
         return currDatas;
     }
 
-    public static List<Object[]> findObjectsNamedSql(DatabaseInfo dbinfo,QueryAndNamedParams queryAndParams){
+    /**
+     * 查询统计模块的所有数据
+     * @param dbinfo 数据库连接信息
+     * @param queryAndParams 查询语句和命名参数
+     * @param limits 模块的查询限制
+     * @return 查询结果
+     */
+    public static List<Object[]> findObjectsNamedSql(DatabaseInfo dbinfo, QueryAndNamedParams queryAndParams,
+                                                     QueryLimits limits){
         List<Object[]> currDatas=new ArrayList<>();
-        Connection conn=null;
-        try {
-            conn = getConn(dbinfo);
-            currDatas = DatabaseAccess.findObjectsByNamedSql(conn, queryAndParams.getQuery(), queryAndParams.getParams());
+        // 通过游标读取，语句可以被 QueryContext 取消
+        fetchObjectsNamedSql(dbinfo, queryAndParams, limits, currDatas::add);
+        return currDatas;
+    }
+
+    /**
+     * 以游标方式逐行读取查询结果，每读一行就交给 handler 处理，不缓存整个结果集
+     * @param dbinfo 数据库连接信息
+     * @param queryAndParams 查询语句和命名参数
+     * @param limits 模块的查询限制，超过最大行数时查询失败
+     * @param handler 行处理器
+     * @return 读取的行数
+     */
+    public static int fetchObjectsNamedSql(DatabaseInfo dbinfo, QueryAndNamedParams queryAndParams,
+                                           QueryLimits limits, ResultRowHandler handler){
+        if(null==dbinfo)
+            throw new StatReportException(StatReportException.NULL_EXCEPTION, "未配置数据源！");
+        QueryAndParams qp = QueryAndParams.createFromQueryAndNamedParams(queryAndParams);
+        try(Connection conn = getConn(dbinfo);
+            PreparedStatement stmt = prepareQuery(conn, qp.getQuery(), limits, true);
+            QueryContext.Registration reg = QueryContext.register(stmt)) {
+            DatabaseAccess.setQueryStmtParameters(stmt, qp.getParams());
+            try(ResultSet rs = stmt.executeQuery()) {
+                return readRows(rs, 0, 0, -1, limits, handler);
+            }
         }catch (Exception e) {
-            e.printStackTrace();
-        }finally{
-            try {
-                if(conn!=null) {
-                    conn.close();
+            throw queryFailed(e, limits);
+        }
+    }
+
+    /**
+     * 在数据库中计算查询结果的统计值，查询语句作为子查询，外层按照字段标签计算统计函数，
+     * 可以用于分页查询时计算所有数据的合计。
+     * @param dbinfo 数据库连接信息
+     * @param queryAndParams 查询语句和命名参数
+     * @param cols 统计的字段在查询结果中的序号（从0开始）
+     * @param functions 和 cols 一一对应的统计函数模板，如 sum(%s)
+     * @param limits 模块的查询限制
+     * @return 和 cols 一一对应的统计值
+     */
+    public static Object[] findAggregates(DatabaseInfo dbinfo, QueryAndNamedParams queryAndParams,
+                                          int[] cols, String[] functions, QueryLimits limits){
+        if(null==dbinfo)
+            throw new StatReportException(StatReportException.NULL_EXCEPTION, "未配置数据源！");
+        QueryAndParams qp = QueryAndParams.createFromQueryAndNamedParams(queryAndParams);
+        String innerSql = QueryUtils.removeOrderBy(qp.getQuery());
+        try(Connection conn = getConn(dbinfo)) {
+            String[] labels = queryLabels(conn, innerSql, qp.getParams());
+            String quote = identifierQuote(conn);
+            StringBuilder sql = new StringBuilder("select ");
+            for (int i = 0; i < cols.length; i++) {
+                if (i > 0)
+                    sql.append(", ");
+                sql.append(String.format(functions[i], "stat_total." + quote + labels[cols[i]] + quote));
+            }
+            sql.append(" from (").append(innerSql).append(") stat_total");
+            try(PreparedStatement stmt = prepareQuery(conn, sql.toString(), limits, false);
+                QueryContext.Registration reg = QueryContext.register(stmt)) {
+                DatabaseAccess.setQueryStmtParameters(stmt, qp.getParams());
+                try(ResultSet rs = stmt.executeQuery()) {
+                    Object[] values = new Object[cols.length];
+                    if (rs.next()) {
+                        for (int i = 0; i < cols.length; i++) {
+                            values[i] = rs.getObject(i + 1);
+                        }
+                    }
+                    return values;
                 }
-            } catch (SQLException e) {
-                e.printStackTrace();
+            }
+        }catch (Exception e) {
+            throw queryFailed(e, limits);
+        }
+    }
+
+    /**
+     * 按照页码分页查询，countMode 指定总行数的计算方式
+     * @param dbinfo 数据库连接信息
+     * @param qap 查询语句和命名参数
+     * @param page 分页信息，返回时设置总行数
+     * @param countMode 总行数的计算方式 COUNT_EXACT、COUNT_ESTIMATE、COUNT_NONE，为空时精确计算
+     * @param limits 模块的查询限制
+     * @return 当前页的数据
+     */
+    public static List<Object[]> findObjectsNamedSql(DatabaseInfo dbinfo, QueryAndNamedParams qap,
+                                                     PageDesc page, String countMode, QueryLimits limits) {
+        if(null==dbinfo)
+            throw new StatReportException(StatReportException.NULL_EXCEPTION, "未配置数据源！");
+        QueryAndParams qp = QueryAndParams.createFromQueryAndNamedParams(qap);
+        int pageSize = page.getPageSize();
+        int offset = page.getPageNo() <= 1 || pageSize <= 0 ? 0 : (page.getPageNo() - 1) * pageSize;
+        try(Connection conn = getConn(dbinfo)) {
+            List<Object[]> currDatas = queryPageRows(conn, DBType.mapDBType(dbinfo.getDatabaseUrl()),
+                qp, offset, pageSize, limits);
+            if(pageSize<=0 || (currDatas.size()<pageSize && (offset == 0 || currDatas.size() > 0))) {
+                page.setTotalRows(offset + currDatas.size());
+            }else if(COUNT_ESTIMATE.equals(countMode)){
+                page.setTotalRows(countRows(conn, "select 1 from (" + QueryUtils.removeOrderBy(qp.getQuery())
+                    + ") stat_count", qp.getParams(), offset + ESTIMATE_LIMIT, limits));
+            }else if(COUNT_NONE.equals(countMode)){
+                // 不计算总行数，满页时假设还有下一页
+                page.setTotalRows(offset + currDatas.size() + 1);
+            }else{
+                //分页数超过int范围会报错
+                page.setTotalRows(Long.valueOf(countAll(conn, qp, limits)).intValue());
+            }
+            return currDatas;
+        }catch (Exception e) {
+            throw queryFailed(e, limits);
+        }
+    }
+
+    /**
+     * 查询一页数据。MySQL、H2、PostgreSQL 用 limit/offset，Oracle 用 rownum，
+     * SQL Server 用 offset/fetch（需要 SQL Server 2012 及以上版本），DB2 用 rownumber() over(order by order of)，
+     * 其他数据库限制读取的行数后跳过前面的行；不分页时受模块最大行数的限制。
+     */
+    private static List<Object[]> queryPageRows(Connection conn, DBType dbType, QueryAndParams qp,
+                                                int offset, int pageSize, QueryLimits limits) throws SQLException {
+        List<Object[]> currDatas = new ArrayList<>(pageSize > 0 ? pageSize : 16);
+        if (pageSize <= 0) {
+            try(PreparedStatement stmt = prepareQuery(conn, qp.getQuery(), limits, true);
+                QueryContext.Registration reg = QueryContext.register(stmt)) {
+                DatabaseAccess.setQueryStmtParameters(stmt, qp.getParams());
+                try(ResultSet rs = stmt.executeQuery()) {
+                    readRows(rs, 0, 0, -1, limits, currDatas::add);
+                }
+            }
+            return currDatas;
+        }
+        String sql = qp.getQuery();
+        List<Object> params = new ArrayList<>(Arrays.asList(qp.getParams()));
+        int skip = 0;
+        int extraCols = 0;
+        if (dbType == DBType.MySql || dbType == DBType.H2 || dbType == DBType.PostgreSql) {
+            sql = sql + " limit ? offset ?";
+            params.add(pageSize);
+            params.add(offset);
+        } else if (dbType == DBType.Oracle) {
+            sql = "select * from (select stat_rows.*, rownum stat_rn from (" + sql
+                + ") stat_rows where rownum <= ?) where stat_rn > ?";
+            params.add(offset + pageSize);
+            params.add(offset);
+            extraCols = 1;
+        } else if (dbType == DBType.SqlServer) {
+            if (QueryUtils.removeOrderBy(sql).length() == sql.length())
+                sql = sql + " order by (select 0)";
+            sql = sql + " offset ? rows fetch next ? rows only";
+            params.add(offset);
+            params.add(pageSize);
+        } else if (dbType == DBType.DB2) {
+            // 行号按照子查询的排序编号；较早的版本 fetch first 中不能使用参数
+            sql = "select * from (select stat_rows.*, rownumber() over(order by order of stat_rows) stat_rn from ("
+                + sql + " fetch first " + (offset + pageSize) + " rows only) stat_rows) stat_page"
+                + " where stat_rn > ? order by stat_rn";
+            params.add(offset);
+            extraCols = 1;
+        } else {
+            skip = offset;
+        }
+        try(PreparedStatement stmt = prepareQuery(conn, sql, limits, false);
+            QueryContext.Registration reg = QueryContext.register(stmt)) {
+            DatabaseAccess.setQueryStmtParameters(stmt, params.toArray());
+            stmt.setMaxRows(skip + pageSize);
+            try(ResultSet rs = stmt.executeQuery()) {
+                readRows(rs, extraCols, skip, pageSize, limits, currDatas::add);
             }
         }
         return currDatas;
     }
 
+    /**
+     * keyset 分页查询：查询语句作为子查询，外层按照排序键（其后是其他字段，保证顺序确定）排列，
+     * 用上一页最后一行的排序键作为条件定位，不需要数据库跳过前面的所有行。
+     * 各个数据库空值的排序位置不同，排序键统一排成空值在后，定位条件中空值用 is null 比较。
+     * @param dbinfo 数据库连接信息
+     * @param qap 查询语句和命名参数
+     * @param keyCols 排序键在查询结果中的序号（从0开始）
+     * @param descending 每个排序键是否降序，为 null 时都是升序
+     * @param token 当前页的标记，第一页为 null
+     * @param page 分页信息，使用每页行数，返回时设置总行数
+     * @param countMode 总行数的计算方式 COUNT_EXACT、COUNT_ESTIMATE、COUNT_NONE，为空时精确计算
+     * @param limits 模块的查询限制
+     * @return 当前页的数据，多取一行，返回的行数大于每页行数时说明还有下一页
+     */
+    public static List<Object[]> findKeysetPage(DatabaseInfo dbinfo, QueryAndNamedParams qap, int[] keyCols,
+                                                boolean[] descending, PageToken token, PageDesc page, String countMode, QueryLimits limits){
+        if(null==dbinfo)
+            throw new StatReportException(StatReportException.NULL_EXCEPTION, "未配置数据源！");
+        QueryAndParams qp = QueryAndParams.createFromQueryAndNamedParams(qap);
+        String innerSql = QueryUtils.removeOrderBy(qp.getQuery());
+        int offset = token == null ? 0 : token.getOffset();
+        int skip = token == null ? 0 : token.getSkip();
+        try(Connection conn = getConn(dbinfo)) {
+            String[] labels = queryLabels(conn, innerSql, qp.getParams());
+            String quote = identifierQuote(conn);
+            String[] keys = new String[keyCols.length];
+            for (int i = 0; i < keyCols.length; i++) {
+                keys[i] = "stat_page." + quote + labels[keyCols[i]] + quote;
+            }
+            List<Object> params = new ArrayList<>(Arrays.asList(qp.getParams()));
+            StringBuilder from = new StringBuilder(" from (").append(innerSql).append(") stat_page");
+            if (token != null && token.getKeyValues() != null) {
+                from.append(" where ").append(keysetPredicate(keys, descending, token.getKeyValues(), params));
+            }
+            StringBuilder orderBy = new StringBuilder(" order by ").append(keysetOrderBy(keys, descending));
+            boolean[] isKey = new boolean[labels.length];
+            for (int keyCol : keyCols) {
+                isKey[keyCol] = true;
+            }
+            for (int i = 0; i < labels.length; i++) {
+                if (!isKey[i]) {
+                    orderBy.append(keys.length > 0 || i > 0 ? ", " : "")
+                        .append("stat_page.").append(quote).append(labels[i]).append(quote);
+                }
+            }
+            Object[] paramArray = params.toArray();
+            List<Object[]> currDatas = new ArrayList<>(page.getPageSize() + 1);
+            try(PreparedStatement stmt = prepareQuery(conn, "select stat_page.*" + from + orderBy, limits, false);
+                QueryContext.Registration reg = QueryContext.register(stmt)) {
+                DatabaseAccess.setQueryStmtParameters(stmt, paramArray);
+                stmt.setMaxRows(skip + page.getPageSize() + 1);
+                try(ResultSet rs = stmt.executeQuery()) {
+                    readRows(rs, 0, skip, page.getPageSize() + 1, limits, currDatas::add);
+                }
+            }
+            if (currDatas.size() <= page.getPageSize()) {
+                // 最后一页，总行数是确定的
+                page.setTotalRows(offset + currDatas.size());
+            } else if (COUNT_NONE.equals(countMode)) {
+                page.setTotalRows(offset + currDatas.size());
+            } else if (COUNT_ESTIMATE.equals(countMode)) {
+                // 从当前页开始最多数 ESTIMATE_LIMIT 行
+                page.setTotalRows(offset - skip
+                    + countRows(conn, "select 1" + from, paramArray, skip + ESTIMATE_LIMIT, limits));
+            } else {
+                page.setTotalRows(Long.valueOf(countAll(conn, qp, limits)).intValue());
+            }
+            return currDatas;
+        }catch (Exception e) {
+            throw queryFailed(e, limits);
+        }
+    }
+
+    /**
+     * keyset 分页的排序：每个排序键先按照是否为空排列，空值在后，再按照键值排列
+     * @param keys 排序键的表达式
+     * @param descending 每个排序键是否降序，为 null 时都是升序
+     * @return order by 后面的部分
+     */
+    static String keysetOrderBy(String[] keys, boolean[] descending) {
+        StringBuilder orderBy = new StringBuilder();
+        for (int i = 0; i < keys.length; i++) {
+            if (i > 0)
+                orderBy.append(", ");
+            orderBy.append("case when ").append(keys[i]).append(" is null then 1 else 0 end, ").append(keys[i]);
+            if (descending != null && descending[i])
+                orderBy.append(" desc");
+        }
+        return orderBy.toString();
+    }
+
+    /**
+     * keyset 分页的定位条件，选出排序在上一页最后一行之后或者相同的行：
+     * (k1, k2, ...) >= (v1, v2, ...) 展开成 k1 > v1 or (k1 = v1 and k2 > v2) or ... or 全部相等。
+     * 和 keysetOrderBy 的顺序一致，空值排在最后：v 不为空时 k > v 包括 k 为空，v 为空时没有更大的值，
+     * k = v 改为 k is null
+     * @param keys 排序键的表达式
+     * @param descending 每个排序键是否降序，为 null 时都是升序
+     * @param keyValues 上一页最后一行的排序键
+     * @param params 查询参数，按照条件中 ? 的顺序追加键值
+     * @return where 后面的条件
+     */
+    static String keysetPredicate(String[] keys, boolean[] descending, Object[] keyValues, List<Object> params) {
+        StringBuilder where = new StringBuilder();
+        for (int i = 0; i <= keys.length; i++) {
+            if (i < keys.length && keyValues[i] == null) {
+                continue;
+            }
+            if (where.length() > 0)
+                where.append(" or ");
+            where.append('(');
+            for (int j = 0; j < i && j < keys.length; j++) {
+                if (j > 0)
+                    where.append(" and ");
+                if (keyValues[j] == null) {
+                    where.append(keys[j]).append(" is null");
+                } else {
+                    where.append(keys[j]).append(" = ?");
+                    params.add(keyValues[j]);
+                }
+            }
+            if (i < keys.length) {
+                if (i > 0)
+                    where.append(" and ");
+                where.append('(').append(keys[i])
+                    .append(descending != null && descending[i] ? " < ?" : " > ?")
+                    .append(" or ").append(keys[i]).append(" is null)");
+                params.add(keyValues[i]);
+            }
+            where.append(')');
+        }
+        return where.toString();
+    }
+
+    /**
+     * 计算查询结果的总行数
+     * @param dbinfo 数据库连接信息
+     * @param qap 查询语句和命名参数
+     * @param limits 模块的查询限制
+     * @return 总行数
+     */
+    public static long queryTotalRows(DatabaseInfo dbinfo, QueryAndNamedParams qap, QueryLimits limits){
+        if(null==dbinfo)
+            throw new StatReportException(StatReportException.NULL_EXCEPTION, "未配置数据源！");
+        try(Connection conn = getConn(dbinfo)) {
+            return countAll(conn, QueryAndParams.createFromQueryAndNamedParams(qap), limits);
+        }catch (Exception e) {
+            throw queryFailed(e, limits);
+        }
+    }
+
+    private static long countAll(Connection conn, QueryAndParams qp, QueryLimits limits) throws SQLException {
+        String sql = "select count(*) from (" + QueryUtils.removeOrderBy(qp.getQuery()) + ") stat_count";
+        try(PreparedStatement stmt = prepareQuery(conn, sql, limits, false);
+            QueryContext.Registration reg = QueryContext.register(stmt)) {
+            DatabaseAccess.setQueryStmtParameters(stmt, qp.getParams());
+            try(ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : 0;
+            }
+        }
+    }
+
+    /**
+     * 数查询结果的行数，最多数到 limit 行，查询语句只需要返回一个常量字段
+     */
+    private static int countRows(Connection conn, String sql, Object[] params, int limit,
+                                 QueryLimits limits) throws SQLException {
+        try(PreparedStatement stmt = prepareQuery(conn, sql, limits, false);
+            QueryContext.Registration reg = QueryContext.register(stmt)) {
+            DatabaseAccess.setQueryStmtParameters(stmt, params);
+            stmt.setMaxRows(limit);
+            try(ResultSet rs = stmt.executeQuery()) {
+                int rowCount = 0;
+                while (rs.next()) {
+                    rowCount++;
+                }
+                return rowCount;
+            }
+        }
+    }
+
+    /**
+     * 创建只向前读取的只读查询语句，设置模块的查询限制；
+     * 模块没有设置每次读取的行数时使用数据库类型的默认值，MySQL 默认以流的方式读取
+     * @param limitRows 是否按照模块的最大行数限制结果，分页、统计等语句自己限制行数
+     */
+    private static PreparedStatement prepareQuery(Connection conn, String sql, QueryLimits limits,
+                                                  boolean limitRows) throws SQLException {
+        DBType dbType = DBType.mapDBType(conn.getMetaData().getURL());
+        DataSourcePoolConfig config = StatDataSourcePools.getPoolConfig();
+        int defaultFetchSize = (dbType == DBType.MySql && config.isMysqlStreaming()) ?
+            Integer.MIN_VALUE : config.getFetchSize(dbTypeName(dbType));
+        PreparedStatement stmt = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        try {
+            limits.apply(stmt, limitRows, defaultFetchSize);
+        } catch (SQLException e) {
+            stmt.close();
+            throw e;
+        }
+        return stmt;
+    }
+
+    /**
+     * 读取结果集
+     * @param rs 结果集
+     * @param extraCols 结果最后不需要返回的辅助字段个数
+     * @param skip 跳过前面的行数
+     * @param maxRows 最多返回的行数，小于0时按照模块的最大行数检查
+     * @param limits 模块的查询限制
+     * @param handler 行处理器
+     * @return 返回的行数
+     */
+    private static int readRows(ResultSet rs, int extraCols, int skip, int maxRows, QueryLimits limits,
+                                ResultRowHandler handler) throws SQLException {
+        int colCount = rs.getMetaData().getColumnCount() - extraCols;
+        int rowIndex = 0;
+        int rowCount = 0;
+        while ((maxRows < 0 || rowCount < maxRows) && rs.next()) {
+            QueryContext.rowRead();
+            if (rowIndex++ < skip)
+                continue;
+            Object[] row = new Object[colCount];
+            for (int i = 0; i < colCount; i++) {
+                row[i] = rs.getObject(i + 1);
+            }
+            rowCount++;
+            if (maxRows < 0)
+                limits.checkRowCount(rowCount);
+            handler.handleRow(row);
+        }
+        return rowCount;
+    }
+
+    /**
+     * 记录失败原因，转换为说明原因的统计异常
+     */
+    private static StatReportException queryFailed(Exception e, QueryLimits limits) {
+        if (QueryContext.isCurrentCancelled()) {
+            return new StatReportException(StatReportException.DATABASE_OPERATE_EXCEPTION, "查询已取消！", e);
+        }
+        StatReportException se = limits.queryFailed(e);
+        if (se != e) {
+            logger.error(se.getMessage());
+        }
+        return se;
+    }
+
+    /**
+     * 获取查询结果的字段标签
+     */
+    private static String[] queryLabels(Connection conn, String sql, Object[] params) throws SQLException {
+        try(PreparedStatement stmt = conn.prepareStatement(sql)) {
+            ResultSetMetaData metaData = stmt.getMetaData();
+            if (metaData != null) {
+                return columnLabels(metaData);
+            }
+            // 驱动不支持预编译语句的元数据时，只取一行获取字段标签
+            DatabaseAccess.setQueryStmtParameters(stmt, params);
+            stmt.setMaxRows(1);
+            try(ResultSet rs = stmt.executeQuery()) {
+                return columnLabels(rs.getMetaData());
+            }
+        }
+    }
+
+    private static String identifierQuote(Connection conn) throws SQLException {
+        String quote = conn.getMetaData().getIdentifierQuoteString();
+        return (quote == null || " ".equals(quote)) ? "" : quote;
+    }
+
+    private static String[] columnLabels(ResultSetMetaData metaData) throws SQLException {
+        String[] labels = new String[metaData.getColumnCount()];
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = metaData.getColumnLabel(i + 1);
+        }
+        return labels;
+    }
+
     // 从连接池中获取链接
     private static Connection getConn(DatabaseInfo dbinfo) throws Exception {
-           DataSourceDescription desc=new DataSourceDescription();
-           desc.setConnUrl(dbinfo.getDatabaseUrl());
-           desc.setUsername(dbinfo.getUsername());
-           desc.setPassword(dbinfo.getClearPassword());
-           desc.setMaxIdle(10);
-           desc.setMaxTotal(20);
-           desc.setMaxWaitMillis(20000);
-           return DbcpConnectPools.getDbcpConnect(desc);//.getConn();
+           return StatDataSourcePools.getConnection(dbinfo);
+    }
+
+    /**
+     * 数据库类型名称，和 dbTypeText 的名称一致，用于按照数据库类型配置参数
+     * @param dbType 数据库类型
+     * @return 小写的类型名称
+     */
+    public static String dbTypeName(DBType dbType) {
+        return dbType == null ? "unknown" : dbType.name().toLowerCase();
     }
 
     //代替数据字典
@@ -139,32 +585,4 @@ public class DBCPDao {
             return "Unknown";
         }
     }
-
-    public static List<Object[]> findObjectsNamedSql(DatabaseInfo dbinfo,
-            QueryAndNamedParams qap, PageDesc page) {
-        if(null==dbinfo)
-        throw new RuntimeException("未配置数据源！");
-        try(Connection conn= getConn(dbinfo)) {
-            JsonObjectDao jsonDao = GeneralJsonObjectDao.createJsonObjectDao(conn);
-            List<Object[]> currDatas = jsonDao.findObjectsByNamedSql(qap.getQuery(), qap.getParams(),page.getPageNo(),page.getPageSize());
-            //List<Object[]> currDatas = DatabaseAccess.findObjectsByNamedSql(conn, qap.getQuery(), qap.getParams(),page.getPageNo(),page.getPageSize());
-            if (currDatas == null){
-                page.setTotalRows(0);
-                return new ArrayList<>(0);
-            }else if(page.getPageNo()<=1 && (page.getPageSize()<=0 || currDatas.size()<page.getPageSize())) {
-                page.setTotalRows(currDatas.size());
-            }else{
-                long totalRows=DatabaseAccess.queryTotalRows(conn, qap.getQuery(), qap.getParams());
-                //long totalRows=DatabaseAccess.findObjectsByNamedSql(conn, qap.getQuery(), qap.getParams()).size();
-                //分页数超过int范围会报错
-                page.setTotalRows( Long.valueOf(totalRows).intValue());
-            }
-            return currDatas;
-        }catch (Exception e) {
-            logger.error(e.getLocalizedMessage());
-            return new ArrayList<>(0);
-        }
-    }
-
-
 }
@@ -0,0 +1,215 @@
+package com.centit.stat.dao;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+
+/**
+ * 统计查询连接池的配置，所有数据源共用一套配置
+ */
+public class DataSourcePoolConfig {
+
+    private int maxTotal;
+
+    private int maxIdle;
+
+    private int minIdle;
+
+    /**
+     * 获取连接的最长等待时间（毫秒）
+     */
+    private long maxWaitMillis;
+
+    /**
+     * 借出连接时校验连接是否可用
+     */
+    private boolean testOnBorrow;
+
+    /**
+     * 空闲时校验连接是否可用
+     */
+    private boolean testWhileIdle;
+
+    /**
+     * 连接校验语句，为空时使用 JDBC 的 Connection.isValid
+     */
+    private String validationQuery;
+
+    /**
+     * 空闲连接回收线程的运行间隔（毫秒），小于等于0不回收
+     */
+    private long timeBetweenEvictionRunsMillis;
+
+    /**
+     * 连接空闲多久后可以被回收（毫秒）
+     */
+    private long minEvictableIdleTimeMillis;
+
+    /**
+     * 是否缓存 PreparedStatement
+     */
+    private boolean poolPreparedStatements;
+
+    /**
+     * 每个连接最多缓存的 PreparedStatement 数量
+     */
+    private int maxOpenPreparedStatements;
+
+    /**
+     * 各类数据库查询语句每次读取的行数，主键为 DBCPDao.dbTypeName 返回的类型名称，没有配置时使用驱动的默认值
+     */
+    private Map<String, Integer> fetchSizes;
+
+    /**
+     * MySQL 是否以流的方式读取查询结果（fetchSize 为 Integer.MIN_VALUE），否则驱动在客户端缓存整个结果集
+     */
+    private boolean mysqlStreaming;
+
+    public DataSourcePoolConfig() {
+        maxTotal = 20;
+        maxIdle = 10;
+        minIdle = 0;
+        maxWaitMillis = 20000;
+        testOnBorrow = true;
+        testWhileIdle = true;
+        validationQuery = null;
+        timeBetweenEvictionRunsMillis = 60000;
+        minEvictableIdleTimeMillis = 300000;
+        poolPreparedStatements = true;
+        maxOpenPreparedStatements = 100;
+        fetchSizes = new HashMap<>();
+        fetchSizes.put("oracle", 500);
+        fetchSizes.put("db2", 500);
+        mysqlStreaming = true;
+    }
+
+    public int getMaxTotal() {
+        return maxTotal;
+    }
+
+    public void setMaxTotal(int maxTotal) {
+        this.maxTotal = maxTotal;
+    }
+
+    public int getMaxIdle() {
+        return maxIdle;
+    }
+
+    public void setMaxIdle(int maxIdle) {
+        this.maxIdle = maxIdle;
+    }
+
+    public int getMinIdle() {
+        return minIdle;
+    }
+
+    public void setMinIdle(int minIdle) {
+        this.minIdle = minIdle;
+    }
+
+    public long getMaxWaitMillis() {
+        return maxWaitMillis;
+    }
+
+    public void setMaxWaitMillis(long maxWaitMillis) {
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    public boolean isTestOnBorrow() {
+        return testOnBorrow;
+    }
+
+    public void setTestOnBorrow(boolean testOnBorrow) {
+        this.testOnBorrow = testOnBorrow;
+    }
+
+    public boolean isTestWhileIdle() {
+        return testWhileIdle;
+    }
+
+    public void setTestWhileIdle(boolean testWhileIdle) {
+        this.testWhileIdle = testWhileIdle;
+    }
+
+    public String getValidationQuery() {
+        return validationQuery;
+    }
+
+    public void setValidationQuery(String validationQuery) {
+        this.validationQuery = validationQuery;
+    }
+
+    public long getTimeBetweenEvictionRunsMillis() {
+        return timeBetweenEvictionRunsMillis;
+    }
+
+    public void setTimeBetweenEvictionRunsMillis(long timeBetweenEvictionRunsMillis) {
+        this.timeBetweenEvictionRunsMillis = timeBetweenEvictionRunsMillis;
+    }
+
+    public long getMinEvictableIdleTimeMillis() {
+        return minEvictableIdleTimeMillis;
+    }
+
+    public void setMinEvictableIdleTimeMillis(long minEvictableIdleTimeMillis) {
+        this.minEvictableIdleTimeMillis = minEvictableIdleTimeMillis;
+    }
+
+    public boolean isPoolPreparedStatements() {
+        return poolPreparedStatements;
+    }
+
+    public void setPoolPreparedStatements(boolean poolPreparedStatements) {
+        this.poolPreparedStatements = poolPreparedStatements;
+    }
+
+    public int getMaxOpenPreparedStatements() {
+        return maxOpenPreparedStatements;
+    }
+
+    public void setMaxOpenPreparedStatements(int maxOpenPreparedStatements) {
+        this.maxOpenPreparedStatements = maxOpenPreparedStatements;
+    }
+
+    /**
+     * @param dbTypeName 数据库类型名称
+     * @return 每次读取的行数，0 表示使用驱动的默认值
+     */
+    public int getFetchSize(String dbTypeName) {
+        Integer fetchSize = fetchSizes.get(dbTypeName);
+        return fetchSize == null ? 0 : fetchSize;
+    }
+
+    public Map<String, Integer> getFetchSizes() {
+        return fetchSizes;
+    }
+
+    /**
+     * 设置各类数据库每次读取的行数
+     * @param fetchSizes 格式为 类型:行数,类型:行数，如 oracle:500,sqlserver:200，为空时不修改
+     */
+    public void setFetchSizes(String fetchSizes) {
+        if (StringUtils.isBlank(fetchSizes)) {
+            return;
+        }
+        Map<String, Integer> sizes = new HashMap<>();
+        for (String item : fetchSizes.split(",")) {
+            int pos = item.indexOf(':');
+            if (pos > 0) {
+                sizes.put(item.substring(0, pos).trim().toLowerCase(),
+                    NumberUtils.toInt(item.substring(pos + 1).trim(), 0));
+            }
+        }
+        this.fetchSizes = sizes;
+    }
+
+    public boolean isMysqlStreaming() {
+        return mysqlStreaming;
+    }
+
+    public void setMysqlStreaming(boolean mysqlStreaming) {
+        this.mysqlStreaming = mysqlStreaming;
+    }
+}
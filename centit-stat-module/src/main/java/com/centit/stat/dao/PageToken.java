@@ -0,0 +1,164 @@
+package com.centit.stat.dao;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.centit.support.report.StatReportException;
+
+/**
+ * keyset 分页的续页标记，对客户端不透明。
+ * <p>
+ * 记录上一页最后一行的排序键、结果中排序键和它相同并且已经返回的行数（下一页从这个键开始，跳过这些行），
+ * 以及下一页第一行之前的总行数。排序键可以为空值。
+ */
+public class PageToken {
+
+    private final Object[] keyValues;
+
+    private final int skip;
+
+    private final int offset;
+
+    private PageToken(Object[] keyValues, int skip, int offset) {
+        this.keyValues = keyValues;
+        this.skip = skip;
+        this.offset = offset;
+    }
+
+    /**
+     * @return 上一页最后一行的排序键，元素可以为 null；整个数组为 null 时从第一行开始跳过 skip 行
+     */
+    public Object[] getKeyValues() {
+        return keyValues;
+    }
+
+    public int getSkip() {
+        return skip;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    private static String encodeValue(Object value) {
+        if (value == null) {
+            return null;
+        }
+        if (value instanceof Number) {
+            return "N" + new BigDecimal(value.toString()).toPlainString();
+        }
+        if (value instanceof Date) {
+            return "D" + ((Date) value).getTime();
+        }
+        return "S" + value;
+    }
+
+    private static Object decodeValue(String text) {
+        if (text == null) {
+            return null;
+        }
+        String value = text.substring(1);
+        switch (text.charAt(0)) {
+            case 'N':
+                return new BigDecimal(value);
+            case 'D':
+                return new Timestamp(Long.parseLong(value));
+            default:
+                return value;
+        }
+    }
+
+    /**
+     * 根据当前页生成下一页的标记
+     * @param prev 当前页的标记，第一页为 null
+     * @param rows 当前页的数据，不能为空
+     * @param keyCols 排序键在行中的序号
+     * @return 下一页的标记
+     */
+    public static PageToken next(PageToken prev, List<Object[]> rows, int[] keyCols) {
+        int offset = (prev == null ? 0 : prev.offset) + rows.size();
+        Object[] last = rows.get(rows.size() - 1);
+        String[] lastKey = new String[keyCols.length];
+        for (int i = 0; i < keyCols.length; i++) {
+            lastKey[i] = encodeValue(last[keyCols[i]]);
+        }
+        int same = 0;
+        for (int r = rows.size() - 1; r >= 0 && sameKey(rows.get(r), keyCols, lastKey); r--) {
+            same++;
+        }
+        if (same == rows.size() && prev != null && prev.keyValues != null
+                && sameKey(prev.keyValues, null, lastKey)) {
+            same += prev.skip;
+        }
+        Object[] keyValues = new Object[keyCols.length];
+        for (int i = 0; i < keyCols.length; i++) {
+            keyValues[i] = last[keyCols[i]];
+        }
+        return new PageToken(keyValues, same, offset);
+    }
+
+    private static boolean sameKey(Object[] row, int[] keyCols, String[] key) {
+        for (int i = 0; i < key.length; i++) {
+            if (!Objects.equals(key[i], encodeValue(row[keyCols == null ? i : keyCols[i]]))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return 编码后的标记
+     */
+    public String encode() {
+        JSONArray json = new JSONArray();
+        json.add(offset);
+        json.add(skip);
+        if (keyValues != null) {
+            for (Object value : keyValues) {
+                json.add(encodeValue(value));
+            }
+        }
+        return Base64.getUrlEncoder().withoutPadding()
+            .encodeToString(json.toJSONString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 解析标记
+     * @param token 编码后的标记
+     * @param keyCount 排序键的个数
+     * @return 标记，token 为空时返回 null（第一页）
+     */
+    public static PageToken decode(String token, int keyCount) {
+        if (token == null || token.isEmpty()) {
+            return null;
+        }
+        try {
+            JSONArray json = JSON.parseArray(
+                new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8));
+            int offset = json.getIntValue(0);
+            int skip = json.getIntValue(1);
+            if (json.size() == 2) {
+                return new PageToken(null, skip, offset);
+            }
+            if (json.size() != keyCount + 2) {
+                throw new StatReportException("分页标记和报表的排序字段不一致！");
+            }
+            Object[] keyValues = new Object[keyCount];
+            for (int i = 0; i < keyCount; i++) {
+                keyValues[i] = decodeValue(json.getString(i + 2));
+            }
+            return new PageToken(keyValues, skip, offset);
+        } catch (StatReportException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw new StatReportException(StatReportException.FORMAT_NUMBER_EXCEPTION, "无效的分页标记！", e);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.centit.stat.dao;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.centit.support.report.StatReportException;
+
+/**
+ * 一次统计查询的执行上下文，绑定到执行查询的线程。
+ * DBCPDao 执行语句时登记到当前上下文，其他线程可以通过 cancel 调用 Statement.cancel 中断正在执行的查询；
+ * 同时记录已经读取的行数，作为查询进度。没有绑定上下文时这些操作都不做任何事。
+ */
+public class QueryContext {
+
+    private static final Logger logger = LoggerFactory.getLogger(QueryContext.class);
+
+    private static final ThreadLocal<QueryContext> CURRENT = new ThreadLocal<>();
+
+    /**
+     * 登记的语句，关闭时自动注销
+     */
+    public static class Registration implements AutoCloseable {
+        private final QueryContext context;
+        private final Statement statement;
+
+        private Registration(QueryContext context, Statement statement) {
+            this.context = context;
+            this.statement = statement;
+        }
+
+        @Override
+        public void close() {
+            if (context != null) {
+                context.statements.remove(statement);
+            }
+        }
+    }
+
+    private final Set<Statement> statements = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong rowsRead = new AtomicLong(0);
+
+    private volatile boolean cancelled;
+
+    /**
+     * 把上下文绑定到当前线程，查询结束后必须调用 unbind
+     * @param context 上下文
+     */
+    public static void bind(QueryContext context) {
+        CURRENT.set(context);
+    }
+
+    public static void unbind() {
+        CURRENT.remove();
+    }
+
+    /**
+     * @return 当前线程绑定的上下文，没有时返回 null；在其他线程中执行查询的一部分时，先取出再绑定到那个线程
+     */
+    public static QueryContext current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * 登记当前线程正在执行的语句，已经取消时直接抛出异常
+     * @param statement 语句
+     * @return 登记，在 try-with-resources 中使用
+     */
+    public static Registration register(Statement statement) {
+        QueryContext context = CURRENT.get();
+        if (context == null) {
+            return new Registration(null, statement);
+        }
+        context.statements.add(statement);
+        if (context.cancelled) {
+            context.statements.remove(statement);
+            throw new StatReportException(StatReportException.DATABASE_OPERATE_EXCEPTION, "查询已取消！");
+        }
+        return new Registration(context, statement);
+    }
+
+    /**
+     * 读取一行数据时调用，已经取消时抛出异常中断读取
+     */
+    public static void rowRead() {
+        QueryContext context = CURRENT.get();
+        if (context != null) {
+            if (context.cancelled) {
+                throw new StatReportException(StatReportException.DATABASE_OPERATE_EXCEPTION, "查询已取消！");
+            }
+            context.rowsRead.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return 当前线程绑定的查询是否已经取消
+     */
+    public static boolean isCurrentCancelled() {
+        QueryContext context = CURRENT.get();
+        return context != null && context.cancelled;
+    }
+
+    /**
+     * @return 已经从数据库读取的行数
+     */
+    public long getRowsRead() {
+        return rowsRead.get();
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * 取消查询，正在执行的语句调用 Statement.cancel，之后登记的语句直接失败
+     */
+    public void cancel() {
+        cancelled = true;
+        for (Statement statement : statements) {
+            try {
+                statement.cancel();
+            } catch (SQLException e) {
+                logger.warn("取消查询失败：" + e.getLocalizedMessage());
+            }
+        }
+    }
+}
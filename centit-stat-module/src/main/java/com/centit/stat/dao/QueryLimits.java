@@ -0,0 +1,96 @@
+package com.centit.stat.dao;
+
+import java.io.Serializable;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+
+import com.centit.support.report.StatReportException;
+
+/**
+ * 统计模块的查询限制：语句超时时间、最大行数和 JDBC 每次读取的行数，由 DBCPDao 在执行语句时设置。
+ * 各项为 0 时不限制（使用驱动的默认值）。
+ */
+public class QueryLimits implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final QueryLimits NONE = new QueryLimits(0, 0, 0);
+
+    private final int queryTimeout;
+
+    private final int maxRows;
+
+    private final int fetchSize;
+
+    /**
+     * @param queryTimeout 语句超时时间（秒）
+     * @param maxRows 查询结果的最大行数，超过时查询失败
+     * @param fetchSize JDBC 每次从数据库读取的行数
+     */
+    public QueryLimits(int queryTimeout, int maxRows, int fetchSize) {
+        this.queryTimeout = Math.max(queryTimeout, 0);
+        this.maxRows = Math.max(maxRows, 0);
+        this.fetchSize = Math.max(fetchSize, 0);
+    }
+
+    public int getQueryTimeout() {
+        return queryTimeout;
+    }
+
+    public int getMaxRows() {
+        return maxRows;
+    }
+
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    /**
+     * 设置语句的超时时间和读取行数；最大行数多取一行，读取时用 checkRowCount 判断是否超限
+     * @param stmt 语句
+     * @param limitRows 是否限制行数，分页等自己限制行数的语句为 false
+     * @param defaultFetchSize 模块没有设置读取行数时使用的值，0 使用驱动的默认值
+     * @throws SQLException 驱动不支持
+     */
+    void apply(Statement stmt, boolean limitRows, int defaultFetchSize) throws SQLException {
+        if (queryTimeout > 0) {
+            stmt.setQueryTimeout(queryTimeout);
+        }
+        int size = fetchSize > 0 ? fetchSize : defaultFetchSize;
+        if (size != 0) {
+            stmt.setFetchSize(size);
+        }
+        if (limitRows && maxRows > 0) {
+            stmt.setMaxRows(maxRows + 1);
+        }
+    }
+
+    /**
+     * 读取一行之后调用
+     * @param rowCount 已经读取的行数
+     */
+    void checkRowCount(int rowCount) {
+        if (maxRows > 0 && rowCount > maxRows) {
+            throw new StatReportException(StatReportException.DATABASE_OPERATE_EXCEPTION,
+                "查询结果超过 " + maxRows + " 行的限制，请增加查询条件缩小范围！");
+        }
+    }
+
+    /**
+     * 把执行语句的异常转换为说明原因的统计异常
+     * @param e 执行语句时的异常
+     * @return 统计异常
+     */
+    StatReportException queryFailed(Exception e) {
+        if (e instanceof StatReportException) {
+            return (StatReportException) e;
+        }
+        if (e instanceof SQLTimeoutException && queryTimeout > 0) {
+            return new StatReportException(StatReportException.DATABASE_OPERATE_EXCEPTION,
+                "查询执行超过 " + queryTimeout + " 秒的限制，请增加查询条件缩小范围！", e);
+        }
+        return new StatReportException(StatReportException.DATABASE_OPERATE_EXCEPTION,
+            "查询失败：" + e.getLocalizedMessage(), e);
+    }
+}
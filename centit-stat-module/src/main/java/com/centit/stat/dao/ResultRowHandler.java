@@ -0,0 +1,17 @@
+package com.centit.stat.dao;
+
+import java.sql.SQLException;
+
+/**
+ * 逐行处理查询结果，配合 DBCPDao.fetchObjectsNamedSql 使用，
+ * 结果集不会整体加载到内存中。
+ */
+public interface ResultRowHandler {
+
+    /**
+     * 处理一行数据
+     * @param row 当前行的各列值，每行都是新的数组，处理方可以保留引用
+     * @throws SQLException 处理失败时中断读取
+     */
+    void handleRow(Object[] row) throws SQLException;
+}
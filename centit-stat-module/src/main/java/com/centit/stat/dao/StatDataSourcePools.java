@@ -0,0 +1,152 @@
+package com.centit.stat.dao;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.dbcp2.BasicDataSource;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.centit.framework.ip.po.DatabaseInfo;
+import com.centit.support.database.utils.DataSourceDescription;
+
+/**
+ * 统计查询的数据源注册表，每个数据库代码对应一个连接池。
+ * 集成环境中数据库的地址、用户名或者密码修改后，下一次获取连接时会关闭旧的连接池重新创建。
+ */
+public final class StatDataSourcePools {
+
+    private static final Logger logger = LoggerFactory.getLogger(StatDataSourcePools.class);
+
+    private static final Map<String, PooledDataSource> DATA_SOURCES = new ConcurrentHashMap<>();
+
+    private static volatile DataSourcePoolConfig poolConfig = new DataSourcePoolConfig();
+
+    private StatDataSourcePools() {
+        throw new IllegalAccessError("Utility class");
+    }
+
+    private static class PooledDataSource {
+        private final String fingerprint;
+        private final BasicDataSource dataSource;
+
+        PooledDataSource(String fingerprint, BasicDataSource dataSource) {
+            this.fingerprint = fingerprint;
+            this.dataSource = dataSource;
+        }
+    }
+
+    /**
+     * 设置连接池配置，之后新建的连接池使用这个配置，已有的连接池全部重建
+     * @param config 连接池配置
+     */
+    public static void setPoolConfig(DataSourcePoolConfig config) {
+        poolConfig = config;
+        invalidateAll();
+    }
+
+    public static DataSourcePoolConfig getPoolConfig() {
+        return poolConfig;
+    }
+
+    private static String poolKey(DatabaseInfo dbinfo) {
+        return StringUtils.isBlank(dbinfo.getDatabaseCode()) ?
+            dbinfo.getDatabaseUrl() : dbinfo.getDatabaseCode();
+    }
+
+    private static String fingerprint(DatabaseInfo dbinfo) {
+        return dbinfo.getDatabaseUrl() + '\n' + dbinfo.getUsername() + '\n' + dbinfo.getClearPassword();
+    }
+
+    private static BasicDataSource createDataSource(DatabaseInfo dbinfo) {
+        DataSourcePoolConfig config = poolConfig;
+        BasicDataSource ds = new BasicDataSource();
+        // 驱动类由连接地址的数据库类型确定，驱动没有通过 ServiceLoader 注册时（WAR 的类加载器、ojdbc6）也能获取连接
+        DataSourceDescription desc = new DataSourceDescription();
+        desc.setConnUrl(dbinfo.getDatabaseUrl());
+        if (StringUtils.isNotBlank(desc.getDriver())) {
+            ds.setDriverClassName(desc.getDriver());
+        }
+        ds.setUrl(dbinfo.getDatabaseUrl());
+        ds.setUsername(dbinfo.getUsername());
+        ds.setPassword(dbinfo.getClearPassword());
+        ds.setMaxTotal(config.getMaxTotal());
+        ds.setMaxIdle(config.getMaxIdle());
+        ds.setMinIdle(config.getMinIdle());
+        ds.setMaxWaitMillis(config.getMaxWaitMillis());
+        ds.setTestOnBorrow(config.isTestOnBorrow());
+        ds.setTestWhileIdle(config.isTestWhileIdle());
+        if (StringUtils.isNotBlank(config.getValidationQuery())) {
+            ds.setValidationQuery(config.getValidationQuery());
+        }
+        ds.setTimeBetweenEvictionRunsMillis(config.getTimeBetweenEvictionRunsMillis());
+        ds.setMinEvictableIdleTimeMillis(config.getMinEvictableIdleTimeMillis());
+        ds.setPoolPreparedStatements(config.isPoolPreparedStatements());
+        ds.setMaxOpenPreparedStatements(config.getMaxOpenPreparedStatements());
+        return ds;
+    }
+
+    private static void closeQuietly(PooledDataSource pds) {
+        if (pds == null) {
+            return;
+        }
+        try {
+            pds.dataSource.close();
+        } catch (SQLException e) {
+            logger.error("关闭连接池失败：" + e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * 从数据库对应的连接池中获取连接
+     * @param dbinfo 数据库连接信息
+     * @return 连接
+     * @throws SQLException 获取连接失败
+     */
+    public static Connection getConnection(DatabaseInfo dbinfo) throws SQLException {
+        String key = poolKey(dbinfo);
+        String fingerprint = fingerprint(dbinfo);
+        PooledDataSource pds = DATA_SOURCES.get(key);
+        if (pds == null || !pds.fingerprint.equals(fingerprint)) {
+            PooledDataSource old = pds;
+            pds = DATA_SOURCES.compute(key, (k, curr) ->
+                (curr != null && curr.fingerprint.equals(fingerprint)) ? curr :
+                    new PooledDataSource(fingerprint, createDataSource(dbinfo)));
+            if (old != null && old != pds) {
+                logger.info("数据库 " + key + " 的连接信息已修改，重建连接池。");
+                closeQuietly(old);
+            }
+        }
+        return pds.dataSource.getConnection();
+    }
+
+    /**
+     * 关闭数据库对应的连接池，下次使用时重新创建
+     * @param databaseCode 数据库代码
+     */
+    public static void invalidate(String databaseCode) {
+        closeQuietly(DATA_SOURCES.remove(databaseCode));
+    }
+
+    /**
+     * 关闭所有的连接池
+     */
+    public static void invalidateAll() {
+        for (String key : DATA_SOURCES.keySet()) {
+            invalidate(key);
+        }
+    }
+
+    /**
+     * 当前活动连接数，用于监控
+     * @param databaseCode 数据库代码
+     * @return 活动连接数，没有连接池时返回0
+     */
+    public static int getNumActive(String databaseCode) {
+        PooledDataSource pds = DATA_SOURCES.get(databaseCode);
+        return pds == null ? 0 : pds.dataSource.getNumActive();
+    }
+}
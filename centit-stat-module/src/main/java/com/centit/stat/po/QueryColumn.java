@@ -24,6 +24,7 @@ public class QueryColumn implements java.io.Serializable {
 
     /**
      * 数据操作 0：无操作  1：合计  2：平均  3：平均 合计
+     * 4：最大值  5：最小值  6：计数  7：去重计数（估算）  8：标准差
      */
     @Column(name = "OPTTYPE")
     private String  optType;
@@ -88,6 +88,36 @@ public class QueryModel implements java.io.Serializable {
     @Column(name = "COLUMNSQL")
     @Length(min = 0, max = 2048, message = "字段长度不能小于{min}大于{max}")
     private String columnSql;
+    /**
+     * 统计结果缓存时间（秒），为空或者0不缓存
+     */
+    @Column(name = "CACHETTL")
+    @Digits(integer = 6, fraction = 0, message = "字段范围整数{integer}位小数{fraction}位")
+    private Integer cacheTtl;
+    /**
+     * 分页报表的合计、平均等统计行由数据库计算（T），否则只统计当前页
+     */
+    @Column(name = "TOTALINDB")
+    @Length(min = 0, max = 1, message = "字段长度不能小于{min}大于{max}")
+    private String totalInDb;
+    /**
+     * 语句超时时间（秒），为空或者0不限制
+     */
+    @Column(name = "QUERYTIMEOUT")
+    @Digits(integer = 6, fraction = 0, message = "字段范围整数{integer}位小数{fraction}位")
+    private Integer queryTimeout;
+    /**
+     * 查询结果的最大行数，超过时查询失败，为空或者0不限制
+     */
+    @Column(name = "MAXROWS")
+    @Digits(integer = 10, fraction = 0, message = "字段范围整数{integer}位小数{fraction}位")
+    private Integer maxRows;
+    /**
+     * JDBC 每次从数据库读取的行数，为空或者0使用驱动的默认值
+     */
+    @Column(name = "FETCHSIZE")
+    @Digits(integer = 6, fraction = 0, message = "字段范围整数{integer}位小数{fraction}位")
+    private Integer fetchSize;
     @OneToMany(mappedBy = "queryModel", orphanRemoval = true, cascade = CascadeType.ALL, fetch = FetchType.LAZY)
     @OrderBy("colOrder")
     private List<QueryColumn> queryColumns = null;// new ArrayList<QueryColumn>();
@@ -301,6 +331,46 @@ public class QueryModel implements java.io.Serializable {
     }
 
 
+    public Integer getCacheTtl() {
+        return cacheTtl;
+    }
+
+    public void setCacheTtl(Integer cacheTtl) {
+        this.cacheTtl = cacheTtl;
+    }
+
+    public String getTotalInDb() {
+        return totalInDb;
+    }
+
+    public void setTotalInDb(String totalInDb) {
+        this.totalInDb = totalInDb;
+    }
+
+    public Integer getQueryTimeout() {
+        return queryTimeout;
+    }
+
+    public void setQueryTimeout(Integer queryTimeout) {
+        this.queryTimeout = queryTimeout;
+    }
+
+    public Integer getMaxRows() {
+        return maxRows;
+    }
+
+    public void setMaxRows(Integer maxRows) {
+        this.maxRows = maxRows;
+    }
+
+    public Integer getFetchSize() {
+        return fetchSize;
+    }
+
+    public void setFetchSize(Integer fetchSize) {
+        this.fetchSize = fetchSize;
+    }
+
     public List<QueryColumn> getQueryColumns(){
         if(this.queryColumns==null)
             this.queryColumns = new ArrayList<QueryColumn>();
@@ -482,6 +552,11 @@ public class QueryModel implements java.io.Serializable {
         this.columnSql = other.getColumnSql();
         this.isTree = other.getIsTree();
         this.wizardNo = other.getWizardNo();
+        this.cacheTtl = other.getCacheTtl();
+        this.totalInDb = other.getTotalInDb();
+        this.queryTimeout = other.getQueryTimeout();
+        this.maxRows = other.getMaxRows();
+        this.fetchSize = other.getFetchSize();
     }
 
     public void copyNotNullProperty(QueryModel other){
@@ -523,6 +598,16 @@ public class QueryModel implements java.io.Serializable {
         this.isTree = other.isTree;
         if(other.getWizardNo()!=null)
             this.wizardNo = other.getWizardNo();
+        if(other.getCacheTtl()!=null)
+            this.cacheTtl = other.getCacheTtl();
+        if(other.getTotalInDb()!=null)
+            this.totalInDb = other.getTotalInDb();
+        if(other.getQueryTimeout()!=null)
+            this.queryTimeout = other.getQueryTimeout();
+        if(other.getMaxRows()!=null)
+            this.maxRows = other.getMaxRows();
+        if(other.getFetchSize()!=null)
+            this.fetchSize = other.getFetchSize();
         if(null!=other.getQueryColumns())
             replaceQueryColumns(other.getQueryColumns());
         if(null!=other.getQueryConditions())
@@ -548,6 +633,11 @@ public class QueryModel implements java.io.Serializable {
         this.logicUrl = null;
         this.isTree = null;
         this.wizardNo = null;
+        this.cacheTtl = null;
+        this.totalInDb = null;
+        this.queryTimeout = null;
+        this.maxRows = null;
+        this.fetchSize = null;
         this.queryColumns = new ArrayList<QueryColumn>();
         this.queryConditions = new ArrayList<QueryCondition>();
     }
@@ -1,5 +1,9 @@
 package com.centit.stat.po.html;
 
+import java.io.IOException;
+
+import com.alibaba.fastjson.annotation.JSONField;
+
 /**
  * HTML组件
  * 
@@ -43,5 +47,98 @@ public abstract class AbstractCHtmlComponent {
         this.cssClass = cssClass;
     }
 
-    public abstract String getHtml();
+    /**
+     * 生成 HTML 文本，大表格应该使用 writeHtml 直接写入输出端
+     *
+     * @return HTML
+     */
+    @JSONField(serialize = false)
+    public String getHtml() {
+        StringBuilder sb = new StringBuilder(64);
+        try {
+            writeHtml(sb);
+        } catch (IOException e) {
+            // StringBuilder 不会抛出 IOException
+            throw new IllegalStateException(e);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 将 HTML 写入输出端，转义在写入时完成，不生成中间字符串
+     *
+     * @param out 输出端，可以是 StringBuilder 也可以是 Writer
+     * @throws IOException 写入失败
+     */
+    public abstract void writeHtml(Appendable out) throws IOException;
+
+    /**
+     * 写入 id、class 和 style 属性，空的属性不写
+     *
+     * @param out 输出端
+     * @throws IOException 写入失败
+     */
+    protected void writeAttributes(Appendable out) throws IOException {
+        writeAttribute(out, "id", id);
+        writeAttribute(out, "class", cssClass);
+        writeAttribute(out, "style", cssStyle);
+    }
+
+    protected static void writeAttribute(Appendable out, String name, CharSequence value) throws IOException {
+        if (null == value || value.length() == 0) {
+            return;
+        }
+        out.append(' ').append(name).append("='");
+        escape(out, value);
+        out.append('\'');
+    }
+
+    protected static void writeAttribute(Appendable out, String name, int value) throws IOException {
+        out.append(' ').append(name).append("='").append(Integer.toString(value)).append('\'');
+    }
+
+    /**
+     * 转义 HTML 特殊字符，没有特殊字符的片段整段写入
+     *
+     * @param out 输出端
+     * @param text 文本，为 null 时不写
+     * @throws IOException 写入失败
+     */
+    public static void escape(Appendable out, CharSequence text) throws IOException {
+        if (null == text) {
+            return;
+        }
+        int start = 0;
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            String entity;
+            switch (text.charAt(i)) {
+                case '<':
+                    entity = "&lt;";
+                    break;
+                case '>':
+                    entity = "&gt;";
+                    break;
+                case '&':
+                    entity = "&amp;";
+                    break;
+                case '\'':
+                    entity = "&#39;";
+                    break;
+                case '"':
+                    entity = "&quot;";
+                    break;
+                default:
+                    continue;
+            }
+            if (i > start) {
+                out.append(text, start, i);
+            }
+            out.append(entity);
+            start = i + 1;
+        }
+        if (start < length) {
+            out.append(text, start, length);
+        }
+    }
 }
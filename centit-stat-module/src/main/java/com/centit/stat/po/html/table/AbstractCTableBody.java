@@ -1,5 +1,6 @@
 package com.centit.stat.po.html.table;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -52,4 +53,21 @@ public abstract class AbstractCTableBody extends AbstractCHtmlComponent{
              lines = new ArrayList<>();
         return lines;
     }
+
+    /**
+     * 写入所有行
+     *
+     * @param out 输出端
+     * @param tag thead 或者 tbody
+     * @throws IOException 写入失败
+     */
+    protected void writeLines(Appendable out, String tag) throws IOException {
+        out.append('<').append(tag);
+        writeAttributes(out);
+        out.append('>');
+        for (CTableLine line : getLines()) {
+            line.writeHtml(out);
+        }
+        out.append("</").append(tag).append('>');
+    }
 }
@@ -1,12 +1,12 @@
 package com.centit.stat.po.html.table;
 
+import java.io.IOException;
+
 public class CTableBodyTBody extends AbstractCTableBody {
-    public static final String TABLE_BODY_TBODY_MODEL = "<tbody${id}${class}${style}>${lines}</tbody>";
-    
+
     @Override
-    public String getHtml() {
-        // TODO Auto-generated method stub
-        return null;
+    public void writeHtml(Appendable out) throws IOException {
+        writeLines(out, "tbody");
     }
 
 }
@@ -1,11 +1,12 @@
 package com.centit.stat.po.html.table;
 
+import java.io.IOException;
+
 public class CTableBodyTHead extends AbstractCTableBody {
 
     @Override
-    public String getHtml() {
-        // TODO Auto-generated method stub
-        return null;
+    public void writeHtml(Appendable out) throws IOException {
+        writeLines(out, "thead");
     }
 
 }
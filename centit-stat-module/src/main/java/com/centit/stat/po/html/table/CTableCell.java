@@ -5,17 +5,11 @@ import java.io.IOException;
 import java.io.Reader;
 import java.sql.Clob;
 import java.sql.SQLException;
-import java.text.DecimalFormat;
-import java.text.SimpleDateFormat;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.apache.commons.lang3.StringUtils;
 
-import com.centit.framework.components.CodeRepositoryUtil;
 import com.centit.stat.po.QueryColumn;
 import com.centit.stat.po.html.AbstractCHtmlComponent;
 
@@ -33,33 +27,6 @@ public class CTableCell extends AbstractCHtmlComponent {
 
     public static final String TARGET_DIALOG = "dialog";
 
-    /**
-     * 检查style是否含有display属性
-     */
-    public static final Pattern PATTERN_DISPLAY = Pattern.compile("display:(.*?);");
-
-    /**
-     * HTML模板 不带链接
-     */
-    public static final String TABLE_CELL_MODEL = "<td${id}${class}${style}${rowspan}${colspan}>${data}</td>";
-
-    /**
-     * HTML模板 带链接
-     */
-    public static final String TABLE_CELL_MODEL_LINK
-        = "<td ${id}${class}${style}${rowspan}${colspan}><a href='${href}'${target} external='true'>${data}</a></td>";
-
-    /**
-     * HTML模板 不带链接
-     */
-    public static final String TABLE_HEAD_CELL_MODEL = "<th${id}${class}${style}${rowspan}${colspan}>${data}</th>";
-
-    /**
-     * HTML模板 带链接
-     */
-    public static final String TABLE_HEAD_CELL_MODEL_LINK
-        = "<th ${id}${class}${style}${rowspan}${colspan}><a href='${href}'${target} external='true'>${data}</a></th>";
-
     /**
      * 存储属性
      */
@@ -97,56 +64,16 @@ public class CTableCell extends AbstractCHtmlComponent {
     private int colspan;
 
     /**
-     * 和报表功能结合，创建表格单元格
+     * 和报表功能结合，创建表格单元格；每次调用都会编译列格式，批量创建时应该使用模块的 ColumnFormatter
      * @param orignValue 原始值
      * @param col 列
      * @param params 行参数
      * @return 单元格
      */
     public static CTableCell createTableCell(Object orignValue, QueryColumn col, Map<String, Object> params) {
-        CTableCell cell = new CTableCell();
-        String showValue;
-        if("--".equals(orignValue))
-            {showValue=(String)orignValue;}
-        else
-            {showValue= parseDisplayValue(orignValue, col);}
-
-        String hrefValue = parseHref(col, params);
-        if(null!=col.getCssStyle())
-        cell.setCssStyle(col.getCssStyle());
-        cell.setValue(orignValue);
-        if(StringUtils.isNotBlank(col.getCatalogCode()))
-            {
-            String dicValue=CodeRepositoryUtil.getValue(col.getCatalogCode(), orignValue.toString());
-                if(StringUtils.isNotBlank(dicValue))
-                    {cell.setDisplayValue(dicValue);}
-                else{
-                    cell.setDisplayValue(showValue);}
-            }
-        else{
-            cell.setDisplayValue(showValue);
-        }
-
-        cell.setHref(hrefValue);
-        cell.setLinkTarget(col.getLinkType());
-
-        cell.setDisplay(parseDisplay(col));
-
-        // 设置属性
-        for(Entry<String, Object> entry : params.entrySet()) {
-            String key = entry.getKey().replaceAll(":", "").trim();
-            Object value = entry.getValue();
-
-            if (null == value) continue;
-
-            cell.setProperty(key, value.toString().trim());
-        }
-        return cell;
+        return new ColumnFormatter(col).createCell(orignValue, params);
     }
 
-
-
-
     public static String ClobToString(Clob clob) {
         String reString = "";
         Reader is = null;
@@ -221,7 +148,7 @@ public class CTableCell extends AbstractCHtmlComponent {
      * @param col 列
      * @return 布尔值
      */
-    private static boolean parseDisplay(QueryColumn col) {
+    static boolean parseDisplay(QueryColumn col) {
         // 为空或者值为 T 均显示
         if (null == col || StringUtils.isBlank(col.getIsShow()) || "T".equals(col.getIsShow())) {
             return true;
@@ -230,81 +157,6 @@ public class CTableCell extends AbstractCHtmlComponent {
         return false;
     }
 
-    /**
-     * 根据查询数值替换参数
-     *
-     * @param col 列
-     * @param params 参数
-     * @return String
-     */
-    private static String parseHref(QueryColumn col, Map<String, Object> params) {
-        if (null == col || StringUtils.isBlank(col.getColLogic())) {
-            return null;
-        }
-
-        String colLogic = col.getColLogic();
-
-        for(Entry<String, Object> entry : params.entrySet()) {
-            if (null == entry.getValue()) continue;
-
-            colLogic = colLogic.replaceAll(entry.getKey(), ""+entry.getValue());
-        }
-
-        return colLogic;
-    }
-
-    /**
-     * 根据列类型 解析展示格式
-     *
-     * @param orignValue 原始值
-     * @param col 列
-     * @return String
-     */
-    private static String parseDisplayValue(Object orignValue, QueryColumn col) {
-        if(orignValue instanceof Clob)
-            return ClobToString((Clob)orignValue);
-        String value = (null != orignValue) ? orignValue.toString() : "";
-        if (StringUtils.isEmpty(value)) return value;
-        if (null == col || StringUtils.isBlank(col.getColType())) {
-            return value;
-        }
-
-        String colType = col.getColType();
-        String format = col.getColFormat();
-
-        // 字符串
-        if ("S".equals(colType)) {
-            return value;
-        }
-
-        // 数字 货币
-        if ("N".equals(colType) || "C".equals(colType)) {
-            if (StringUtils.isEmpty(format)) {
-                return value;
-            }
-
-            DecimalFormat df = new DecimalFormat(format);
-            return df.format(Double.parseDouble(value));
-        }
-
-        // 百分比
-        if ("P".equals(colType)) {
-            DecimalFormat df = new DecimalFormat(format + "%");
-            return df.format(Double.parseDouble(value));
-        }
-
-        // 日期
-        if ("D".equals(colType)) {
-            SimpleDateFormat sdf = new SimpleDateFormat(format);
-            if (orignValue=="--")
-                return value;
-            return sdf.format(orignValue);
-        }
-
-
-        return value;
-    }
-
     public boolean isHead() {
         return isHead;
     }
@@ -383,55 +235,48 @@ public class CTableCell extends AbstractCHtmlComponent {
         property.put(key, value);
     }
 
-    @Override
-    public String getHtml() {
-        if (!display) {
-            Matcher m = PATTERN_DISPLAY.matcher(getCssStyle());
-
-            if (!m.matches()) {
-                setCssStyle(getCssStyle() + "display:none;");
-            }
-            else {
-                setCssStyle(m.replaceAll("display:none;"));
-            }
+    /**
+     * 不展示的单元格在样式中加上 display:none，原样式只是一个 display 声明时替换掉
+     */
+    private void writeStyle(Appendable out) throws IOException {
+        String style = getCssStyle();
+        if (display) {
+            writeAttribute(out, "style", style);
+            return;
         }
+        out.append(" style='");
+        if (null != style && !(style.startsWith("display:") && style.endsWith(";"))) {
+            escape(out, style);
+        }
+        out.append("display:none;'");
+    }
 
-        String strRowspan = (rowspan <= 1 ? "" : " rowspan='" + rowspan + "'");
-        String strColspan = (colspan <= 1 ? "" : " colspan='" + colspan + "'");
-        String strTarget = (StringUtils.isEmpty(linkTarget) ? "" : " target='" + linkTarget + "'");
-        String strStyle = (StringUtils.isEmpty(getCssStyle()) ? "" : " style='" + getCssStyle() + "'");
-        String strClass = (StringUtils.isEmpty(getCssClass()) ? "" : " class='" + getCssClass() + "'");
-        String strId = (StringUtils.isEmpty(getId()) ? "" : " id='" + getId() + "'");
-
-        String html;
-
-        // 纯数据不带链接
-        if (StringUtils.isEmpty(href)) {
-
-            if (isHead) {
-                html = TABLE_HEAD_CELL_MODEL;
-            }
-            else {
-                html = TABLE_CELL_MODEL;
-            }
+    @Override
+    public void writeHtml(Appendable out) throws IOException {
+        String tag = isHead ? "th" : "td";
+        out.append('<').append(tag);
+        writeAttribute(out, "id", getId());
+        writeAttribute(out, "class", getCssClass());
+        writeStyle(out);
+        if (rowspan > 1) {
+            writeAttribute(out, "rowspan", rowspan);
         }
-        else {
-            if (isHead) {
-                html = TABLE_HEAD_CELL_MODEL_LINK.replace("${href}", href)
-                        .replace("${target}", strTarget);
-            }
-            else {
-                html = TABLE_CELL_MODEL_LINK.replace("${href}", href)
-                        .replace("${target}", strTarget);
-            }
+        if (colspan > 1) {
+            writeAttribute(out, "colspan", colspan);
         }
+        out.append('>');
 
-        // 替换返回
-        return html.replace("${id}", strId)
-                .replace("${class}", strClass)
-                .replace("${style}", strStyle)
-                .replace("${rowspan}", strRowspan)
-                .replace("${colspan}", strColspan)
-                .replace("${data}", displayValue);
+        if (StringUtils.isEmpty(href)) {
+            escape(out, displayValue);
+        } else {
+            out.append("<a href='");
+            escape(out, href);
+            out.append('\'');
+            writeAttribute(out, "target", linkTarget);
+            out.append(" external='true'>");
+            escape(out, displayValue);
+            out.append("</a>");
+        }
+        out.append("</").append(tag).append('>');
     }
 }
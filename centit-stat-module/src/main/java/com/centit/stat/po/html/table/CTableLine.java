@@ -1,10 +1,9 @@
 package com.centit.stat.po.html.table;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
-import org.apache.commons.lang3.StringUtils;
-
 import com.centit.stat.po.html.AbstractCHtmlComponent;
 
 /**
@@ -13,8 +12,6 @@ import com.centit.stat.po.html.AbstractCHtmlComponent;
  * @author zk 2013-6-8
  */
 public class CTableLine extends AbstractCHtmlComponent {
-    public static final String TABLE_LINE_MODEL = "<tr${id}${class}${style}>${cells}</tr>";
-
     public CTableLine(){
         firstCellCol = 0;
     }
@@ -53,22 +50,20 @@ public class CTableLine extends AbstractCHtmlComponent {
         return cells;
     }
 
+    /**
+     * 被上方单元格跨行占用的单元格（rowspan 为 -1）不输出
+     */
     @Override
-    public String getHtml() {
-        String strStyle = (StringUtils.isEmpty(getCssStyle()) ? "" : " style='" + getCssStyle() + "'");
-        String strClass = (StringUtils.isEmpty(getCssClass()) ? "" : " class='" + getCssClass() + "'");
-        String strId = (StringUtils.isEmpty(getId()) ? "" : " id='" + getId() + "'");
-
-        StringBuilder sb = new StringBuilder();
+    public void writeHtml(Appendable out) throws IOException {
+        out.append("<tr");
+        writeAttributes(out);
+        out.append('>');
         for (CTableCell cell : getCells()) {
-            sb.append(cell.getHtml());
+            if (cell.getRowspan() >= 0) {
+                cell.writeHtml(out);
+            }
         }
-
-        // 替换返回
-        return TABLE_LINE_MODEL.replace("${id}", strId)
-                .replace("${class}", strClass)
-                .replace("${style}", strStyle)
-                .replace("${cells}", sb.toString());
+        out.append("</tr>");
     }
 
     public String getLineType() {
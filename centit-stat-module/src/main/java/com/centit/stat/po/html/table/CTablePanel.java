@@ -1,5 +1,7 @@
 package com.centit.stat.po.html.table;
 
+import java.io.IOException;
+
 import com.centit.stat.po.html.AbstractCHtmlComponent;
 
 
@@ -41,9 +43,20 @@ public class CTablePanel extends AbstractCHtmlComponent{
         this.tbody = tbody;
     }
 
+    /**
+     * 整个表格写入同一个输出端，输出端为响应流时边生成边输出
+     */
     @Override
-    public String getHtml() {
-        // TODO Auto-generated method stub
-        return null;
+    public void writeHtml(Appendable out) throws IOException {
+        out.append("<table");
+        writeAttributes(out);
+        out.append('>');
+        if (null != thead) {
+            thead.writeHtml(out);
+        }
+        if (null != tbody) {
+            tbody.writeHtml(out);
+        }
+        out.append("</table>");
     }
 }
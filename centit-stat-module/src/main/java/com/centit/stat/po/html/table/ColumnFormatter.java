@@ -0,0 +1,170 @@
+package com.centit.stat.po.html.table;
+
+import java.sql.Clob;
+import java.text.DecimalFormat;
+import java.text.SimpleDateFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.centit.framework.components.CodeRepositoryUtil;
+import com.centit.stat.po.QueryColumn;
+
+/**
+ * 编译好的列格式，每个统计模块的每一列只创建一次，所有请求共享：
+ * 数字、日期格式只解析一次（格式对象线程内复用），链接格式编译成 LinkFormat，
+ * 数据字典的翻译结果按照原始值缓存，同一个代码只查询一次数据字典。
+ * <p>
+ * 字典缓存和模块的生命周期一致，模块刷新时重新创建。
+ */
+public class ColumnFormatter {
+
+    /**
+     * 字典缓存的最大条目数，超过后不再缓存，直接查询数据字典
+     */
+    private static final int MAX_DICTIONARY_ENTRIES = 10000;
+
+    private static final byte TYPE_TEXT = 0;
+    private static final byte TYPE_NUMBER = 1;
+    private static final byte TYPE_DATE = 2;
+
+    private final QueryColumn column;
+
+    private final byte type;
+
+    private final ThreadLocal<DecimalFormat> numberFormat;
+
+    private final ThreadLocal<SimpleDateFormat> dateFormat;
+
+    private final LinkFormat linkFormat;
+
+    private final String catalogCode;
+
+    /**
+     * 数据字典翻译结果，主键为原始值，没有翻译结果时值为空字符串
+     */
+    private final Map<Object, String> dictionary;
+
+    private final String cssStyle;
+
+    private final boolean display;
+
+    public ColumnFormatter(QueryColumn col) {
+        this.column = col;
+        String colType = col.getColType();
+        final String format = col.getColFormat();
+        if (("N".equals(colType) || "C".equals(colType)) && StringUtils.isNotEmpty(format)) {
+            type = TYPE_NUMBER;
+            numberFormat = ThreadLocal.withInitial(() -> new DecimalFormat(format));
+            dateFormat = null;
+        } else if ("P".equals(colType)) {
+            type = TYPE_NUMBER;
+            numberFormat = ThreadLocal.withInitial(() -> new DecimalFormat(format + "%"));
+            dateFormat = null;
+        } else if ("D".equals(colType)) {
+            type = TYPE_DATE;
+            numberFormat = null;
+            dateFormat = ThreadLocal.withInitial(() -> new SimpleDateFormat(format));
+        } else {
+            type = TYPE_TEXT;
+            numberFormat = null;
+            dateFormat = null;
+        }
+        linkFormat = StringUtils.isBlank(col.getColLogic()) ? null : LinkFormat.compile(col.getColLogic());
+        catalogCode = StringUtils.isBlank(col.getCatalogCode()) ? null : col.getCatalogCode();
+        dictionary = catalogCode == null ? null : new ConcurrentHashMap<>();
+        cssStyle = col.getCssStyle();
+        display = CTableCell.parseDisplay(col);
+    }
+
+    public QueryColumn getColumn() {
+        return column;
+    }
+
+    /**
+     * 根据列类型格式化原始值，不包括数据字典翻译
+     * @param orignValue 原始值
+     * @return 展示值
+     */
+    public String formatValue(Object orignValue) {
+        if ("--".equals(orignValue)) {
+            return "--";
+        }
+        if (orignValue instanceof Clob) {
+            return CTableCell.ClobToString((Clob) orignValue);
+        }
+        if (type == TYPE_NUMBER && orignValue instanceof Number) {
+            return numberFormat.get().format(((Number) orignValue).doubleValue());
+        }
+        String value = (null != orignValue) ? orignValue.toString() : "";
+        if (StringUtils.isEmpty(value)) {
+            return value;
+        }
+        switch (type) {
+            case TYPE_NUMBER:
+                return numberFormat.get().format(Double.parseDouble(value));
+            case TYPE_DATE:
+                return dateFormat.get().format(orignValue);
+            default:
+                return value;
+        }
+    }
+
+    /**
+     * 数据字典翻译
+     * @param orignValue 原始值，不能为 null
+     * @return 翻译结果，没有时返回 null
+     */
+    private String lookupDictionary(Object orignValue) {
+        String dicValue = dictionary.get(orignValue);
+        if (dicValue == null) {
+            dicValue = CodeRepositoryUtil.getValue(catalogCode, orignValue.toString());
+            if (StringUtils.isBlank(dicValue)) {
+                dicValue = "";
+            }
+            if (dictionary.size() < MAX_DICTIONARY_ENTRIES) {
+                dictionary.put(orignValue, dicValue);
+            }
+        }
+        return dicValue.isEmpty() ? null : dicValue;
+    }
+
+    /**
+     * @param params 行参数
+     * @return 单元格链接，没有链接格式时返回 null
+     */
+    public String formatHref(Map<String, Object> params) {
+        return linkFormat == null ? null : linkFormat.format(params);
+    }
+
+    /**
+     * 创建表格单元格
+     * @param orignValue 原始值
+     * @param params 行参数
+     * @return 单元格
+     */
+    public CTableCell createCell(Object orignValue, Map<String, Object> params) {
+        CTableCell cell = new CTableCell();
+        if (null != cssStyle)
+            cell.setCssStyle(cssStyle);
+        cell.setValue(orignValue);
+        String dicValue = (catalogCode == null || orignValue == null) ? null : lookupDictionary(orignValue);
+        cell.setDisplayValue(dicValue != null ? dicValue : formatValue(orignValue));
+        cell.setLinkTarget(column.getLinkType());
+        cell.setDisplay(display);
+
+        if (linkFormat != null) {
+            cell.setHref(linkFormat.format(params));
+            // 只保存链接中引用的参数
+            for (String name : linkFormat.getParamNames()) {
+                Object value = params.get(name);
+
+                if (null == value) continue;
+
+                cell.setProperty(name.substring(1), value.toString().trim());
+            }
+        }
+        return cell;
+    }
+}
@@ -0,0 +1,106 @@
+package com.centit.stat.po.html.table;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 编译好的单元格链接格式（QueryColumn.colLogic），格式中用 :name 引用行参数。
+ * 同一个格式只解析一次，生成链接时按照参数名直接取值，不再对每个参数做正则替换。
+ */
+public class LinkFormat {
+
+    private static final int MAX_FORMATS = 512;
+
+    private static final Map<String, LinkFormat> FORMATS =
+        new LinkedHashMap<String, LinkFormat>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, LinkFormat> eldest) {
+                return size() > MAX_FORMATS;
+            }
+        };
+
+    /**
+     * paramNames[i] 位于 fragments[i] 和 fragments[i+1] 之间
+     */
+    private final String[] fragments;
+
+    /**
+     * 引用的参数名，包括前面的冒号
+     */
+    private final String[] paramNames;
+
+    private LinkFormat(String format) {
+        List<String> frags = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        int start = 0;
+        int length = format.length();
+        for (int i = 0; i < length; i++) {
+            if (format.charAt(i) != ':') {
+                continue;
+            }
+            int j = i + 1;
+            while (j < length && (Character.isLetterOrDigit(format.charAt(j)) || format.charAt(j) == '_')) {
+                j++;
+            }
+            if (j > i + 1) {
+                frags.add(format.substring(start, i));
+                names.add(format.substring(i, j));
+                start = j;
+                i = j - 1;
+            }
+        }
+        frags.add(format.substring(start));
+        this.fragments = frags.toArray(new String[frags.size()]);
+        this.paramNames = names.toArray(new String[names.size()]);
+    }
+
+    /**
+     * 获取格式对应的编译结果，没有时编译一个
+     * @param format 链接格式
+     * @return 编译结果
+     */
+    public static LinkFormat compile(String format) {
+        synchronized (FORMATS) {
+            LinkFormat linkFormat = FORMATS.get(format);
+            if (linkFormat == null) {
+                linkFormat = new LinkFormat(format);
+                FORMATS.put(format, linkFormat);
+            }
+            return linkFormat;
+        }
+    }
+
+    /**
+     * @return 格式中引用的参数名，包括前面的冒号，可能有重复
+     */
+    public String[] getParamNames() {
+        return paramNames;
+    }
+
+    /**
+     * 用行参数生成链接，没有对应参数（或者参数值为 null）的引用原样保留
+     * @param params 行参数，主键为 :name
+     * @return 链接
+     */
+    public String format(Map<String, Object> params) {
+        if (paramNames.length == 0) {
+            return fragments[0];
+        }
+        StringBuilder sb = new StringBuilder(fragments[0].length() + 32 * paramNames.length);
+        for (int i = 0; i < paramNames.length; i++) {
+            sb.append(fragments[i]);
+            Object value = params.get(paramNames[i]);
+            if (null == value) {
+                sb.append(paramNames[i]);
+            } else {
+                sb.append(value);
+            }
+        }
+        sb.append(fragments[paramNames.length]);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,591 @@
+package com.centit.stat.service;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+import com.centit.stat.dao.ResultRowHandler;
+import com.centit.stat.service.pipeline.AggregateKernel;
+
+/**
+ * 按列存储的统计结果，替代 List&lt;Object[]&gt;。
+ * <p>
+ * 每列按照 QueryColumn.colType（没有时按照第一个非空值）选择存储方式：整数列存 long[]；
+ * BigDecimal 列存 long[] 的无标度值和 byte[] 的标度；Double 列存 double[]；日期列存毫秒数；
+ * 字符串列按字典编码存 int[]；其他类型存 Object[]。取出的值和存入的值类型、数值都相同，
+ * 整数列和日期列按照第一个值的类型（Integer、Long，java.sql.Timestamp 等）还原。
+ * 空值用位图标记。合计行中的"合计"、"--"这类和列类型不符的少量值单独存放，
+ * 不符的值过多时整列退化为 Object[]。
+ * <p>
+ * 结果在查询线程中逐行追加，追加完成后调用 trim；之后只读，可以被多个线程共享。
+ */
+public class ColumnarResult implements ResultRowHandler, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private static final byte KIND_UNKNOWN = 0;
+    private static final byte KIND_LONG = 1;
+    private static final byte KIND_DOUBLE = 2;
+    private static final byte KIND_DATE = 3;
+    private static final byte KIND_STRING = 4;
+    private static final byte KIND_OBJECT = 5;
+    private static final byte KIND_DECIMAL = 6;
+    /**
+     * 数值列，第一个数值确定存储方式
+     */
+    private static final byte KIND_NUMBER = 7;
+
+    /**
+     * 绝对值不超过 2^53 的 long 可以准确转换为 double
+     */
+    private static final long MAX_EXACT_DOUBLE = 1L << 53;
+
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /**
+     * 和列类型不符的值超过这个数量，并且超过行数的 1/8 时，整列退化为 Object[]
+     */
+    private static final int MAX_OTHER_VALUES = 64;
+
+    /**
+     * 字典超过这个大小，并且超过行数的一半时，字符串列退化为 Object[]
+     */
+    private static final int MAX_DICTIONARY = 4096;
+
+    private final Column[] columns;
+
+    private int rowCount;
+
+    /**
+     * @param colTypes 各列的 QueryColumn.colType，元素可以为 null
+     */
+    public ColumnarResult(String[] colTypes) {
+        columns = new Column[colTypes.length];
+        for (int i = 0; i < colTypes.length; i++) {
+            columns[i] = new Column(kindOfColType(colTypes[i]));
+        }
+        rowCount = 0;
+    }
+
+    /**
+     * @param width 列数，各列按照第一个非空值确定类型
+     */
+    public ColumnarResult(int width) {
+        this(new String[width]);
+    }
+
+    /**
+     * 将按行存储的数据转换为按列存储
+     * @param rows 数据行
+     * @param colTypes 各列的 QueryColumn.colType，为 null 时按照值确定类型
+     * @return 按列存储的结果
+     */
+    public static ColumnarResult fromRows(List<Object[]> rows, String[] colTypes) {
+        ColumnarResult result;
+        if (colTypes != null) {
+            result = new ColumnarResult(colTypes);
+        } else {
+            result = new ColumnarResult(rows.isEmpty() ? 0 : rows.get(0).length);
+        }
+        for (Object[] row : rows) {
+            result.handleRow(row);
+        }
+        result.trim();
+        return result;
+    }
+
+    private static byte kindOfColType(String colType) {
+        if ("N".equals(colType) || "C".equals(colType) || "P".equals(colType)) {
+            return KIND_NUMBER;
+        }
+        if ("D".equals(colType)) {
+            return KIND_DATE;
+        }
+        if ("S".equals(colType)) {
+            return KIND_STRING;
+        }
+        return KIND_UNKNOWN;
+    }
+
+    private static byte kindOfValue(Object value) {
+        if (isLongType(value)) {
+            return KIND_LONG;
+        }
+        if (value instanceof BigDecimal) {
+            return KIND_DECIMAL;
+        }
+        if (value instanceof Double) {
+            return KIND_DOUBLE;
+        }
+        if (isDateType(value)) {
+            return KIND_DATE;
+        }
+        if (value instanceof String) {
+            return KIND_STRING;
+        }
+        return KIND_OBJECT;
+    }
+
+    private static boolean isLongType(Object value) {
+        return value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte;
+    }
+
+    /**
+     * java.util.Date 和 JDBC 返回的三种子类，其他子类可能有额外的字段，按照对象存放
+     */
+    private static boolean isDateType(Object value) {
+        if (value == null) {
+            return false;
+        }
+        Class<?> type = value.getClass();
+        return type == Date.class || type == java.sql.Date.class || type == Time.class || type == Timestamp.class;
+    }
+
+    private static boolean isSet(long[] bits, int index) {
+        return bits != null && (bits[index >>> 6] & (1L << index)) != 0;
+    }
+
+    /**
+     * 一列数据，同一时刻只使用和 kind 对应的数组
+     */
+    private static final class Column implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private byte kind;
+        private int capacity;
+        /**
+         * 整数列和日期列的值类型，由第一个值确定，类型不同的值作为不符的值单独存放
+         */
+        private Class<?> valueType;
+
+        private long[] longs;
+        private byte[] scales;
+        private double[] doubles;
+        private int[] codes;
+        private Object[] objects;
+
+        private List<String> dictionary;
+        private transient Map<String, Integer> dictionaryIndex;
+
+        private long[] nulls;
+        private long[] others;
+        private Map<Integer, Object> otherValues;
+
+        Column(byte kind) {
+            this.kind = kind;
+            this.capacity = 0;
+        }
+
+        private void ensure(int size) {
+            if (size <= capacity) {
+                return;
+            }
+            int n = Math.max(size, Math.max(16, capacity * 2));
+            switch (kind) {
+                case KIND_LONG:
+                case KIND_DATE:
+                    longs = longs == null ? new long[n] : Arrays.copyOf(longs, n);
+                    break;
+                case KIND_DECIMAL:
+                    longs = longs == null ? new long[n] : Arrays.copyOf(longs, n);
+                    scales = scales == null ? new byte[n] : Arrays.copyOf(scales, n);
+                    break;
+                case KIND_DOUBLE:
+                    doubles = doubles == null ? new double[n] : Arrays.copyOf(doubles, n);
+                    break;
+                case KIND_STRING:
+                    codes = codes == null ? new int[n] : Arrays.copyOf(codes, n);
+                    break;
+                case KIND_OBJECT:
+                    objects = objects == null ? new Object[n] : Arrays.copyOf(objects, n);
+                    break;
+                default:
+                    break;
+            }
+            int words = (n + 63) >>> 6;
+            nulls = nulls == null ? new long[words] : Arrays.copyOf(nulls, words);
+            if (others != null) {
+                others = Arrays.copyOf(others, words);
+            }
+            capacity = n;
+        }
+
+        private void allocate(byte newKind) {
+            kind = newKind;
+            int n = capacity;
+            capacity = 0;
+            ensure(n);
+            if (kind == KIND_STRING && dictionary == null) {
+                dictionary = new ArrayList<>();
+                dictionaryIndex = new HashMap<>();
+            }
+        }
+
+        void set(int row, Object value, int rowCount) {
+            ensure(row + 1);
+            if (value == null) {
+                nulls[row >>> 6] |= 1L << row;
+                return;
+            }
+            if (kind == KIND_UNKNOWN || (kind == KIND_NUMBER && value instanceof Number)) {
+                allocate(kindOfValue(value));
+            } else if (kind == KIND_STRING && dictionary == null) {
+                allocate(KIND_STRING);
+            }
+            if ((kind == KIND_LONG || kind == KIND_DATE) && valueType == null) {
+                valueType = value.getClass();
+            }
+            switch (kind) {
+                case KIND_LONG:
+                    if (value.getClass() == valueType) {
+                        longs[row] = ((Number) value).longValue();
+                        return;
+                    }
+                    break;
+                case KIND_DECIMAL:
+                    if (value instanceof BigDecimal && setDecimal(row, (BigDecimal) value)) {
+                        return;
+                    }
+                    break;
+                case KIND_DOUBLE:
+                    if (value instanceof Double) {
+                        doubles[row] = (Double) value;
+                        return;
+                    }
+                    break;
+                case KIND_DATE:
+                    // Timestamp 中不足一毫秒的纳秒不能用毫秒数保存
+                    if (value.getClass() == valueType
+                            && !(value instanceof Timestamp && ((Timestamp) value).getNanos() % 1000000 != 0)) {
+                        longs[row] = ((Date) value).getTime();
+                        return;
+                    }
+                    break;
+                case KIND_STRING:
+                    if (value instanceof String) {
+                        codes[row] = encode((String) value);
+                        if (dictionary.size() > MAX_DICTIONARY && dictionary.size() > rowCount / 2) {
+                            toObject(row + 1);
+                        }
+                        return;
+                    }
+                    break;
+                case KIND_OBJECT:
+                    objects[row] = value;
+                    return;
+                default:
+                    break;
+            }
+            setOther(row, value, rowCount);
+        }
+
+        /**
+         * 无标度值超出 long 或者标度超出 byte 的 BigDecimal 不能保存
+         */
+        private boolean setDecimal(int row, BigDecimal value) {
+            if (value.scale() < Byte.MIN_VALUE || value.scale() > Byte.MAX_VALUE) {
+                return false;
+            }
+            BigInteger unscaled = value.unscaledValue();
+            if (unscaled.bitLength() >= 64) {
+                return false;
+            }
+            longs[row] = unscaled.longValue();
+            scales[row] = (byte) value.scale();
+            return true;
+        }
+
+        private int encode(String value) {
+            if (dictionaryIndex == null) {
+                dictionaryIndex = new HashMap<>(dictionary.size() * 2);
+                for (int i = 0; i < dictionary.size(); i++) {
+                    dictionaryIndex.put(dictionary.get(i), i);
+                }
+            }
+            Integer code = dictionaryIndex.get(value);
+            if (code == null) {
+                code = dictionary.size();
+                dictionary.add(value);
+                dictionaryIndex.put(value, code);
+            }
+            return code;
+        }
+
+        private void setOther(int row, Object value, int rowCount) {
+            if (others == null) {
+                others = new long[nulls.length];
+                otherValues = new HashMap<>();
+            }
+            others[row >>> 6] |= 1L << row;
+            otherValues.put(row, value);
+            if (otherValues.size() > MAX_OTHER_VALUES && otherValues.size() > rowCount / 8) {
+                toObject(row + 1);
+            }
+        }
+
+        private void toObject(int size) {
+            Object[] values = new Object[capacity];
+            for (int i = 0; i < size; i++) {
+                values[i] = get(i);
+            }
+            longs = null;
+            scales = null;
+            doubles = null;
+            codes = null;
+            dictionary = null;
+            dictionaryIndex = null;
+            others = null;
+            otherValues = null;
+            objects = values;
+            kind = KIND_OBJECT;
+        }
+
+        boolean isNull(int row) {
+            return isSet(nulls, row);
+        }
+
+        boolean isOther(int row) {
+            return isSet(others, row);
+        }
+
+        Object get(int row) {
+            if (isNull(row)) {
+                return null;
+            }
+            if (isOther(row)) {
+                return otherValues.get(row);
+            }
+            switch (kind) {
+                case KIND_LONG:
+                    return toLongType(longs[row]);
+                case KIND_DECIMAL:
+                    return BigDecimal.valueOf(longs[row], scales[row]);
+                case KIND_DOUBLE:
+                    return doubles[row];
+                case KIND_DATE:
+                    return toDateType(longs[row]);
+                case KIND_STRING:
+                    return dictionary.get(codes[row]);
+                case KIND_OBJECT:
+                    return objects[row];
+                default:
+                    return null;
+            }
+        }
+
+        private Object toLongType(long value) {
+            if (valueType == Integer.class) {
+                return (int) value;
+            }
+            if (valueType == Short.class) {
+                return (short) value;
+            }
+            if (valueType == Byte.class) {
+                return (byte) value;
+            }
+            return value;
+        }
+
+        private Object toDateType(long time) {
+            if (valueType == Timestamp.class) {
+                return new Timestamp(time);
+            }
+            if (valueType == java.sql.Date.class) {
+                return new java.sql.Date(time);
+            }
+            if (valueType == Time.class) {
+                return new Time(time);
+            }
+            return new Date(time);
+        }
+
+        /**
+         * @return BigDecimal 的近似值，无标度值和 10 的幂都能准确表示为 double 时一次除法就是最接近的值
+         */
+        private double decimalToDouble(int row) {
+            long unscaled = longs[row];
+            int scale = scales[row];
+            if (scale >= 0 && scale < POWERS_OF_TEN.length
+                    && unscaled <= MAX_EXACT_DOUBLE && unscaled >= -MAX_EXACT_DOUBLE) {
+                return unscaled / POWERS_OF_TEN[scale];
+            }
+            return BigDecimal.valueOf(unscaled, scale).doubleValue();
+        }
+
+        boolean valueEquals(int row1, int row2) {
+            boolean null1 = isNull(row1);
+            if (null1 || isNull(row2)) {
+                return null1 && isNull(row2);
+            }
+            if (isOther(row1) || isOther(row2)) {
+                return get(row1).equals(get(row2));
+            }
+            switch (kind) {
+                case KIND_LONG:
+                case KIND_DATE:
+                    return longs[row1] == longs[row2];
+                case KIND_DECIMAL:
+                    return longs[row1] == longs[row2] && scales[row1] == scales[row2];
+                case KIND_DOUBLE:
+                    return Double.compare(doubles[row1], doubles[row2]) == 0;
+                case KIND_STRING:
+                    return codes[row1] == codes[row2];
+                default:
+                    return objects[row1].equals(objects[row2]);
+            }
+        }
+
+        void addTo(AggregateKernel kernel, int col, int from, int to) {
+            for (int i = from; i < to; i++) {
+                if (isNull(i)) {
+                    continue;
+                }
+                if (isOther(i)) {
+                    kernel.add(col, otherValues.get(i));
+                } else if (kind == KIND_LONG) {
+                    kernel.add(col, (double) longs[i]);
+                } else if (kind == KIND_DECIMAL) {
+                    kernel.add(col, decimalToDouble(i));
+                } else if (kind == KIND_DOUBLE) {
+                    kernel.add(col, doubles[i]);
+                } else {
+                    kernel.add(col, get(i));
+                }
+            }
+        }
+
+        void trim(int size) {
+            if (longs != null) {
+                longs = Arrays.copyOf(longs, size);
+            }
+            if (scales != null) {
+                scales = Arrays.copyOf(scales, size);
+            }
+            if (doubles != null) {
+                doubles = Arrays.copyOf(doubles, size);
+            }
+            if (codes != null) {
+                codes = Arrays.copyOf(codes, size);
+            }
+            if (objects != null) {
+                objects = Arrays.copyOf(objects, size);
+            }
+            int words = (size + 63) >>> 6;
+            if (nulls != null) {
+                nulls = Arrays.copyOf(nulls, words);
+            }
+            if (others != null) {
+                others = Arrays.copyOf(others, words);
+            }
+            capacity = Math.min(capacity, size);
+            // 字典的反查表只在追加时使用
+            dictionaryIndex = null;
+        }
+    }
+
+    /**
+     * 追加一行，超出列数的值忽略，不足的补空值
+     * @param row 行数据
+     */
+    @Override
+    public void handleRow(Object[] row) {
+        int n = Math.min(columns.length, row.length);
+        for (int i = 0; i < columns.length; i++) {
+            columns[i].set(rowCount, i < n ? row[i] : null, rowCount + 1);
+        }
+        rowCount++;
+    }
+
+    /**
+     * 追加结束，释放多余的空间和字典的反查表
+     */
+    public void trim() {
+        for (Column column : columns) {
+            column.trim(rowCount);
+        }
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public int getColumnCount() {
+        return columns.length;
+    }
+
+    public Object getValue(int row, int col) {
+        return columns[col].get(row);
+    }
+
+    /**
+     * @param row 行号
+     * @return 行数据，每次调用都生成新的数组
+     */
+    public Object[] getRow(int row) {
+        Object[] values = new Object[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            values[i] = columns[i].get(row);
+        }
+        return values;
+    }
+
+    public boolean isNull(int row, int col) {
+        return columns[col].isNull(row);
+    }
+
+    /**
+     * 比较同一列中的两个值，空值和空值相等；数值和字典编码直接比较，不创建对象
+     * @param col 列号
+     * @param row1 行号
+     * @param row2 行号
+     * @return 是否相等
+     */
+    public boolean valueEquals(int col, int row1, int row2) {
+        return columns[col].valueEquals(row1, row2);
+    }
+
+    /**
+     * 将一列中的一段数据累加到聚合内核中，数值列直接按基本类型累加
+     * @param kernel 聚合内核
+     * @param col 列号，同时也是内核中的列号
+     * @param from 开始行（包含）
+     * @param to 结束行（不包含）
+     */
+    public void addTo(AggregateKernel kernel, int col, int from, int to) {
+        columns[col].addTo(kernel, col, from, to);
+    }
+
+    /**
+     * @return 按行访问的只读视图，每次读取一行时生成该行的数组，用于 JSON 输出和兼容原来的接口
+     */
+    public List<Object[]> asRows() {
+        return new RowList();
+    }
+
+    private final class RowList extends AbstractList<Object[]> implements RandomAccess {
+        @Override
+        public Object[] get(int index) {
+            if (index < 0 || index >= rowCount) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + rowCount);
+            }
+            return getRow(index);
+        }
+
+        @Override
+        public int size() {
+            return rowCount;
+        }
+    }
+}
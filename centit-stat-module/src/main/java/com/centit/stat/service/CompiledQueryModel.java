@@ -0,0 +1,113 @@
+package com.centit.stat.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.centit.stat.po.QueryColumn;
+import com.centit.stat.po.QueryCondition;
+import com.centit.stat.po.QueryModel;
+import com.centit.stat.po.html.table.ColumnFormatter;
+
+/**
+ * 编译后的统计模块定义，从 QueryModel 加载一次后常驻内存，不再依赖 Hibernate 会话。
+ * 字段、行头列头分类、编译好的列格式等元数据所有请求共享（只读）；查询条件每个请求复制一份，因为请求会写入条件值。
+ */
+public class CompiledQueryModel {
+
+    private final String databaseCode;
+
+    /**
+     * 模块元数据模板，columns 为只读列表
+     */
+    private final FormDataModel template;
+
+    private final List<QueryCondition> conditions;
+
+    /**
+     * R 行头、C 列头、D 数值 字段在 columns 中的序号
+     */
+    private final int[] rowColumns;
+    private final int[] colColumns;
+    private final int[] dataColumns;
+
+    public CompiledQueryModel(QueryModel qm) {
+        this.databaseCode = qm.getDatabaseCode();
+        FormDataModel fm = new FormDataModel();
+        fm.loadFromQueryModel(qm);
+        List<QueryColumn> columns = fm.getColumns();
+        int n = 0;
+        for (QueryColumn col : columns) {
+            col.setColProperty("col" + n);
+            n++;
+        }
+        fm.setColumns(Collections.unmodifiableList(new ArrayList<>(columns)));
+        Map<QueryColumn, ColumnFormatter> formatters = new IdentityHashMap<>();
+        for (QueryColumn col : columns) {
+            formatters.put(col, new ColumnFormatter(col));
+        }
+        fm.setColumnFormatters(Collections.unmodifiableMap(formatters));
+        this.conditions = Collections.unmodifiableList(new ArrayList<>(fm.getConditions()));
+        fm.setConditions(null);
+        this.template = fm;
+
+        rowColumns = new int[fm.getRowGroupSum()];
+        colColumns = new int[fm.getColGroupSum()];
+        dataColumns = new int[fm.getDataAnalyseSum()];
+        int r = 0, c = 0, d = 0;
+        for (int i = 0; i < columns.size(); i++) {
+            String showType = columns.get(i).getShowType();
+            if ("R".equals(showType)) {
+                rowColumns[r++] = i;
+            } else if ("C".equals(showType)) {
+                colColumns[c++] = i;
+            } else {
+                dataColumns[d++] = i;
+            }
+        }
+    }
+
+    /**
+     * 为一次请求创建报表模型，字段共享，查询条件复制
+     * @return 报表模型，没有设置数据源
+     */
+    public FormDataModel createFormDataModel() {
+        FormDataModel fm = new FormDataModel().copyModelMetaData(template);
+        List<QueryCondition> conds = new ArrayList<>(conditions.size());
+        for (QueryCondition qc : conditions) {
+            conds.add(new QueryCondition().copy(qc));
+        }
+        fm.setConditions(conds);
+        return fm;
+    }
+
+    public String getModelName() {
+        return template.getModelName();
+    }
+
+    public String getDatabaseCode() {
+        return databaseCode;
+    }
+
+    public List<QueryColumn> getColumns() {
+        return template.getColumns();
+    }
+
+    public List<QueryCondition> getConditions() {
+        return conditions;
+    }
+
+    public int[] getRowColumns() {
+        return rowColumns;
+    }
+
+    public int[] getColColumns() {
+        return colColumns;
+    }
+
+    public int[] getDataColumns() {
+        return dataColumns;
+    }
+}
@@ -0,0 +1,186 @@
+package com.centit.stat.service;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.serializer.PropertyFilter;
+import com.centit.stat.po.QueryColumn;
+import com.centit.stat.po.html.table.CTableBodyTBody;
+import com.centit.stat.po.html.table.CTableLine;
+import com.centit.stat.po.html.table.CTablePanel;
+
+/**
+ * 把统计结果以 JSON 流的方式写入响应，不在内存中生成整个 JSON 字符串：
+ * 模块的元数据用 fastjson 序列化，统计结果按照列存储逐个值写出，表格逐行写出。
+ * 数字保持数字类型，日期和 fastjson 的序列化方式一致。
+ * <p>
+ * 默认的行布局和原来的 formData 一致（每行一个数组）；列布局为
+ * {"columns":[列名...],"values":[[第一列的值...],[第二列的值...]]}，列名只写一次。
+ */
+public class FormDataJsonWriter {
+
+    public static final String LAYOUT_ROWS = "rows";
+
+    public static final String LAYOUT_COLUMNAR = "columnar";
+
+    /**
+     * 单独流式写出的属性
+     */
+    private static final Set<String> STREAMED_PROPERTIES =
+        new HashSet<>(Arrays.asList("formData", "tablePanel"));
+
+    private static final Set<String> TBODY_PROPERTIES = new HashSet<>(Arrays.asList("lines"));
+
+    private final Writer out;
+
+    private final boolean columnar;
+
+    /**
+     * @param out 输出
+     * @param layout 统计结果的布局 LAYOUT_ROWS（默认）或者 LAYOUT_COLUMNAR
+     */
+    public FormDataJsonWriter(Writer out, String layout) {
+        this.out = out;
+        this.columnar = LAYOUT_COLUMNAR.equals(layout);
+    }
+
+    /**
+     * 按照 JsonResultUtils.writeSingleDataJson 的格式写出统计结果
+     * @param formData 已经完成查询的报表模型
+     * @throws IOException 写入失败
+     */
+    public void writeResponse(FormDataModel formData) throws IOException {
+        out.write("{\"code\":0,\"message\":\"\",\"data\":");
+        writeFormData(formData);
+        out.write('}');
+        out.flush();
+    }
+
+    /**
+     * @param formData 已经完成查询的报表模型
+     * @throws IOException 写入失败
+     */
+    public void writeFormData(FormDataModel formData) throws IOException {
+        boolean hasProperty = writeObjectStart(formData, STREAMED_PROPERTIES);
+        writeKey(hasProperty, "formData");
+        ColumnarResult result = formData.getFormResult();
+        if (result == null) {
+            out.write("null");
+        } else if (columnar) {
+            writeColumnar(result, formData.getColumns());
+        } else {
+            writeRows(result);
+        }
+        writeKey(true, "tablePanel");
+        writeTablePanel(formData.getTablePanel());
+        out.write('}');
+    }
+
+    private void writeRows(ColumnarResult result) throws IOException {
+        int colCount = result.getColumnCount();
+        out.write('[');
+        for (int r = 0; r < result.getRowCount(); r++) {
+            if (r > 0)
+                out.write(',');
+            out.write('[');
+            for (int c = 0; c < colCount; c++) {
+                if (c > 0)
+                    out.write(',');
+                writeValue(result.getValue(r, c));
+            }
+            out.write(']');
+        }
+        out.write(']');
+    }
+
+    private void writeColumnar(ColumnarResult result, List<QueryColumn> columns) throws IOException {
+        int colCount = result.getColumnCount();
+        out.write("{\"columns\":[");
+        for (int c = 0; c < colCount; c++) {
+            if (c > 0)
+                out.write(',');
+            String name = columns != null && columns.size() == colCount ? columns.get(c).getColName() : null;
+            writeValue(name != null ? name : "col" + c);
+        }
+        out.write("],\"values\":[");
+        for (int c = 0; c < colCount; c++) {
+            if (c > 0)
+                out.write(',');
+            out.write('[');
+            for (int r = 0; r < result.getRowCount(); r++) {
+                if (r > 0)
+                    out.write(',');
+                writeValue(result.getValue(r, c));
+            }
+            out.write(']');
+        }
+        out.write("]}");
+    }
+
+    private void writeTablePanel(CTablePanel tablePanel) throws IOException {
+        if (tablePanel == null) {
+            out.write("null");
+            return;
+        }
+        out.write("{\"thead\":");
+        JSON.writeJSONString(out, tablePanel.getThead());
+        out.write(",\"tbody\":");
+        CTableBodyTBody tbody = tablePanel.getTbody();
+        if (tbody == null) {
+            out.write("null");
+        } else {
+            boolean hasProperty = writeObjectStart(tbody, TBODY_PROPERTIES);
+            writeKey(hasProperty, "lines");
+            out.write('[');
+            boolean first = true;
+            for (CTableLine line : tbody.getLines()) {
+                if (!first)
+                    out.write(',');
+                JSON.writeJSONString(out, line);
+                first = false;
+            }
+            out.write("]}");
+        }
+        out.write('}');
+    }
+
+    /**
+     * 写出对象中除了 excluded 之外的属性，不写结束的大括号
+     * @return 是否写出了属性
+     */
+    private boolean writeObjectStart(final Object obj, final Set<String> excluded) throws IOException {
+        String json = JSON.toJSONString(obj,
+            (PropertyFilter) (object, name, value) -> object != obj || !excluded.contains(name));
+        out.write(json, 0, json.length() - 1);
+        return json.length() > 2;
+    }
+
+    private void writeKey(boolean comma, String name) throws IOException {
+        if (comma)
+            out.write(',');
+        out.write('"');
+        out.write(name);
+        out.write("\":");
+    }
+
+    /**
+     * 写出一个值，数字、布尔值直接写出，其他类型由 fastjson 序列化
+     */
+    private void writeValue(Object value) throws IOException {
+        if (value == null) {
+            out.write("null");
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Boolean) {
+            out.write(value.toString());
+        } else if (value instanceof Double) {
+            double d = (Double) value;
+            out.write(Double.isNaN(d) || Double.isInfinite(d) ? "null" : value.toString());
+        } else {
+            JSON.writeJSONString(out, value);
+        }
+    }
+}
@@ -1,10 +1,24 @@
 package com.centit.stat.service;
 
+import java.util.List;
+
+import com.centit.stat.service.pipeline.FormDataRowSink;
 import com.centit.support.database.utils.PageDesc;
 
 public interface FormDataManager {
     public FormDataModel getDataModel(String modelName);
 
+    /**
+     * 统计模块修改或者删除后，清除这个模块编译后的定义和缓存的查询结果
+     * @param modelName 模块名称
+     */
+    public void refreshDataModel(String modelName);
+
+    /**
+     * @return 每个数据库的统计查询排队情况
+     */
+    public List<QueryQueueMetrics> listQueryQueueMetrics();
+
     /**
      *数据查询模块
      * @param formData 根据这个结构中的设置查询数据
@@ -12,6 +26,15 @@ public interface FormDataManager {
      * @return Integer
      */
     public Integer queryFormData(FormDataModel formData,PageDesc page);
+
+    /**
+     * 流式查询二维报表，渲染好的行逐行交给输出端，不在内存中保留整个结果集
+     * @param formData 根据这个结构中的设置查询数据
+     * @param page 分页信息，为null时不分页
+     * @param sink 输出端
+     * @return Integer 输出的行数，包括合计、平均行
+     */
+    public Integer queryFormData(FormDataModel formData,PageDesc page,FormDataRowSink sink);
     
     /**
      * 查询对比分析数据
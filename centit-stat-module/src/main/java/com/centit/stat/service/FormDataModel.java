@@ -6,25 +6,29 @@ import java.util.List;
 import java.util.Map;
 
 import com.centit.framework.ip.po.DatabaseInfo;
-import org.apache.commons.lang3.StringUtils;
 
 import com.alibaba.fastjson.JSONArray;
 import com.alibaba.fastjson.JSONObject;
 import com.alibaba.fastjson.annotation.JSONField;
+import com.centit.stat.dao.DBCPDao;
+import com.centit.stat.dao.QueryLimits;
 import com.centit.stat.po.QueryColumn;
 import com.centit.stat.po.QueryCondition;
 import com.centit.stat.po.QueryModel;
 import com.centit.stat.po.html.table.CTablePanel;
+import com.centit.stat.po.html.table.ColumnFormatter;
 import com.centit.support.algorithm.DatetimeOpt;
 import com.centit.support.algorithm.StringBaseOpt;
 import com.centit.support.algorithm.StringRegularOpt;
-import com.centit.support.compiler.Lexer;
 import com.centit.support.database.utils.QueryAndNamedParams;
-import com.centit.support.database.utils.QueryUtils;
 import com.centit.support.json.JSONOpt;
 
 public class FormDataModel implements java.io.Serializable {
     private static final long serialVersionUID =  1L;
+    /**
+     * 同比、环比报表一次最多对比的历史时间段个数
+     */
+    public static final int MAX_COMPARE_PERIODS = 12;
     //模块名称，对应统计模块
     //private static final String ALL="N";//全选对应的key
     private String modelName;
@@ -35,7 +39,7 @@ public class FormDataModel implements java.io.Serializable {
     private List<QueryColumn> columns;
     private Integer paramCount;
     private List<QueryCondition> conditions;
-    private List<Object[]> formData;
+    private ColumnarResult formData;
     private List<Object[]> crossTableColumns;
     private String[]    rowLogicUrl;
 
@@ -56,13 +60,56 @@ public class FormDataModel implements java.io.Serializable {
     private int retStartPos;
     private int retMaxSize;
     private String columnSql;
+    //树形报表：1 按照树排列，2 同时在上级节点显示子树的统计值
     private String isTree;
     //不分页总条数
     private int totalRowsAll;
+    //统计结果缓存时间（秒），0 不缓存
+    private int cacheTtl;
+    //同比、环比报表对比的历史时间段个数，默认 1
+    private int comparePeriods;
+    //分页报表的统计行由数据库计算 T
+    private String totalInDb;
+    //keyset 分页的当前页标记，不为 null（第一页为空字符串）时按照 keyset 方式分页
+    @JSONField(serialize=false)
+    private String pageToken;
+    //keyset 分页的下一页标记，最后一页为 null
+    private String nextPageToken;
+    //分页时总行数的计算方式 exact、estimate、none
+    @JSONField(serialize=false)
+    private String countMode;
+    //总行数正在后台计算，totalRowsAll 暂时是估计值
+    private boolean totalRowsCounting;
+    //总行数计算失败，暂时不再计算，totalRowsAll 是估计值
+    private boolean totalRowsUnknown;
 
     @JSONField(serialize=false)
     private DatabaseInfo dbinfo;
 
+    //语句超时时间、最大行数和每次读取的行数
+    @JSONField(serialize=false)
+    private QueryLimits queryLimits = QueryLimits.NONE;
+
+    //模块的属主类别和属主代码，统计查询按照属主公平排队
+    @JSONField(serialize=false)
+    private String ownerType;
+    @JSONField(serialize=false)
+    private String ownerCode;
+
+    //模块定义的版本，模块每次加载时重新生成
+    @JSONField(serialize=false)
+    private String modelVersion;
+
+    //统计结果缓存条目的编号，结果没有缓存时为 null
+    @JSONField(serialize=false)
+    private String resultVersion;
+
+    /**
+     * 编译好的列格式，由 CompiledQueryModel 创建，同一个模块的所有请求共享
+     */
+    @JSONField(serialize=false)
+    private transient Map<QueryColumn, ColumnFormatter> columnFormatters;
+
     public String getColumnSql() {
         return columnSql;
     }
@@ -79,6 +126,22 @@ public class FormDataModel implements java.io.Serializable {
         this.isTree = isTree;
     }
 
+    /**
+     * @return 是否为树形报表，isTree 为 1 按照树排列，为 2 时上级节点同时显示子树的合计、平均值
+     */
+    @JSONField(serialize=false)
+    public boolean isTreeForm() {
+        return "1".equals(isTree) || isTreeRollup();
+    }
+
+    /**
+     * @return 树形报表的上级节点是否显示子树的统计值
+     */
+    @JSONField(serialize=false)
+    public boolean isTreeRollup() {
+        return "2".equals(isTree);
+    }
+
     /**
      * 页面展示表格
      */
@@ -132,6 +195,7 @@ public class FormDataModel implements java.io.Serializable {
         rowGroupSum = 0;
         colGroupSum = 0;
         dataAnalyseSum = 0;
+        comparePeriods = 1;
     }
 
     public FormDataModel(String modelName,String fromNameFormat)
@@ -205,20 +269,47 @@ public class FormDataModel implements java.io.Serializable {
         this.columns = columns;
     }
 
+    /**
+     * @return 按行访问的统计结果视图，数据本身按列存储
+     */
     public List<Object[]> getFormData() {
-        return formData;
+        return formData == null ? null : formData.asRows();
     }
 
     public int getRowCount()
     {
         if(formData==null)
             return 0;
-        return formData.size();
+        return formData.getRowCount();
     }
 
 
+    /**
+     * 按行设置统计结果，转换为按列存储；列数和 columns 一致时按照 colType 确定各列的存储方式
+     * @param fromData 统计结果
+     */
     public void setFormData(List<Object[]> fromData) {
-        this.formData = fromData;
+        if (fromData == null) {
+            this.formData = null;
+            return;
+        }
+        String[] colTypes = null;
+        if (columns != null && !fromData.isEmpty() && fromData.get(0).length == columns.size()) {
+            colTypes = new String[columns.size()];
+            for (int i = 0; i < colTypes.length; i++) {
+                colTypes[i] = columns.get(i).getColType();
+            }
+        }
+        this.formData = ColumnarResult.fromRows(fromData, colTypes);
+    }
+
+    @JSONField(serialize=false)
+    public ColumnarResult getFormResult() {
+        return formData;
+    }
+
+    public void setFormResult(ColumnarResult formResult) {
+        this.formData = formResult;
     }
 
     public String getQuerySql() {
@@ -230,35 +321,7 @@ public class FormDataModel implements java.io.Serializable {
     }
 
     public static String pretreatmentQuerySql(String querySql,Map<String,String> condMap){
-         Lexer varMorp = new Lexer();
-         varMorp.setFormula(querySql);
-         String sDesFormula="";
-         int nPos=0;
-         String sWord = varMorp.getAWord();
-
-         while( sWord!=null && ! sWord.equals("") ){
-             if( sWord.equals("$")){
-                 int nEndPos = varMorp.getCurrPos();
-                 sWord = varMorp.getAWord();
-                 if(sWord.equals("{")){
-                     sWord = varMorp.getStringUntil("}");
-                     sDesFormula += querySql.substring(nPos, nEndPos-1);
-                     nPos = varMorp.getCurrPos();
-                     if(! StringBaseOpt.isNvl(sWord)){
-                         String sFilterSql = condMap.get(sWord.trim()) ;
-                         if(sFilterSql!=null)
-                             sDesFormula += condMap.get(sWord.trim()) + " ";
-                         else
-                             sDesFormula += " ";
-                     }
-                     sWord = varMorp.getAWord();
-                  }
-             }else
-                 sWord = varMorp.getAWord();
-         }
-         if(nPos<querySql.length())
-             sDesFormula += querySql.substring(nPos);
-         return sDesFormula;
+        return SqlTemplate.compile(querySql).pretreatment(condMap);
     }
 
     /**
@@ -276,22 +339,7 @@ public class FormDataModel implements java.io.Serializable {
         for(QueryCondition cond : getConditions()){
             params.put(cond.getCondName(), cond.getCondValue());
         }
-
-        QueryAndNamedParams statQuery = QueryUtils.translateQuery(sql,params);
-        String querySql = addOrderParam(statQuery.getQuery(), params);
-        statQuery.setSql(querySql);
-        Map<String, Object> statQueryParams=statQuery.getParams();
-        for(String key :statQueryParams.keySet()){
-            if(null!=params.get(key)){
-                params.put(key, statQueryParams.get(key));
-            }
-        }
-        statQuery.setParams(params);
-        /*if(isPaging){
-            statQuery.set(retStartPos);
-            statQuery.setRetMaxSize(retMaxSize);
-        }*/
-        return statQuery;
+        return SqlTemplate.compile(sql).bind(params);
     }
 
     /**
@@ -350,25 +398,6 @@ public class FormDataModel implements java.io.Serializable {
         return dateStr;
     }
 
-    /**
-     * 添加排序
-     *
-     * @param sql sql
-     * @param params 参数
-     * @return 拼接后的sql
-     */
-    private static String addOrderParam(String sql, Map<String, Object> params) {
-        String sqlSen=sql;
-        String orderField = (String)params.get("orderField");
-        String orderDirection = (String)params.get("orderDirection");
-        if (!StringUtils.isEmpty(orderField)) {
-            sqlSen = QueryUtils.removeOrderBy(sql);
-            sqlSen += " order by " + orderField + " " + orderDirection;
-        }
-
-        return sqlSen;
-    }
-
     public String getFormName() {
         return formName;
     }
@@ -453,6 +482,13 @@ public class FormDataModel implements java.io.Serializable {
         dataAnalyseSum = dataModel.getDataAnalyseSum();
         columnSql = dataModel.getColumnSql();
         isTree = dataModel.getIsTree();
+        cacheTtl = dataModel.getCacheTtl();
+        totalInDb = dataModel.getTotalInDb();
+        queryLimits = dataModel.getQueryLimits();
+        modelVersion = dataModel.getModelVersion();
+        ownerType = dataModel.getOwnerType();
+        ownerCode = dataModel.getOwnerCode();
+        columnFormatters = dataModel.columnFormatters;
         this.dbinfo=dataModel.dbinfo;
         return this;
     }
@@ -476,6 +512,13 @@ public class FormDataModel implements java.io.Serializable {
         colGroupSum = 0;
         dataAnalyseSum = 0;
         isTree = qm.getIsTree();
+        cacheTtl = qm.getCacheTtl()==null ? 0 : qm.getCacheTtl();
+        totalInDb = qm.getTotalInDb();
+        queryLimits = new QueryLimits(qm.getQueryTimeout()==null ? 0 : qm.getQueryTimeout(),
+            qm.getMaxRows()==null ? 0 : qm.getMaxRows(), qm.getFetchSize()==null ? 0 : qm.getFetchSize());
+        modelVersion = Long.toString(System.currentTimeMillis(), 36);
+        ownerType = qm.getOwnerType();
+        ownerCode = qm.getOwnerCode();
 
         if(columns==null)
             columns= new ArrayList<QueryColumn>();
@@ -532,7 +575,10 @@ public class FormDataModel implements java.io.Serializable {
             return;
         int n=0;
         for(QueryColumn col:columns){
-            col.setColProperty("col"+n);
+            //编译后的模块字段是共享的，已经设置过的不再重复写
+            String colProperty = "col"+n;
+            if(!colProperty.equals(col.getColProperty()))
+                col.setColProperty(colProperty);
             n++;
         }
     }
@@ -574,7 +620,7 @@ public class FormDataModel implements java.io.Serializable {
         if(formData!=null){
             i=0;
             JSONArray jarrayData = new JSONArray();
-            for(Object[] objs:formData){
+            for(Object[] objs:formData.asRows()){
                 int j=0;
                 JSONArray jarray = new JSONArray();
                 for(Object obj:objs)
@@ -587,6 +633,10 @@ public class FormDataModel implements java.io.Serializable {
         return objJson;
     }
 
+    /**
+     * formData 的字符串副本，统计结果只输出 formData，不再重复序列化
+     */
+    @JSONField(serialize=false)
     public JSONObject getJsonFormData() {
         return toJsonData();
     }
@@ -662,12 +712,25 @@ public class FormDataModel implements java.io.Serializable {
 
     public int getDataColumnCount() {
         if("3".equals(modelType) || "4".equals(modelType))
-            return getColumns().size() * 2 - rowGroupSum;
+            return getColumns().size() + (getColumns().size() - rowGroupSum) * comparePeriods;
         if("5".equals(modelType))
             return  rowGroupSum + getCrossTableColumns().size() *  dataAnalyseSum;
         return getColumns().size();
     }
 
+    /**
+     * @param col 列，必须是 columns 中的对象
+     * @return 列格式，模块没有编译列格式时临时创建一个
+     */
+    public ColumnFormatter getColumnFormatter(QueryColumn col) {
+        ColumnFormatter formatter = columnFormatters == null ? null : columnFormatters.get(col);
+        return formatter != null ? formatter : new ColumnFormatter(col);
+    }
+
+    public void setColumnFormatters(Map<QueryColumn, ColumnFormatter> columnFormatters) {
+        this.columnFormatters = columnFormatters;
+    }
+
     public List<Object[]> getCrossTableColumns() {
         if (null == crossTableColumns) {
             crossTableColumns = new ArrayList<Object[]> ();
@@ -703,4 +766,144 @@ public class FormDataModel implements java.io.Serializable {
     public void setTotalRowsAll(int totalRowsAll) {
         this.totalRowsAll = totalRowsAll;
     }
+
+    public int getCacheTtl() {
+        return cacheTtl;
+    }
+
+    public void setCacheTtl(int cacheTtl) {
+        this.cacheTtl = cacheTtl;
+    }
+
+    public int getComparePeriods() {
+        return comparePeriods;
+    }
+
+    /**
+     * 同比、环比报表对比的历史时间段个数
+     * @param comparePeriods 时间段个数，小于1时按1处理，大于 MAX_COMPARE_PERIODS 时按 MAX_COMPARE_PERIODS 处理
+     */
+    public void setComparePeriods(int comparePeriods) {
+        this.comparePeriods = Math.min(MAX_COMPARE_PERIODS, Math.max(1, comparePeriods));
+    }
+
+    public String getTotalInDb() {
+        return totalInDb;
+    }
+
+    /**
+     * 分页报表的合计、平均等统计行由数据库计算
+     * @param totalInDb T 数据库计算，其他只统计当前页
+     */
+    public void setTotalInDb(String totalInDb) {
+        this.totalInDb = totalInDb;
+    }
+
+    public String getPageToken() {
+        return pageToken;
+    }
+
+    /**
+     * @param pageToken keyset 分页的当前页标记，第一页为空字符串，null 表示按照页码分页
+     */
+    public void setPageToken(String pageToken) {
+        this.pageToken = pageToken;
+    }
+
+    @JSONField(serialize=false)
+    public boolean isKeysetPaging() {
+        return pageToken != null;
+    }
+
+    public String getNextPageToken() {
+        return nextPageToken;
+    }
+
+    public void setNextPageToken(String nextPageToken) {
+        this.nextPageToken = nextPageToken;
+    }
+
+    public String getCountMode() {
+        return countMode;
+    }
+
+    /**
+     * 分页时总行数的计算方式，见 DBCPDao.COUNT_EXACT、COUNT_ESTIMATE、COUNT_NONE
+     * @param countMode 为空时精确计算
+     */
+    public void setCountMode(String countMode) {
+        this.countMode = countMode;
+    }
+
+    /**
+     * @return 分页的总行数是否为估计值
+     */
+    public boolean isTotalRowsEstimated() {
+        return totalRowsCounting || totalRowsUnknown || (countMode != null && !DBCPDao.COUNT_EXACT.equals(countMode));
+    }
+
+    /**
+     * @return 总行数是否正在后台计算，客户端可以稍后重新请求获取
+     */
+    public boolean isTotalRowsCounting() {
+        return totalRowsCounting;
+    }
+
+    public void setTotalRowsCounting(boolean totalRowsCounting) {
+        this.totalRowsCounting = totalRowsCounting;
+    }
+
+    /**
+     * @return 总行数是否计算失败，和正在计算不同，客户端不需要马上重新请求
+     */
+    public boolean isTotalRowsUnknown() {
+        return totalRowsUnknown;
+    }
+
+    public void setTotalRowsUnknown(boolean totalRowsUnknown) {
+        this.totalRowsUnknown = totalRowsUnknown;
+    }
+
+    public QueryLimits getQueryLimits() {
+        return queryLimits;
+    }
+
+    public void setQueryLimits(QueryLimits queryLimits) {
+        this.queryLimits = queryLimits == null ? QueryLimits.NONE : queryLimits;
+    }
+
+    public String getOwnerType() {
+        return ownerType;
+    }
+
+    public void setOwnerType(String ownerType) {
+        this.ownerType = ownerType;
+    }
+
+    public String getOwnerCode() {
+        return ownerCode;
+    }
+
+    public void setOwnerCode(String ownerCode) {
+        this.ownerCode = ownerCode;
+    }
+
+    public String getModelVersion() {
+        return modelVersion;
+    }
+
+    public void setModelVersion(String modelVersion) {
+        this.modelVersion = modelVersion;
+    }
+
+    /**
+     * @return 统计结果缓存条目的编号，同一个编号的结果相同
+     */
+    public String getResultVersion() {
+        return resultVersion;
+    }
+
+    public void setResultVersion(String resultVersion) {
+        this.resultVersion = resultVersion;
+    }
 }
@@ -0,0 +1,88 @@
+package com.centit.stat.service;
+
+/**
+ * 一个数据库的统计查询排队情况：连接个数上限、正在使用的连接个数、排队的查询个数，以及累计的排队时间。
+ */
+public class QueryQueueMetrics {
+
+    private String databaseCode;
+
+    private int maxConcurrent;
+
+    //正在执行的查询占用的连接个数
+    private int running;
+
+    private int queued;
+
+    //累计开始执行的查询个数
+    private long admitted;
+
+    //排队已满被拒绝的查询个数
+    private long rejected;
+
+    //排队超时的查询个数
+    private long timedOut;
+
+    //累计排队时间（毫秒）
+    private long totalWaitMillis;
+
+    //最长的排队时间（毫秒）
+    private long maxWaitMillis;
+
+    public QueryQueueMetrics(String databaseCode, int maxConcurrent, int running, int queued,
+                             long admitted, long rejected, long timedOut,
+                             long totalWaitMillis, long maxWaitMillis) {
+        this.databaseCode = databaseCode;
+        this.maxConcurrent = maxConcurrent;
+        this.running = running;
+        this.queued = queued;
+        this.admitted = admitted;
+        this.rejected = rejected;
+        this.timedOut = timedOut;
+        this.totalWaitMillis = totalWaitMillis;
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    public String getDatabaseCode() {
+        return databaseCode;
+    }
+
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    public int getRunning() {
+        return running;
+    }
+
+    public int getQueued() {
+        return queued;
+    }
+
+    public long getAdmitted() {
+        return admitted;
+    }
+
+    public long getRejected() {
+        return rejected;
+    }
+
+    public long getTimedOut() {
+        return timedOut;
+    }
+
+    public long getTotalWaitMillis() {
+        return totalWaitMillis;
+    }
+
+    public long getMaxWaitMillis() {
+        return maxWaitMillis;
+    }
+
+    /**
+     * @return 平均排队时间（毫秒）
+     */
+    public long getAvgWaitMillis() {
+        return admitted == 0 ? 0 : totalWaitMillis / admitted;
+    }
+}
@@ -0,0 +1,143 @@
+package com.centit.stat.service;
+
+import java.util.Date;
+
+import com.alibaba.fastjson.annotation.JSONField;
+import com.centit.stat.dao.QueryContext;
+
+/**
+ * 后台执行的统计任务，记录任务状态、进度（已经读取的行数）和查询结果
+ */
+public class ReportJob {
+
+    public static final String STATUS_QUEUED = "QUEUED";
+    public static final String STATUS_RUNNING = "RUNNING";
+    public static final String STATUS_DONE = "DONE";
+    public static final String STATUS_FAILED = "FAILED";
+    public static final String STATUS_CANCELLED = "CANCELLED";
+
+    private final String jobId;
+
+    private final String modelName;
+
+    private String status;
+
+    private final Date submitTime;
+
+    private Date startTime;
+
+    private Date finishTime;
+
+    private String errorMessage;
+
+    @JSONField(serialize=false)
+    private final FormDataModel formData;
+
+    @JSONField(serialize=false)
+    private final QueryContext context;
+
+    public ReportJob(String jobId, FormDataModel formData) {
+        this.jobId = jobId;
+        this.modelName = formData.getModelName();
+        this.formData = formData;
+        this.context = new QueryContext();
+        this.status = STATUS_QUEUED;
+        this.submitTime = new Date();
+    }
+
+    public String getJobId() {
+        return jobId;
+    }
+
+    public String getModelName() {
+        return modelName;
+    }
+
+    public synchronized String getStatus() {
+        return status;
+    }
+
+    public Date getSubmitTime() {
+        return submitTime;
+    }
+
+    public synchronized Date getStartTime() {
+        return startTime;
+    }
+
+    public synchronized Date getFinishTime() {
+        return finishTime;
+    }
+
+    public synchronized String getErrorMessage() {
+        return errorMessage;
+    }
+
+    /**
+     * @return 已经从数据库读取的行数
+     */
+    public long getRowsRead() {
+        return context.getRowsRead();
+    }
+
+    /**
+     * @return 查询结果，任务完成之前不能使用
+     */
+    public FormDataModel getFormData() {
+        return formData;
+    }
+
+    public QueryContext getContext() {
+        return context;
+    }
+
+    public synchronized boolean isFinished() {
+        return finishTime != null;
+    }
+
+    /**
+     * 开始执行
+     * @return 任务在排队时已经取消返回 false
+     */
+    public synchronized boolean start() {
+        if (!STATUS_QUEUED.equals(status)) {
+            return false;
+        }
+        status = STATUS_RUNNING;
+        startTime = new Date();
+        return true;
+    }
+
+    /**
+     * 执行结束
+     * @param error 执行失败的异常，成功时为 null
+     */
+    public synchronized void finish(Throwable error) {
+        if (finishTime != null) {
+            return;
+        }
+        finishTime = new Date();
+        if (error != null) {
+            status = STATUS_FAILED;
+            errorMessage = error.getMessage();
+        } else {
+            status = STATUS_DONE;
+        }
+    }
+
+    /**
+     * 取消任务，正在执行的查询调用 Statement.cancel 中断
+     * @return 任务已经结束时返回 false
+     */
+    public boolean cancel() {
+        synchronized (this) {
+            if (finishTime != null) {
+                return false;
+            }
+            status = STATUS_CANCELLED;
+            finishTime = new Date();
+        }
+        context.cancel();
+        return true;
+    }
+}
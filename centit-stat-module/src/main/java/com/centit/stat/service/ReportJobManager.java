@@ -0,0 +1,25 @@
+package com.centit.stat.service;
+
+public interface ReportJobManager {
+
+    /**
+     * 提交后台统计任务
+     * @param formData 报表模型，查询条件已经收集
+     * @param query 执行查询，把结果写入 formData
+     * @return 任务
+     */
+    public ReportJob submitJob(FormDataModel formData, Runnable query);
+
+    /**
+     * @param jobId 任务编号
+     * @return 任务，不存在或者结果已经过期时返回 null
+     */
+    public ReportJob getJob(String jobId);
+
+    /**
+     * 取消任务
+     * @param jobId 任务编号
+     * @return 任务，不存在时返回 null
+     */
+    public ReportJob cancelJob(String jobId);
+}
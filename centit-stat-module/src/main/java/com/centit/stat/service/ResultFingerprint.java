@@ -0,0 +1,99 @@
+package com.centit.stat.service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.centit.stat.po.QueryCondition;
+import com.centit.support.algorithm.StringBaseOpt;
+import com.centit.support.database.utils.PageDesc;
+
+/**
+ * 统计结果的指纹，作为响应的 ETag：模块版本、规范化之后的查询参数和结果版本。
+ * 结果来自缓存时结果版本为缓存条目的编号，否则为统计结果中所有值的摘要。
+ */
+public class ResultFingerprint {
+
+    private final MessageDigest digest;
+
+    private ResultFingerprint() {
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private ResultFingerprint add(Object value) {
+        String s = value == null ? "\u0000" : StringBaseOpt.objectToString(value);
+        digest.update(s.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0x1f);
+        return this;
+    }
+
+    private String toETag() {
+        StringBuilder tag = new StringBuilder(34).append('"');
+        for (byte b : digest.digest()) {
+            tag.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return tag.append('"').toString();
+    }
+
+    /**
+     * @param formData 已经完成查询的报表模型
+     * @param page 分页信息，不分页为 null
+     * @param variant 同一个结果的不同输出格式，比如 json、html
+     * @return 带引号的 ETag
+     */
+    public static String of(FormDataModel formData, PageDesc page, String variant) {
+        ResultFingerprint fp = new ResultFingerprint()
+            .add(formData.getModelName()).add(formData.getModelVersion()).add(formData.getModelType())
+            .add(variant).add(formData.getResultName()).add(formData.getComparePeriods())
+            .add(formData.getPageToken()).add(formData.getCountMode());
+        if (page != null) {
+            fp.add(page.getPageNo()).add(page.getPageSize()).add(page.getTotalRows());
+        }
+        Map<String, Object> condValues = new TreeMap<>();
+        for (QueryCondition cond : formData.getConditions()) {
+            condValues.put(cond.getCondName(), cond.getCondValue());
+        }
+        for (Map.Entry<String, Object> ent : condValues.entrySet()) {
+            fp.add(ent.getKey()).add(ent.getValue());
+        }
+        fp.add(formData.getTotalRows()).add(formData.getTotalRowsAll())
+            .add(formData.getNextPageToken()).add(formData.isTotalRowsCounting())
+            .add(formData.isTotalRowsUnknown());
+        if (formData.getResultVersion() != null) {
+            return fp.add(formData.getResultVersion()).toETag();
+        }
+        ColumnarResult result = formData.getFormResult();
+        if (result != null) {
+            fp.add(result.getRowCount());
+            for (int r = 0; r < result.getRowCount(); r++) {
+                for (int c = 0; c < result.getColumnCount(); c++) {
+                    fp.add(result.getValue(r, c));
+                }
+            }
+        }
+        List<Object[]> crossColumns = formData.getCrossTableColumns();
+        if (crossColumns != null) {
+            for (Object[] col : crossColumns) {
+                for (Object value : col) {
+                    fp.add(value);
+                }
+            }
+        }
+        return fp.toETag();
+    }
+
+    /**
+     * @param content 响应内容
+     * @return 内容摘要作为的 ETag
+     */
+    public static String of(String content) {
+        return new ResultFingerprint().add(content).toETag();
+    }
+}
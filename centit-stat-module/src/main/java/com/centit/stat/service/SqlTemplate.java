@@ -0,0 +1,294 @@
+package com.centit.stat.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.centit.support.algorithm.StringBaseOpt;
+import com.centit.support.compiler.Lexer;
+import com.centit.support.database.utils.QueryAndNamedParams;
+import com.centit.support.database.utils.QueryUtils;
+
+/**
+ * 预编译的统计语句模板，同一条语句只解析一次，每次请求只绑定参数。
+ * <p>
+ * 没有可选条件 [ ... ] 和参数预处理 :( ... ) 的语句不需要翻译，直接使用原语句和条件参数；
+ * 其他语句按照参数值缓存 QueryUtils.translateQuery 的翻译结果。
+ * ${name} 宏的位置和去掉 order by 之后的语句也在编译时确定。
+ */
+public class SqlTemplate {
+
+    private static final int MAX_TEMPLATES = 512;
+
+    private static final int MAX_TRANSLATIONS = 64;
+
+    private static final Map<String, SqlTemplate> TEMPLATES =
+        new LinkedHashMap<String, SqlTemplate>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, SqlTemplate> eldest) {
+                return size() > MAX_TEMPLATES;
+            }
+        };
+
+    private final String sql;
+
+    /**
+     * 语句中没有需要翻译的结构
+     */
+    private final boolean plain;
+
+    /**
+     * 去掉 order by 之后的语句，只在 plain 时有效
+     */
+    private String sqlWithoutOrder;
+
+    /**
+     * ${name} 宏分隔的语句片段，macroNames[i] 位于 fragments[i] 和 fragments[i+1] 之间
+     */
+    private final List<String> fragments;
+    private final List<String> macroNames;
+
+    private final Map<String, Translation> translations;
+
+    private static class Translation {
+        private final String query;
+        private final Map<String, Object> params;
+
+        Translation(String query, Map<String, Object> params) {
+            this.query = query;
+            this.params = params;
+        }
+    }
+
+    private SqlTemplate(String sql) {
+        this.sql = sql;
+        this.plain = sql.indexOf('[') < 0 && !sql.contains(":(");
+        this.fragments = new ArrayList<>();
+        this.macroNames = new ArrayList<>();
+        parseMacros();
+        this.translations = new LinkedHashMap<String, Translation>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Translation> eldest) {
+                return size() > MAX_TRANSLATIONS;
+            }
+        };
+    }
+
+    /**
+     * 获取语句对应的模板，没有时编译一个
+     * @param sql 统计语句
+     * @return 模板
+     */
+    public static SqlTemplate compile(String sql) {
+        synchronized (TEMPLATES) {
+            SqlTemplate template = TEMPLATES.get(sql);
+            if (template == null) {
+                template = new SqlTemplate(sql);
+                TEMPLATES.put(sql, template);
+            }
+            return template;
+        }
+    }
+
+    private void parseMacros() {
+        Lexer varMorp = new Lexer();
+        varMorp.setFormula(sql);
+        int nPos = 0;
+        String sWord = varMorp.getAWord();
+        while (sWord != null && !sWord.equals("")) {
+            if (sWord.equals("$")) {
+                int nEndPos = varMorp.getCurrPos();
+                sWord = varMorp.getAWord();
+                if (sWord.equals("{")) {
+                    sWord = varMorp.getStringUntil("}");
+                    fragments.add(sql.substring(nPos, nEndPos - 1));
+                    macroNames.add(StringBaseOpt.isNvl(sWord) ? null : sWord.trim());
+                    nPos = varMorp.getCurrPos();
+                    sWord = varMorp.getAWord();
+                }
+            } else {
+                sWord = varMorp.getAWord();
+            }
+        }
+        fragments.add(nPos < sql.length() ? sql.substring(nPos) : "");
+    }
+
+    /**
+     * 用条件语句替换 ${name} 宏，没有对应条件的宏替换为空格
+     * @param condMap 宏名称和条件语句
+     * @return 替换后的语句
+     */
+    public String pretreatment(Map<String, String> condMap) {
+        if (macroNames.isEmpty()) {
+            return sql;
+        }
+        StringBuilder sDesFormula = new StringBuilder(sql.length() + 64);
+        for (int i = 0; i < macroNames.size(); i++) {
+            sDesFormula.append(fragments.get(i));
+            String name = macroNames.get(i);
+            if (name != null) {
+                String sFilterSql = condMap.get(name);
+                if (sFilterSql != null) {
+                    sDesFormula.append(sFilterSql);
+                }
+                sDesFormula.append(' ');
+            }
+        }
+        sDesFormula.append(fragments.get(macroNames.size()));
+        return sDesFormula.toString();
+    }
+
+    /**
+     * 绑定参数生成查询语句，orderField 和 orderDirection 参数用于替换语句的排序
+     * @param params 查询条件，返回的对象会使用这个 Map 作为参数
+     * @return 查询语句和参数
+     */
+    public QueryAndNamedParams bind(Map<String, Object> params) {
+        String orderField = (String) params.get("orderField");
+        String orderDirection = (String) params.get("orderDirection");
+        QueryAndNamedParams statQuery = new QueryAndNamedParams();
+        if (plain) {
+            statQuery.setSql(appendOrder(orderField, orderDirection));
+            statQuery.setParams(params);
+            return statQuery;
+        }
+
+        String key = translationKey(params);
+        Translation trans;
+        synchronized (translations) {
+            trans = translations.get(key);
+        }
+        if (trans == null) {
+            QueryAndNamedParams translated = QueryUtils.translateQuery(sql, params);
+            String querySql = translated.getQuery();
+            if (!StringUtils.isEmpty(orderField)) {
+                querySql = new StringBuilder(QueryUtils.removeOrderBy(querySql))
+                    .append(" order by ").append(orderField).append(' ').append(orderDirection)
+                    .toString();
+            }
+            trans = new Translation(querySql, new HashMap<>(translated.getParams()));
+            synchronized (translations) {
+                translations.put(key, trans);
+            }
+        }
+        for (Map.Entry<String, Object> ent : trans.params.entrySet()) {
+            if (null != params.get(ent.getKey())) {
+                params.put(ent.getKey(), ent.getValue());
+            }
+        }
+        statQuery.setSql(trans.query);
+        statQuery.setParams(params);
+        return statQuery;
+    }
+
+    private String appendOrder(String orderField, String orderDirection) {
+        if (StringUtils.isEmpty(orderField)) {
+            return sql;
+        }
+        if (sqlWithoutOrder == null) {
+            sqlWithoutOrder = QueryUtils.removeOrderBy(sql);
+        }
+        return new StringBuilder(sqlWithoutOrder.length() + orderField.length() + 16)
+            .append(sqlWithoutOrder).append(" order by ").append(orderField)
+            .append(' ').append(orderDirection).toString();
+    }
+
+    /**
+     * 取出语句最外层 order by 中的排序项，括号和引号中的内容不拆分
+     * @param sql 查询语句
+     * @return 每个排序项为 {表达式, 是否降序 "desc"/"asc"}，没有排序时返回空列表
+     */
+    public static List<String[]> orderByItems(String sql) {
+        List<String[]> items = new ArrayList<>();
+        if (sql == null) {
+            return items;
+        }
+        String lower = sql.toLowerCase();
+        int depth = 0;
+        int orderPos = -1;
+        char quote = 0;
+        List<Integer> commas = new ArrayList<>();
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '\'' || c == '"' || c == '`') {
+                quote = c;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (depth == 0 && c == ',') {
+                commas.add(i);
+            } else if (depth == 0 && lower.startsWith("order", i) && isWordAt(lower, i, 5)) {
+                int by = i + 5;
+                while (by < sql.length() && Character.isWhitespace(sql.charAt(by))) {
+                    by++;
+                }
+                if (by > i + 5 && lower.startsWith("by", by) && isWordAt(lower, by, 2)) {
+                    orderPos = by + 2;
+                    commas.clear();
+                    i = by + 1;
+                }
+            }
+        }
+        if (orderPos < 0) {
+            return items;
+        }
+        int start = orderPos;
+        commas.add(sql.length());
+        for (int end : commas) {
+            String item = sql.substring(start, end).trim();
+            start = end + 1;
+            String itemLower = item.toLowerCase();
+            if (itemLower.endsWith(" nulls first") || itemLower.endsWith(" nulls last")) {
+                item = item.substring(0, itemLower.lastIndexOf(" nulls ")).trim();
+                itemLower = item.toLowerCase();
+            }
+            String direction = "asc";
+            if (itemLower.endsWith(" desc")) {
+                direction = "desc";
+                item = item.substring(0, item.length() - 5).trim();
+            } else if (itemLower.endsWith(" asc")) {
+                item = item.substring(0, item.length() - 4).trim();
+            }
+            if (!item.isEmpty()) {
+                items.add(new String[]{item, direction});
+            }
+        }
+        return items;
+    }
+
+    private static boolean isWordAt(String text, int pos, int length) {
+        return (pos == 0 || !Character.isJavaIdentifierPart(text.charAt(pos - 1)))
+            && (pos + length >= text.length() || !Character.isJavaIdentifierPart(text.charAt(pos + length)));
+    }
+
+    /**
+     * 翻译结果只和参数值有关，参数类型不同时翻译结果可能不同，所以类型也作为主键的一部分
+     */
+    static String translationKey(Map<String, Object> params) {
+        StringBuilder key = new StringBuilder();
+        for (Map.Entry<String, Object> ent : new TreeMap<>(params).entrySet()) {
+            Object value = ent.getValue();
+            key.append(ent.getKey()).append('=');
+            if (value != null) {
+                key.append(value.getClass().getName()).append(':')
+                    .append(StringBaseOpt.objectToString(value));
+            }
+            key.append('\n');
+        }
+        return key.toString();
+    }
+}
@@ -0,0 +1,114 @@
+package com.centit.stat.service.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.centit.framework.ip.po.DatabaseInfo;
+import com.centit.stat.dao.DBCPDao;
+import com.centit.stat.dao.QueryContext;
+import com.centit.stat.dao.QueryLimits;
+import com.centit.support.database.utils.QueryAndNamedParams;
+import com.centit.support.report.StatReportException;
+
+/**
+ * 同比、环比报表各个时间段的查询并行执行。
+ * 线程数就是对比查询额外占用的连接数上限，QueryScheduler 按照 getParallelism 的连接个数排队；
+ * 队列满时在请求线程中执行，退化为顺序查询。
+ * 请求线程的查询上下文绑定到执行查询的线程，取消请求时同时中断各个时间段的查询。
+ */
+@Component
+public class CompareQueryExecutor {
+
+    private final ThreadPoolExecutor executor;
+
+    public CompareQueryExecutor(@Value("${stat.compare.threads:8}") int threads,
+                                @Value("${stat.compare.queueSize:64}") int queueSize) {
+        final AtomicInteger threadNo = new AtomicInteger(0);
+        ThreadFactory threadFactory = r -> {
+            Thread t = new Thread(r, "stat-compare-" + threadNo.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+        executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(queueSize), threadFactory, new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @param queries 查询语句个数
+     * @return findAll 同时使用的连接个数上限
+     */
+    public int getParallelism(int queries) {
+        return Math.min(queries, executor.getMaximumPoolSize() + 1);
+    }
+
+    /**
+     * 并行执行多个查询，最后一个查询在当前线程中执行
+     * @param dbinfo 数据库连接信息
+     * @param queries 查询语句
+     * @param limits 模块的查询限制
+     * @return 和查询语句一一对应的结果集
+     */
+    public List<List<Object[]>> findAll(DatabaseInfo dbinfo, List<QueryAndNamedParams> queries,
+                                       QueryLimits limits) {
+        int last = queries.size() - 1;
+        final QueryContext context = QueryContext.current();
+        List<Future<List<Object[]>>> futures = new ArrayList<>(last);
+        for (int i = 0; i < last; i++) {
+            QueryAndNamedParams qap = queries.get(i);
+            futures.add(executor.submit(() -> {
+                // 队列满时在请求线程中执行，结束后恢复原来绑定的上下文
+                QueryContext previous = QueryContext.current();
+                QueryContext.bind(context);
+                try {
+                    return DBCPDao.findObjectsNamedSql(dbinfo, qap, limits);
+                } finally {
+                    if (previous != null) {
+                        QueryContext.bind(previous);
+                    } else {
+                        QueryContext.unbind();
+                    }
+                }
+            }));
+        }
+        List<List<Object[]>> results = new ArrayList<>(queries.size());
+        try {
+            List<Object[]> lastDatas = DBCPDao.findObjectsNamedSql(dbinfo, queries.get(last), limits);
+            for (Future<List<Object[]>> future : futures) {
+                results.add(future.get());
+            }
+            results.add(lastDatas);
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new StatReportException(StatReportException.DATABASE_OPERATE_EXCEPTION, "对比查询被中断！", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new StatReportException(StatReportException.DATABASE_OPERATE_EXCEPTION, cause);
+        } finally {
+            for (Future<List<Object[]>> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,150 @@
+package com.centit.stat.service.impl;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.centit.stat.po.QueryCondition;
+import com.centit.stat.service.FormDataModel;
+import com.centit.support.algorithm.StringBaseOpt;
+import com.centit.support.database.utils.PageDesc;
+
+/**
+ * 统计结果缓存，按照模块名称、报表类型、分页和查询条件（收集参数之后的值）缓存查询结果和表格；
+ * 缓存时间由模块的 cacheTtl 决定，总条目数超过上限时淘汰最久没有使用的结果。
+ */
+@Component
+public class FormDataCache {
+
+    private static class CacheEntry {
+        private String modelName;
+        private long expireTime;
+        private FormDataSnapshot result;
+    }
+
+    private final Map<String, CacheEntry> entries;
+
+    /**
+     * 缓存条目的编号，作为统计结果的版本
+     */
+    private final AtomicLong entrySeq = new AtomicLong(0);
+
+    public FormDataCache(@Value("${stat.cache.maxEntries:500}") final int maxEntries) {
+        this.entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * 生成缓存主键，需要在查询之前调用，因为对比分析会修改查询条件
+     * @param formData 报表模型，查询条件已经赋值
+     * @param page 分页信息
+     * @param needSum 是否计算合计
+     * @return 缓存主键，模块不缓存时返回null
+     */
+    public String makeKey(FormDataModel formData, PageDesc page, boolean needSum) {
+        if (formData.getCacheTtl() <= 0) {
+            return null;
+        }
+        return makeQueryKey(formData, page, needSum);
+    }
+
+    /**
+     * 生成查询主键，和缓存主键相同，但是模块不缓存时也生成，用于合并相同的查询；
+     * 主键包含模块版本，模块修改之后的请求不使用修改之前的查询结果
+     * @param formData 报表模型，查询条件已经赋值
+     * @param page 分页信息
+     * @param needSum 是否计算合计
+     * @return 查询主键
+     */
+    public String makeQueryKey(FormDataModel formData, PageDesc page, boolean needSum) {
+        Map<String, String> condValues = new TreeMap<>();
+        for (QueryCondition cond : formData.getConditions()) {
+            condValues.put(cond.getCondName(), StringBaseOpt.objectToString(cond.getCondValue()));
+        }
+        // 模块修改之前开始的查询在清除缓存之后才保存结果时，不会被修改之后的请求使用
+        StringBuilder key = new StringBuilder(String.valueOf(formData.getModelVersion()))
+            .append('|').append(formData.getModelName())
+            .append('|').append(formData.getModelType())
+            .append('|').append(needSum)
+            .append('|').append(formData.getComparePeriods());
+        if (page != null) {
+            key.append('|').append(page.getPageNo()).append(',').append(page.getPageSize())
+                .append(',').append(formData.getPageToken()).append(',').append(formData.getCountMode());
+        }
+        for (Map.Entry<String, String> ent : condValues.entrySet()) {
+            key.append('|').append(ent.getKey()).append('=').append(ent.getValue());
+        }
+        return key.toString();
+    }
+
+    /**
+     * 从缓存中恢复查询结果
+     * @param key 缓存主键
+     * @param formData 报表模型，命中时写入结果
+     * @param page 分页信息，命中时写入总行数
+     * @return 查询返回的行数，没有命中返回null
+     */
+    public Integer restore(String key, FormDataModel formData, PageDesc page) {
+        if (key == null) {
+            return null;
+        }
+        CacheEntry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.expireTime < System.currentTimeMillis()) {
+                entries.remove(key);
+                return null;
+            }
+        }
+        return entry.result.restore(formData, page);
+    }
+
+    /**
+     * 缓存查询结果
+     * @param key 缓存主键，为null时不缓存
+     * @param formData 已经完成查询的报表模型
+     * @param page 分页信息
+     * @param rowCount 查询返回的行数
+     */
+    public void store(String key, FormDataModel formData, PageDesc page, Integer rowCount) {
+        if (key == null) {
+            return;
+        }
+        formData.setResultVersion(Long.toString(entrySeq.incrementAndGet(), 36));
+        CacheEntry entry = new CacheEntry();
+        entry.modelName = formData.getModelName();
+        entry.expireTime = System.currentTimeMillis() + formData.getCacheTtl() * 1000L;
+        entry.result = new FormDataSnapshot(formData, page, rowCount);
+        synchronized (entries) {
+            entries.put(key, entry);
+        }
+    }
+
+    /**
+     * 清除模块的所有缓存结果，模块修改或者删除时调用
+     * @param modelName 模块名称
+     */
+    public void evictModel(String modelName) {
+        synchronized (entries) {
+            for (Iterator<CacheEntry> it = entries.values().iterator(); it.hasNext(); ) {
+                if (modelName.equals(it.next().modelName)) {
+                    it.remove();
+                }
+            }
+        }
+    }
+}
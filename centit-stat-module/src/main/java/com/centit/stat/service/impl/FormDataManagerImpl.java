@@ -2,6 +2,7 @@ package com.centit.stat.service.impl;
 
 import com.centit.framework.ip.service.IntegrationEnvironment;
 import com.centit.stat.dao.DBCPDao;
+import com.centit.stat.dao.PageToken;
 import com.centit.stat.dao.QueryModelDao;
 import com.centit.stat.po.QueryCell;
 import com.centit.stat.po.QueryColumn;
@@ -11,26 +12,42 @@ import com.centit.stat.po.html.table.CTableBodyTBody;
 import com.centit.stat.po.html.table.CTableBodyTHead;
 import com.centit.stat.po.html.table.CTableCell;
 import com.centit.stat.po.html.table.CTablePanel;
+import com.centit.stat.service.ColumnarResult;
+import com.centit.stat.service.CompiledQueryModel;
 import com.centit.stat.service.FormDataManager;
 import com.centit.stat.service.FormDataModel;
-import com.centit.support.algorithm.GeneralAlgorithm;
-import com.centit.support.algorithm.ListOpt;
-import com.centit.support.algorithm.ListOpt.ParentChild;
-import com.centit.support.algorithm.StringBaseOpt;
+import com.centit.stat.service.QueryQueueMetrics;
+import com.centit.stat.service.SqlTemplate;
+import com.centit.stat.service.pipeline.AggregateKernel;
+import com.centit.stat.service.pipeline.AggregateStage;
+import com.centit.stat.service.pipeline.CrossTablePivot;
+import com.centit.stat.service.pipeline.FormDataPipeline;
+import com.centit.stat.service.pipeline.FormDataRowSink;
+import com.centit.stat.service.pipeline.LinkParams;
+import com.centit.stat.service.pipeline.RowSpanDetector;
+import com.centit.stat.service.pipeline.TablePanelSink;
+import com.centit.stat.service.pipeline.TreeRollupStage;
+import com.centit.stat.service.pipeline.TreeRows;
+import com.centit.support.database.utils.DBType;
 import com.centit.support.database.utils.PageDesc;
 import com.centit.support.database.utils.QueryAndNamedParams;
+import com.centit.support.report.StatReportException;
 import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.Resource;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
 @Service
 public class FormDataManagerImpl implements FormDataManager {
+    private static final Logger logger = LoggerFactory.getLogger(FormDataManagerImpl.class);
+
     protected QueryModelDao baseDao = null;
 
     @Resource
@@ -40,6 +57,24 @@ public class FormDataManagerImpl implements FormDataManager {
 
     @Resource
     protected IntegrationEnvironment integrationEnvironment;
+
+    @Resource
+    protected FormDataCache formDataCache;
+
+    @Resource
+    protected FormDataModelRegistry modelRegistry;
+
+    @Resource
+    protected CompareQueryExecutor compareQueryExecutor;
+
+    @Resource
+    protected TotalRowsCounter totalRowsCounter;
+
+    @Resource
+    protected QueryCoalescer queryCoalescer;
+
+    @Resource
+    protected QueryScheduler queryScheduler;
     /*
      * (non-Javadoc)
      *
@@ -48,14 +83,21 @@ public class FormDataManagerImpl implements FormDataManager {
      */
     @Transactional(readOnly = true)
     public FormDataModel getDataModel(String modelName) {
-        FormDataModel formModel = new FormDataModel();
-        formModel.setModelName(modelName);
-        QueryModel qm = baseDao.getObjectById(modelName);
-        if (qm != null) {
-            formModel.loadFromQueryModel(qm);
-            formModel.setDbinfo(
-                    integrationEnvironment.getDatabaseInfo(qm.getDatabaseCode()));
+        CompiledQueryModel compiled = modelRegistry.get(modelName);
+        if (compiled == null) {
+            long loadVersion = modelRegistry.currentVersion();
+            QueryModel qm = baseDao.getObjectById(modelName);
+            if (qm == null) {
+                FormDataModel formModel = new FormDataModel();
+                formModel.setModelName(modelName);
+                return formModel;
+            }
+            compiled = new CompiledQueryModel(qm);
+            modelRegistry.put(compiled, loadVersion);
         }
+        FormDataModel formModel = compiled.createFormDataModel();
+        formModel.setDbinfo(
+                integrationEnvironment.getDatabaseInfo(compiled.getDatabaseCode()));
         return formModel;
     }
 
@@ -68,160 +110,266 @@ public class FormDataManagerImpl implements FormDataManager {
      */
 
     @Override
-    @Transactional(readOnly = true)
-    strictfp public Integer queryFormData(FormDataModel formData, PageDesc page) {
-        List<Object[]> currDatas = new ArrayList<Object[]>();
-        QueryAndNamedParams qap = formData.makeStatQuery();
+    public void refreshDataModel(String modelName) {
+        modelRegistry.evict(modelName);
+        formDataCache.evictModel(modelName);
+        totalRowsCounter.evictModel(modelName);
+    }
 
-        if (null != page)
-            currDatas = DBCPDao.findObjectsNamedSql(formData.getDbinfo(), qap, page);
-        else {
-            currDatas = DBCPDao.findObjectsNamedSql(formData.getDbinfo(), qap);
-        }
-        formData.setFormData(currDatas);
-        List<Object[]> datas = currDatas;
-        List<QueryColumn> columns = formData.getColumns();
+    @Override
+    public List<QueryQueueMetrics> listQueryQueueMetrics() {
+        return queryScheduler.listMetrics();
+    }
 
-        // 树形结构
-        if ("1".equals(formData.getIsTree())) {
-            ParentChild<Object[]> c = new ListOpt.ParentChild<Object[]>() {
-                @Override
-                public boolean parentAndChild(Object[] p, Object[] c) {
-                    return p[0].equals(c[1]);
-                }
+    /**
+     * 报表查询不在事务中执行：报表数据库使用自己的连接池，在缓存、合并查询和排队中等待时
+     * 不能占用应用数据库的连接；只有 getDataModel 读取模块定义时需要事务。
+     */
+    @Override
+    public Integer queryFormData(FormDataModel formData, PageDesc page) {
+        String cacheKey = formDataCache.makeKey(formData, page, true);
+        Integer rowCount = formDataCache.restore(cacheKey, formData, page);
+        if (rowCount == null) {
+            rowCount = queryCoalescer.execute(formDataCache.makeQueryKey(formData, page, true),
+                formData, page, () -> {
+                    Integer rows = queryFormData(formData, page, new TablePanelSink(formData));
+                    // 总行数还在计算或者计算失败时不缓存，下次请求可以取到计算结果
+                    if (!formData.isTotalRowsCounting() && !formData.isTotalRowsUnknown())
+                        formDataCache.store(cacheKey, formData, page, rows);
+                    return rows;
+                });
+        }
+        return rowCount;
+    }
 
-            };
+    /**
+     * 合计、链接参数、单元格和行合并在流水线中一次完成；不分页且非树形的报表直接从游标读取，
+     * 不在内存中保留查询结果。
+     */
+    @Override
+    public Integer queryFormData(FormDataModel formData, PageDesc page, FormDataRowSink sink) {
+        // 在报表所在数据库的执行通道中执行，通道满时排队
+        return queryScheduler.execute(formData, () -> doQueryFormData(formData, page, sink));
+    }
 
-            ListOpt.sortAsTree(datas, c);
-        }
-        // 计算合计和平均
-
-        Object[] sumData = new Object[formData.getDataColumnCount()];
-        Object[] avgData = new Object[formData.getDataColumnCount()];
-        // sumData[0]=isPaging?"本页合计":"合计";
-        sumData[0] = (page != null && page.getPageSize()>0) ? "本页合计" : "合计";
-        avgData[0] = (page != null && page.getPageSize()>0) ? "本页平均" : "平均";
-        boolean needSum = false;
-        boolean needAvg = false;
-        for (int i = 1; i < formData.getDataColumnCount(); i++) {
-            sumData[i] = null;
-            avgData[i] = null;
+    private Integer doQueryFormData(FormDataModel formData, PageDesc page, FormDataRowSink sink) {
+        QueryAndNamedParams qap = formData.makeStatQuery();
+        boolean paging = page != null && page.getPageSize() > 0;
+        AggregateStage aggregate = paging && "T".equals(formData.getTotalInDb()) ?
+                createDatabaseAggregate(formData, qap) : null;
+        if (aggregate == null) {
+            aggregate = new AggregateStage(formData.getColumns(), formData.getDataColumnCount(), paging);
         }
-        for (int i = 1; i < formData.getDataColumnCount(); i++) {
-            int size = 0;
-            String optType = columns.get(i).getOptType();
-            if ("1".equals(optType) || "3".equals(optType)) {
-                needSum = true;
+        TreeRollupStage treeRollup = formData.isTreeRollup() ? new TreeRollupStage() : null;
+        FormDataPipeline pipeline = FormDataPipeline.createFormPipeline(formData, aggregate, treeRollup, sink);
+        pipeline.start(formData.getColumns());
+
+        // 分页（最多一页数据）和树形结构需要先取出数据
+        if (null != page || formData.isTreeForm()) {
+            List<Object[]> datas;
+            if (null != page)
+                datas = queryPage(formData, qap, page);
+            else
+                datas = DBCPDao.findObjectsNamedSql(formData.getDbinfo(), qap, formData.getQueryLimits());
+
+            // 树形结构，分页时只在本页内排列和汇总
+            if (formData.isTreeForm()) {
+                TreeRows tree = new TreeRows(datas);
+                datas = tree.getRows();
+                if (treeRollup != null) {
+                    treeRollup.setRolledRows(tree.rollup(rollupOpts(formData.getColumns())));
+                }
             }
-            if ("2".equals(optType) || "3".equals(optType)) {
-                needAvg = true;
+            for (Object[] row : datas) {
+                pipeline.handleRow(row);
             }
+        } else {
+            DBCPDao.fetchObjectsNamedSql(formData.getDbinfo(), qap, formData.getQueryLimits(), pipeline);
+        }
+        return pipeline.finish();
+    }
 
-            for (int di = 0; di < datas.size(); di++) {
-                if (datas.get(di)[i] != null && datas.get(di)[i] instanceof java.lang.Number) {
-                    sumData[i] = (sumData[i] == null) ? datas.get(di)[i]
-                            : ((Number) sumData[i]).doubleValue() + ((Number) datas.get(di)[i]).doubleValue();
-                    size++;
-                }
+    /**
+     * 查询一页数据：带有分页标记时按照行头字段做 keyset 分页，并生成下一页的标记；
+     * 否则按照页码分页。总行数按照 countMode 计算，精确计算时由 TotalRowsCounter 在后台计算并缓存。
+     */
+    private List<Object[]> queryPage(FormDataModel formData, QueryAndNamedParams qap, PageDesc page) {
+        String countMode = formData.getCountMode();
+        boolean asyncCount = totalRowsCounter.isEnabled() && page.getPageSize() > 0
+            && (countMode == null || DBCPDao.COUNT_EXACT.equals(countMode));
+        if (asyncCount) {
+            countMode = DBCPDao.COUNT_NONE;
+        }
+        if (!formData.isKeysetPaging() || page.getPageSize() <= 0) {
+            List<Object[]> datas = DBCPDao.findObjectsNamedSql(formData.getDbinfo(), qap, page, countMode,
+                formData.getQueryLimits());
+            if (asyncCount) {
+                applyTotalRows(formData, qap, page, datas.size() < page.getPageSize()
+                    && (page.getPageNo() <= 1 || !datas.isEmpty()));
             }
-            if (size > 0)
-                avgData[i] = ((Number) sumData[i]).doubleValue() / size;
-
+            return datas;
         }
-        for (int i = 1; i < formData.getDataColumnCount(); i++) {
-            String optType = columns.get(i).getOptType();
-            if (sumData[i] == null || "2".equals(optType) || "0".equals(optType)) {
-                sumData[i] = "--";
+        List<Integer> keys = new ArrayList<>();
+        List<Boolean> directions = new ArrayList<>();
+        List<QueryColumn> columns = formData.getColumns();
+        // 按照语句的排序（包括请求中的 orderField）分页；排序项不是结果中的字段时，只用它前面的排序项
+        for (String[] item : SqlTemplate.orderByItems(qap.getQuery())) {
+            int col = findSortColumn(columns, item[0]);
+            if (col < 0) {
+                break;
             }
-            if (avgData[i] == null || "1".equals(optType) || "0".equals(optType)) {
-                avgData[i] = "--";
+            if (!keys.contains(col)) {
+                keys.add(col);
+                directions.add("desc".equals(item[1]));
             }
         }
-        if (needSum) {
-            datas.add(sumData);
+        // 没有排序时用行头排序，也没有行头时用所有字段排序
+        if (keys.isEmpty()) {
+            for (int i = 0; i < columns.size(); i++) {
+                if ("R".equals(columns.get(i).getShowType())) {
+                    keys.add(i);
+                    directions.add(false);
+                }
+            }
+        }
+        int[] keyCols = new int[keys.isEmpty() ? columns.size() : keys.size()];
+        boolean[] descending = new boolean[keyCols.length];
+        for (int i = 0; i < keyCols.length; i++) {
+            keyCols[i] = keys.isEmpty() ? i : keys.get(i);
+            descending[i] = !keys.isEmpty() && directions.get(i);
+        }
+        PageToken token = PageToken.decode(formData.getPageToken(), keyCols.length);
+        List<Object[]> datas = DBCPDao.findKeysetPage(formData.getDbinfo(), qap, keyCols, descending, token,
+            page, countMode, formData.getQueryLimits());
+        if (asyncCount) {
+            applyTotalRows(formData, qap, page, datas.size() <= page.getPageSize());
         }
-        if (needAvg) {
-            datas.add(avgData);
+        if (datas.size() > page.getPageSize()) {
+            datas = new ArrayList<>(datas.subList(0, page.getPageSize()));
+            formData.setNextPageToken(PageToken.next(token, datas, keyCols).encode());
+        } else {
+            formData.setNextPageToken(null);
         }
+        return datas;
+    }
 
-        CTableBodyTHead thead = new CTableBodyTHead();
-        CTableBodyTBody tbody = new CTableBodyTBody();
+    /**
+     * 排序项对应的结果字段：字段名（忽略表名前缀和引号）或者从 1 开始的字段序号
+     * @return 字段序号，不是结果中的字段时返回 -1
+     */
+    private static int findSortColumn(List<QueryColumn> columns, String expression) {
+        if (StringUtils.isNumeric(expression)) {
+            int pos = Integer.parseInt(expression) - 1;
+            return pos < columns.size() ? pos : -1;
+        }
+        String name = expression.substring(expression.lastIndexOf('.') + 1);
+        name = StringUtils.strip(name, "\"`[]");
+        for (int i = 0; i < columns.size(); i++) {
+            if (name.equalsIgnoreCase(columns.get(i).getColName())) {
+                return i;
+            }
+        }
+        return -1;
+    }
 
-        // 创建表头
-        for (QueryColumn col : columns) {
-            thead.addCell(CTableCell.createTableHeadCell(col.getColName(), col));
+    /**
+     * 最后一页的总行数已经确定，缓存下来；否则使用缓存的总行数，没有缓存时标记为正在计算
+     */
+    private void applyTotalRows(FormDataModel formData, QueryAndNamedParams qap, PageDesc page, boolean lastPage) {
+        if (lastPage) {
+            totalRowsCounter.putTotalRows(formData.getModelName(), qap, page.getTotalRows());
+            return;
         }
+        long totalRows = totalRowsCounter.getTotalRows(formData, qap);
+        if (totalRows >= 0) {
+            page.setTotalRows(Long.valueOf(totalRows).intValue());
+        } else if (totalRows == TotalRowsCounter.UNKNOWN) {
+            formData.setTotalRowsUnknown(true);
+        } else {
+            formData.setTotalRowsCounting(true);
+        }
+    }
 
-        // 链接参数
-        List<Map<String, Object>> params = parseDataMap(datas, columns, formData.getConditions());
+    /**
+     * 用一条包装了报表语句的聚合查询在数据库中计算所有数据的统计行，分页时不用取出所有数据；
+     * 计算失败时返回 null，退回到只统计当前页
+     */
+    private static AggregateStage createDatabaseAggregate(FormDataModel formData, QueryAndNamedParams qap) {
+        List<QueryColumn> columns = formData.getColumns();
+        int dataColCount = formData.getDataColumnCount();
+        AggregateStage aggregate = new AggregateStage(columns, dataColCount, false);
+        List<int[]> required = AggregateStage.requiredResults(columns, dataColCount);
+        if (required.isEmpty()) {
+            // 没有需要在数据库中计算的字段，统计行都显示为"--"，不能用当前页的数据代替
+            aggregate.presetResults(required, new Object[0]);
+            return aggregate;
+        }
+        DBType dbType = DBType.mapDBType(formData.getDbinfo().getDatabaseUrl());
+        int[] cols = new int[required.size()];
+        String[] functions = new String[required.size()];
+        for (int i = 0; i < cols.length; i++) {
+            cols[i] = required.get(i)[0];
+            functions[i] = AggregateStage.sqlFunction(required.get(i)[1], dbType);
+        }
+        try {
+            Object[] values = DBCPDao.findAggregates(formData.getDbinfo(), qap, cols, functions,
+                formData.getQueryLimits());
+            aggregate.presetResults(required, values);
+            return aggregate;
+        } catch (StatReportException e) {
+            logger.error("报表 " + formData.getModelName() + " 在数据库中计算合计失败，只统计当前页："
+                    + e.getLocalizedMessage());
+            return null;
+        }
+    }
 
-        int[][] needRowSpan = needRowSpan(columns, datas);
+    /**
+     * 计算数据列的合计行，行头列显示为"--"；按列累加，数值列不需要拆箱
+     */
+    private static Object[] makeSumRow(ColumnarResult datas, int rowGroup, int dataColCount) {
+        AggregateKernel kernel = new AggregateKernel(dataColCount);
+        int width = Math.min(dataColCount, datas.getColumnCount());
+        for (int i = rowGroup; i < width; i++) {
+            datas.addTo(kernel, i, 0, datas.getRowCount());
+        }
+        return makeSumRow(kernel, rowGroup, dataColCount);
+    }
 
-        // 创建表格内容
-        int rowIndex = 0;
-        int rowLength = datas.size();
+    /**
+     * 按行累加计算合计行，用于树形报表在替换为子树统计值之前计算合计
+     */
+    private static Object[] makeSumRow(List<Object[]> datas, int rowGroup, int dataColCount) {
+        AggregateKernel kernel = new AggregateKernel(dataColCount);
         for (Object[] row : datas) {
-            Map<String, Object> param = params.get(rowIndex);
-            int colIndex = 0;
-            for (QueryColumn col : columns) {
-                CTableCell cell = CTableCell.createTableCell(row[colIndex++], col, param);
-                // R是行头类型，合并单元格
-                if ("R".equals(col.getShowType())) {
-                    int xindex = columns.indexOf(col);
-                    int yindex = rowIndex;
-                    int rowspan = needRowSpan[xindex][yindex];
-                    if (rowspan > 0) {
-                        cell.setRowspan(rowspan);
-                    } else {
-                        cell.setRowspan(-1);
-                    }
-                }
-                tbody.addCell(cell);
-
-            }
-            rowIndex++;
-            if (rowIndex < rowLength)
-                tbody.addLine();
-            else {
-                break;
+            int width = Math.min(dataColCount, row.length);
+            for (int i = rowGroup; i < width; i++) {
+                kernel.add(i, row[i]);
             }
         }
-        formData.setTablePanel(new CTablePanel(thead, tbody));
-        return rowLength;
+        return makeSumRow(kernel, rowGroup, dataColCount);
     }
 
-    private static int[][] needRowSpan(List<QueryColumn> columns, List<Object[]> datas) {
-        // 需要合并单元格的坐标，这里只考虑表数据纵向合并
-        int[][] needRowSpan = new int[columns.size()][datas.size()];
-        if (datas.size() > 0) {
-            for (int j = 0; j < columns.size(); j++) {
-
-                int beginindex = 0;
-                int rowspan = 1;
-
-                for (int i = 0; i < datas.size(); i++) {
-                    if (i > 0) {
-                        if (null != (datas.get(i)[j]) && !datas.get(i)[j].equals(datas.get(i - 1)[j])
-                                || null == (datas.get(i)[j]) && null != (datas.get(i - 1)[j])) {
-                            needRowSpan[j][beginindex] = rowspan;
-                            beginindex = i;
-                            rowspan = 1;
-                            continue;
-                        } else {
-                            if ("R".equals(columns.get(j).getShowType())) {
-                                needRowSpan[j][beginindex] = 1;
-                            }
-                            rowspan++;
-                        }
-                    } else {
-                        needRowSpan[j][beginindex] = rowspan;
-                    }
-                }
-                needRowSpan[j][beginindex] = rowspan;
+    private static Object[] makeSumRow(AggregateKernel kernel, int rowGroup, int dataColCount) {
+        Object[] sumData = new Object[dataColCount];
+        sumData[0] = "合计";
+        for (int i = 1; i < dataColCount; i++) {
+            Object value = i < rowGroup ? null : kernel.getResult(i, AggregateKernel.OPT_SUM);
+            sumData[i] = value == null ? "--" : value;
+        }
+        return sumData;
+    }
 
-            }
+    /**
+     * 树形报表每一列的子树统计方式：行头、列头不统计，数据列按照字段的 optType
+     */
+    private static int[] rollupOpts(List<QueryColumn> columns) {
+        int[] opts = new int[columns.size()];
+        for (int i = 0; i < opts.length; i++) {
+            String showType = columns.get(i).getShowType();
+            opts[i] = "R".equals(showType) || "C".equals(showType) ? AggregateKernel.OPT_NONE
+                : AggregateKernel.parseOptType(columns.get(i).getOptType());
         }
-        return needRowSpan;
+        return opts;
     }
 
     private static int compareObjects(Object[] obj1, Object[] obj2, int rowGroup, List<QueryColumn> cols) {
@@ -252,32 +400,6 @@ public class FormDataManagerImpl implements FormDataManager {
         return 0;
     }
 
-    private static void mergeObjects(Object[] destObj, Object[] obj1, Object[] obj2, int rowGroup, int colSum) {
-        if (obj1 == null) {
-            if (obj2 == null)
-                return;
-            for (int i = 0; i < rowGroup; i++)
-                destObj[i] = obj2[i];
-            for (int i = rowGroup; i < colSum; i++)
-                destObj[i] = null;
-
-            for (int i = colSum; i < colSum * 2 - rowGroup; i++)
-                destObj[i] = obj2[i - colSum + rowGroup];
-
-            return;
-        }
-
-        for (int i = 0; i < colSum; i++)
-            destObj[i] = obj1[i];
-
-        if (obj2 != null) {
-            for (int i = colSum; i < colSum * 2 - rowGroup; i++)
-                destObj[i] = obj2[i - colSum + rowGroup];
-        } else
-            for (int i = colSum; i < colSum * 2 - rowGroup; i++)
-                destObj[i] = null;
-    }
-
     /**
      * 组装对比数据, 归并排序，sql语句中应该已经是排序好的，所以只要归并就可以了。
      */
@@ -287,103 +409,115 @@ public class FormDataManagerImpl implements FormDataManager {
     }
 
     @Override
-    @Transactional
-    strictfp public Integer queryCompareData(FormDataModel formData, boolean needSum) {
-        // 查询数据
-        String currTitle = formData.makeCondCompareValue(formData.getModelType(), 0);
-        QueryAndNamedParams qap = formData.makeStatQuery();
-        List<Object[]> currDatas = DBCPDao.findObjectsNamedSql(formData.getDbinfo(), qap);
+    public Integer queryCompareData(FormDataModel formData, boolean needSum) {
+        String cacheKey = formDataCache.makeKey(formData, null, needSum);
+        Integer rowCount = formDataCache.restore(cacheKey, formData, null);
+        if (rowCount == null) {
+            // 查询主键需要在查询之前生成，因为对比分析会修改查询条件
+            rowCount = queryCoalescer.execute(formDataCache.makeQueryKey(formData, null, needSum),
+                formData, null, () -> {
+                    // 各个时间段的查询并行执行，按照同时使用的连接个数占用通道
+                    Integer rows = queryScheduler.execute(formData,
+                        compareQueryExecutor.getParallelism(formData.getComparePeriods() + 1),
+                        () -> doQueryCompareData(formData, needSum));
+                    formDataCache.store(cacheKey, formData, null, rows);
+                    return rows;
+                });
+        }
+        return rowCount;
+    }
 
-        String prevTitle = formData.makeCondCompareValue(formData.getModelType(), -1);
-        qap = formData.makeStatQuery();
-        List<Object[]> prevDatas = DBCPDao.findObjectsNamedSql(formData.getDbinfo(), qap);
+    strictfp private Integer doQueryCompareData(FormDataModel formData, boolean needSum) {
+        // 各个时间段的查询语句，最早的在前面，当前时间段在最后
+        int periods = formData.getComparePeriods();
+        String[] titles = new String[periods + 1];
+        QueryAndNamedParams[] queries = new QueryAndNamedParams[periods + 1];
+        titles[periods] = formData.makeCondCompareValue(formData.getModelType(), 0);
+        queries[periods] = formData.makeStatQuery();
+        for (int p = periods - 1; p >= 0; p--) {
+            titles[p] = formData.makeCondCompareValue(formData.getModelType(), -1);
+            queries[p] = formData.makeStatQuery();
+        }
+        // 查询数据
+        List<List<Object[]>> periodDatas = compareQueryExecutor.findAll(formData.getDbinfo(),
+                Arrays.asList(queries), formData.getQueryLimits());
         List<Object[]> compareDatas = new ArrayList<Object[]>();
 
         // 列信息
         List<QueryColumn> cols = formData.getColumns();
 
-        CTableBodyTHead thead = parseCompareThead(cols, currTitle, prevTitle);
+        CTableBodyTHead thead = parseCompareThead(cols, titles);
 
         int colSum = formData.getColumns().size();
         int rowGroup = formData.getRowGroupSum();
+        int dataWidth = colSum - rowGroup;
+        int rowWidth = rowGroup + dataWidth * titles.length;
 
         /**
-         * 合并两个数据集，对比数据放在前面，当前数据放在后面
+         * 多路归并各个时间段的数据集，早的时间段放在前面，当前数据放在最后
          */
-        int currDc = currDatas.size();
-        int prevDc = prevDatas.size();
-        int i = 0;
-        int j = 0;
-        while (j < currDc && i < prevDc) {
-            Object[] rowData = new Object[colSum * 2 - rowGroup];
-            int bc = compareObjects(prevDatas.get(i), currDatas.get(j), rowGroup, cols);
-            if (bc < 0) {
-                mergeObjects(rowData, prevDatas.get(i), null, rowGroup, colSum);
-                i++;
-            } else if (bc > 0) {
-                mergeObjects(rowData, null, currDatas.get(j), rowGroup, colSum);
-                j++;
-            } else {
-                mergeObjects(rowData, prevDatas.get(i), currDatas.get(j), rowGroup, colSum);
-                i++;
-                j++;
+        int[] pos = new int[titles.length];
+        Object[][] heads = new Object[titles.length][];
+        while (true) {
+            Object[] minHead = null;
+            for (int p = 0; p < titles.length; p++) {
+                List<Object[]> datas = periodDatas.get(p);
+                heads[p] = pos[p] < datas.size() ? datas.get(pos[p]) : null;
+                if (heads[p] != null && (minHead == null || compareObjects(heads[p], minHead, rowGroup, cols) < 0)) {
+                    minHead = heads[p];
+                }
+            }
+            if (minHead == null) {
+                break;
+            }
+            Object[] rowData = new Object[rowWidth];
+            System.arraycopy(minHead, 0, rowData, 0, rowGroup);
+            for (int p = 0; p < titles.length; p++) {
+                if (heads[p] != null && compareObjects(heads[p], minHead, rowGroup, cols) == 0) {
+                    System.arraycopy(heads[p], rowGroup, rowData, rowGroup + p * dataWidth, dataWidth);
+                    pos[p]++;
+                }
             }
-            compareDatas.add(rowData);
-        }
-
-        while (j < currDc) {
-            Object[] rowData = new Object[colSum * 2 - rowGroup];
-            mergeObjects(rowData, null, currDatas.get(j), rowGroup, colSum);
-            j++;
-            compareDatas.add(rowData);
-        }
-
-        while (i < prevDc) {
-            Object[] rowData = new Object[colSum * 2 - rowGroup];
-            mergeObjects(rowData, prevDatas.get(i), null, rowGroup, colSum);
-            i++;
             compareDatas.add(rowData);
         }
 
         // 树形结构
-        if ("1".equals(formData.getIsTree())) {
-            ParentChild<Object[]> c = new ListOpt.ParentChild<Object[]>() {
-
-                @Override
-                public boolean parentAndChild(Object[] p, Object[] c) {
-                    return p[0].equals(c[1]);
+        Object[] sumRow = null;
+        if (formData.isTreeForm()) {
+            TreeRows tree = new TreeRows(compareDatas);
+            compareDatas = tree.getRows();
+            if (formData.isTreeRollup()) {
+                // 合计行按照每个节点自己的值计算，之后上级节点替换为子树的统计值
+                if (needSum) {
+                    sumRow = makeSumRow(compareDatas, rowGroup, rowWidth);
                 }
-
-            };
-
-            ListOpt.sortAsTree(compareDatas, c);
+                int[] opts = new int[rowWidth];
+                for (int c = rowGroup; c < rowWidth; c++) {
+                    opts[c] = AggregateKernel.parseOptType(cols.get(rowGroup + (c - rowGroup) % dataWidth).getOptType());
+                }
+                List<Object[]> rolled = tree.rollup(opts);
+                for (int r = 0; r < compareDatas.size(); r++) {
+                    TreeRows.applyRollup(compareDatas.get(r), rolled.get(r));
+                }
+            }
+        }
+        ColumnarResult compareResult = new ColumnarResult(rowWidth);
+        for (Object[] row : compareDatas) {
+            compareResult.handleRow(row);
         }
         // 计算合计
         if (needSum) {
-            int dataColCount = colSum * 2 - rowGroup;
-            Object[] sumData = new Object[dataColCount];
-            sumData[0] = "合计";
-
-            for (i = rowGroup; i < dataColCount; i++)
-                sumData[i] = null;
-            for (int di = 0; di < compareDatas.size(); di++) {
-                for (i = rowGroup; i < dataColCount; i++) {
-                    if (compareDatas.get(di)[i] != null && compareDatas.get(di)[i] instanceof java.lang.Number)
-                        sumData[i] = (sumData[i] == null) ? compareDatas.get(di)[i]
-                                : ((Number) sumData[i]).doubleValue()
-                                        + ((Number) compareDatas.get(di)[i]).doubleValue();
-                }
-            }
-            for (i = 1; i < dataColCount; i++)
-                if (sumData[i] == null)
-                    sumData[i] = "--";
-            compareDatas.add(sumData);
+            if (sumRow == null)
+                sumRow = makeSumRow(compareResult, rowGroup, rowWidth);
+            compareDatas.add(sumRow);
+            compareResult.handleRow(sumRow);
         }
+        compareResult.trim();
         // 数据转换成hash表，供后面进行链接参数替换
         List<Map<String, Object>> dataMap = parseDataMap(compareDatas, cols, formData.getConditions());
-        CTableBodyTBody tbody = parseCompareTbody(compareDatas, cols, dataMap);
+        CTableBodyTBody tbody = parseCompareTbody(formData, compareDatas, cols, dataMap, titles.length);
 
-        formData.setFormData(compareDatas);
+        formData.setFormResult(compareResult);
         formData.setTablePanel(new CTablePanel(thead, tbody));
         return compareDatas.size();
     }
@@ -391,13 +525,15 @@ public class FormDataManagerImpl implements FormDataManager {
     /**
      * 解析表格内容
      *
+     * @param formData 报表模型，提供编译好的列格式
      * @param compareDatas
      * @param cols
      * @param dataMap
+     * @param periods 时间段个数，包括当前时间段
      * @return
      */
-    private static CTableBodyTBody parseCompareTbody(List<Object[]> compareDatas, List<QueryColumn> cols,
-            List<Map<String, Object>> dataMap) {
+    private static CTableBodyTBody parseCompareTbody(FormDataModel formData, List<Object[]> compareDatas,
+            List<QueryColumn> cols, List<Map<String, Object>> dataMap, int periods) {
         CTableBodyTBody tbody = new CTableBodyTBody();
 
         // 表格头固定列
@@ -410,8 +546,8 @@ public class FormDataManagerImpl implements FormDataManager {
         // 总行数
         int lengthRow = compareDatas.size();
 
-        // 数据列数
-        int lengthData = columnData.size();
+        // 每个时间段的数据列数
+        int lengthData = cols.size() - columnHead.size();
 
         for (Object[] datas : compareDatas) {
 
@@ -419,7 +555,8 @@ public class FormDataManagerImpl implements FormDataManager {
 
             // 固定列数据
             for (QueryColumn col : columnHead) {
-                CTableCell cell = CTableCell.createTableCell(datas[indexColHead++], col, dataMap.get(indexRow));
+                CTableCell cell = formData.getColumnFormatter(col).createCell(datas[indexColHead++],
+                        dataMap.get(indexRow));
 
                 tbody.addCell(cell);
             }
@@ -429,12 +566,11 @@ public class FormDataManagerImpl implements FormDataManager {
             // 数据行在上，时间行在下分组
             if ("R".equals("R")) {
                 for (QueryColumn col : columnData) {
-                    CTableCell cellPrev = CTableCell.createTableCell(datas[indexColData], col, dataMap.get(indexRow));
-                    CTableCell cellCurr = CTableCell.createTableCell(datas[indexColData + lengthData], col,
-                            dataMap.get(indexRow));
-
-                    tbody.addCell(cellPrev);
-                    tbody.addCell(cellCurr);
+                    for (int p = 0; p < periods; p++) {
+                        CTableCell cell = formData.getColumnFormatter(col).createCell(datas[indexColData + p * lengthData],
+                                dataMap.get(indexRow));
+                        tbody.addCell(cell);
+                    }
 
                     indexColData++;
                 }
@@ -442,16 +578,13 @@ public class FormDataManagerImpl implements FormDataManager {
 
             // 时间行在上，数据行在下分组
             else {
-                // 去年对比数据
-                for (QueryColumn col : columnData) {
-                    CTableCell cell = CTableCell.createTableCell(datas[indexColData++], col, dataMap.get(indexRow));
-                    tbody.addCell(cell);
-                }
-
-                // 今年对比数据
-                for (QueryColumn col : columnData) {
-                    CTableCell cell = CTableCell.createTableCell(datas[indexColData++], col, dataMap.get(indexRow));
-                    tbody.addCell(cell);
+                // 按时间段依次输出对比数据
+                for (int p = 0; p < periods; p++) {
+                    for (QueryColumn col : columnData) {
+                        CTableCell cell = formData.getColumnFormatter(col).createCell(datas[indexColData++],
+                                dataMap.get(indexRow));
+                        tbody.addCell(cell);
+                    }
                 }
             }
 
@@ -651,11 +784,10 @@ public class FormDataManagerImpl implements FormDataManager {
      * 解析表头
      *
      * @param cols
-     * @param currTitle
-     * @param prevTitle
+     * @param titles 各个时间段的标题，最早的在前面，当前时间段在最后
      * @return
      */
-    private static CTableBodyTHead parseCompareThead(List<QueryColumn> cols, String currTitle, String prevTitle) {
+    private static CTableBodyTHead parseCompareThead(List<QueryColumn> cols, String[] titles) {
         CTableBodyTHead thead = new CTableBodyTHead();
 
         // 表格头固定列
@@ -689,7 +821,7 @@ public class FormDataManagerImpl implements FormDataManager {
                     String title = col.getColName();
 
                     CTableCell cell = CTableCell.createTableHeadCell(title);
-                    cell.setColspan(2);
+                    cell.setColspan(titles.length);
                     thead.addCell(cell);
 
                 }
@@ -699,49 +831,36 @@ public class FormDataManagerImpl implements FormDataManager {
 
             for (QueryColumn col : columnData) {
                 String title = col.getColName();
-                String prevTitleChild = prevTitle;
-                String currTitleChild = currTitle;
-
-                // 单个对比数据修改标题,
-                if (!multiData) {
-                    prevTitleChild += title;
-                    currTitleChild += title;
+                for (String periodTitle : titles) {
+                    // 单个对比数据修改标题,
+                    String titleChild = multiData ? periodTitle : periodTitle + title;
+                    thead.addCell(CTableCell.createTableHeadCell(titleChild));
                 }
-
-                CTableCell prevCell = CTableCell.createTableHeadCell(prevTitleChild);
-                CTableCell currCell = CTableCell.createTableHeadCell(currTitleChild);
-                thead.addCell(prevCell);
-                thead.addCell(currCell);
-
             }
         }
 
         // 日期在上、数据在下分组
         else {
+            for (String periodTitle : titles) {
+                // 单个对比数据修改标题,
+                if (!multiData) {
+                    periodTitle += columnData.get(0).getColName();
+                }
 
-            // 单个对比数据修改标题,
-            if (!multiData) {
-                String title = columnData.get(0).getColName();
-                prevTitle += title;
-                currTitle += title;
-            }
+                CTableCell periodCell = CTableCell.createTableHeadCell(periodTitle);
 
-            CTableCell prevCell = CTableCell.createTableHeadCell(prevTitle);
-            CTableCell currCell = CTableCell.createTableHeadCell(currTitle);
+                // 多对比数据, 则第一行单元格占多列宽度
+                if (multiData) {
+                    periodCell.setColspan(columnData.size());
+                }
 
-            // 多对比数据, 则第一行单元格占多列宽度
-            if (multiData) {
-                prevCell.setColspan(columnData.size());
-                currCell.setColspan(columnData.size());
+                thead.addCell(periodCell);
             }
 
-            thead.addCell(prevCell);
-            thead.addCell(currCell);
-
             // 添加第二行数据
             if (multiData) {
                 thead.addLine();
-                for (int i = 0; i < 2; i++) {
+                for (int i = 0; i < titles.length; i++) {
                     for (QueryColumn col : columnData) {
                         CTableCell cell = CTableCell.createTableHeadCell(col.getColName());
                         thead.addCell(cell);
@@ -768,27 +887,9 @@ public class FormDataManagerImpl implements FormDataManager {
             return dataMap;
         }
 
+        LinkParams.Layout layout = new LinkParams.Layout(cols, conditions);
         for (Object[] line : datas) {
-            Map<String, Object> lineMap = new HashMap<String, Object>();
-            int index = 0;
-
-            // 只处理行头的链接
-            for (QueryColumn col : cols) {
-                if ("R".equals(col.getShowType())) {
-                    lineMap.put(":" + col.getColName(), line[index++]);
-                }
-            }
-
-            for (QueryCondition condition : conditions) {
-                String name = condition.getCondName();
-                String value = StringBaseOpt.objectToString(condition.getCondValue());
-
-                if (StringUtils.isBlank(value))
-                    continue;
-
-                lineMap.put(":" + name, value);
-            }
-
+            Map<String, Object> lineMap = layout.forRow(line);
             dataMap.add(lineMap);
         }
 
@@ -817,196 +918,78 @@ public class FormDataManagerImpl implements FormDataManager {
         return list;
     }
 
-    private static boolean equalsObjects(Object[] obj1, Object[] obj2, int nSize) {
-        for (int i = 0; i < nSize; i++) {
-            if (obj1[i] != null || obj2[i] != null) {
-                if (obj1[i] == null)
-                    return false;
-                if (obj2[i] == null)
-                    return false;
-                /*
-                 * if(obj1[i] == obj2[i]) return true;
-                 */
-                if (obj1[i].toString().compareTo(obj2[i].toString()) != 0)
-                    return false;
-            }
-        }
-        return true;
-    }
-
-    private static int foundCrossColumn(List<Object[]> dataColumns, Object[] col, int colCount, int colGroup) {
-        for (int i = 0; i < colCount; i++) {
-            if (equalsObjects(dataColumns.get(i), col, colGroup)) {
-                return i;
-            }
-        }
-        return -1;
-    }
-
-    private static void initCrossRowData(Object[] rowData, Object[] curData, int rowGroup, int dataColCount) {
-        for (int i = 0; i < rowGroup; i++) {
-            rowData[i] = curData[i];
-        }
-        for (int i = rowGroup; i < dataColCount; i++) {
-            rowData[i] = null;
-        }
-    }
-
     @Override
     public Integer queryCrossData(FormDataModel formData) {
         return queryCrossData(formData, false);
     }
 
     @Override
-    @Transactional
-    strictfp public Integer queryCrossData(FormDataModel formData, boolean needSum) {
+    public Integer queryCrossData(FormDataModel formData, boolean needSum) {
+        String cacheKey = formDataCache.makeKey(formData, null, needSum);
+        Integer rowCount = formDataCache.restore(cacheKey, formData, null);
+        if (rowCount == null) {
+            // 查询主键需要在查询之前生成，因为对比分析会修改查询条件
+            rowCount = queryCoalescer.execute(formDataCache.makeQueryKey(formData, null, needSum),
+                formData, null, () -> {
+                    Integer rows = queryScheduler.execute(formData, () -> doQueryCrossData(formData, needSum));
+                    formDataCache.store(cacheKey, formData, null, rows);
+                    return rows;
+                });
+        }
+        return rowCount;
+    }
+
+    /**
+     * 行和列都通过散列定位，查询语句不需要排序；不设置列头查询语句时，列头按照在数据中出现的顺序排列
+     */
+    strictfp private Integer doQueryCrossData(FormDataModel formData, boolean needSum) {
 
-        int dataCols = 0;
-        int sumDataCols = 0;
         int rowGroup = formData.getRowGroupSum();
         int colGroup = formData.getColGroupSum();
         int dataAnalyseSum = formData.getDataAnalyseSum();
-        List<Object[]> dataColumns = new ArrayList<Object[]>();
-        List<Object[]> sumDataColumns = new ArrayList<Object[]>();
+        CrossTablePivot pivot = new CrossTablePivot(rowGroup, colGroup, dataAnalyseSum);
 
         String columnSql = formData.getColumnSql();
         if (columnSql != null && !"".equals(columnSql)) {
-            List<Object[]> colList = DBCPDao.findObjectsNamedSql(formData.getDbinfo(), formData.makeColumnQuery());
-            if (colList != null && colList.size() > 0) {
-                for (int i = 0; i < colList.size(); i++) {
-                    Object[] col;
-                    if (colGroup == 1) {
-                        col = new Object[1];
-                        col[0] = colList.get(i);
-                    } else
-                        col = colList.get(i);
-
-                    int nf = foundCrossColumn(dataColumns, col, dataCols, colGroup);
-                    if (nf < 0) {
-                        dataColumns.add(col);
-                        dataCols++;
-                    }
-                    Object[] col2 = new Object[colGroup];
-                    col2[0] = "合计";
-                    for (int j = 1; j < colGroup; j++)
-                        col2[j] = col[j];
-                    nf = foundCrossColumn(sumDataColumns, col2, sumDataCols, colGroup);
-                    if (nf < 0) {
-                        sumDataColumns.add(col2);
-                        sumDataCols++;
-                    }
+            List<Object[]> colList = DBCPDao.findObjectsNamedSql(formData.getDbinfo(), formData.makeColumnQuery(),
+                formData.getQueryLimits());
+            if (colList != null) {
+                for (Object[] col : colList) {
+                    pivot.addColumn(col);
                 }
-                dataColumns.addAll(sumDataColumns);
-                dataCols = dataColumns.size();
             }
         }
 
-        List<Object[]> currDatas = DBCPDao.findObjectsNamedSql(formData.getDbinfo(), formData.makeStatQuery());
-
-        // List<Object[]> currDatas =this.findDataBySql(formData.getQuerySql());
-        List<Object[]> crossDatas = new ArrayList<Object[]>();
-        int currDc = currDatas.size();
-
-        if (dataCols == 0) {
-            for (int i = 0; i < currDc; i++) {
-                Object[] col = new Object[colGroup];
-                Object[] curData = currDatas.get(i);
-                for (int j = 0; j < colGroup; j++)
-                    col[j] = curData[j + rowGroup];
-                int nf = foundCrossColumn(dataColumns, col, dataCols, colGroup);
-                if (nf < 0) {
-                    dataColumns.add(col);
-                    dataCols++;
-                }
-                Object[] col2 = new Object[colGroup];
-                col2[0] = "合计";
-                for (int j = 1; j < colGroup; j++)
-                    col2[j] = col[j];
-                nf = foundCrossColumn(sumDataColumns, col2, sumDataCols, colGroup);
-                if (nf < 0) {
-                    sumDataColumns.add(col2);
-                    sumDataCols++;
-                }
-            }
-            dataColumns.addAll(sumDataColumns);
-            dataCols = dataColumns.size();
-        }
+        DBCPDao.fetchObjectsNamedSql(formData.getDbinfo(), formData.makeStatQuery(),
+            formData.getQueryLimits(), pivot);
 
+        List<Object[]> dataColumns = pivot.getColumns();
         formData.setCrossTableColumns(dataColumns);
-        int dataColCount = rowGroup + dataCols * dataAnalyseSum;
-
-        Object[] rowData = new Object[dataColCount];
-        if (currDc > 0) {
-            Object[] curData = currDatas.get(0);
-            initCrossRowData(rowData, curData, rowGroup, dataColCount);
-        }
-
-        for (int i = 0; i < currDc; i++) {
-
-            Object[] curData = currDatas.get(i);
-            Object[] col = new Object[colGroup];
-            for (int j = 0; j < colGroup; j++)
-                col[j] = curData[j + rowGroup];
-
-            int nf = foundCrossColumn(dataColumns, col, dataCols, colGroup);
-
-            if (!equalsObjects(rowData, curData, rowGroup)) {
-                crossDatas.add(rowData);
-                rowData = new Object[dataColCount];
-                initCrossRowData(rowData, curData, rowGroup, dataColCount);
-            }
-            // 这个肯定应该为true
-            if (nf >= 0) {
-                for (int j = 0; j < dataAnalyseSum; j++) {
-                    rowData[rowGroup + nf * dataAnalyseSum + j] = curData[rowGroup + colGroup + j];
-                }
-            }
-            col[0] = "合计";
-            nf = foundCrossColumn(dataColumns, col, dataCols, colGroup);
-            if (nf > 0) {
-                for (int j = 0; j < dataAnalyseSum; j++) {
-                    rowData[rowGroup + nf * dataAnalyseSum + j] = GeneralAlgorithm.addTwoObject(
-                            rowData[rowGroup + nf * dataAnalyseSum + j], curData[rowGroup + colGroup + j]);
-                }
-            }
-
-        }
+        int dataColCount = rowGroup + dataColumns.size() * dataAnalyseSum;
+        List<Object[]> crossDatas = pivot.getRows();
 
         List<QueryColumn> columns = formData.getColumns();
 
-        if (currDc > 0) {
-            crossDatas.add(rowData);
-        }
         // 树形结构
-        if ("1".equals(formData.getIsTree())) {
-            ListOpt.sortAsTree(crossDatas, (p, c1) -> p[0].equals(c1[1]));
+        if (formData.isTreeForm()) {
+            crossDatas = TreeRows.sortAsTree(crossDatas);
+        }
+        ColumnarResult crossResult = new ColumnarResult(dataColCount);
+        for (Object[] row : crossDatas) {
+            crossResult.handleRow(row);
         }
         // 计算合计
         if (needSum) {
-            Object[] sumData = new Object[dataColCount];
-            sumData[0] = "合计";
-
-            for (int i = rowGroup; i < dataColCount; i++)
-                sumData[i] = null;
-            for (int di = 0; di < crossDatas.size(); di++) {
-                for (int i = rowGroup; i < dataColCount; i++) {
-                    if (crossDatas.get(di)[i] != null && crossDatas.get(di)[i] instanceof java.lang.Number) {
-                        sumData[i] = (sumData[i] == null) ? crossDatas.get(di)[i]
-                            : GeneralAlgorithm.addTwoObject(sumData[i], crossDatas.get(di)[i]);
-                    }
-                  }
-            }
-            for (int i = 1; i < dataColCount; i++)
-                if (sumData[i] == null)
-                    sumData[i] = "--";
-
-            crossDatas.add(sumData);
+            Object[] sumRow = makeSumRow(crossResult, rowGroup, dataColCount);
+            crossDatas.add(sumRow);
+            crossResult.handleRow(sumRow);
         }
+        crossResult.trim();
         CTableBodyTHead thead = parseCrossThead(columns, dataColumns);
         List<Map<String, Object>> dataMap = parseDataMap(crossDatas, columns, formData.getConditions());
-        CTableBodyTBody tbody = parseCrossTbodyConbined(crossDatas, columns, dataMap, dataColumns);
+        CTableBodyTBody tbody = parseCrossTbodyConbined(formData, crossDatas, columns, dataMap, dataColumns);
 
-        formData.setFormData(crossDatas);
+        formData.setFormResult(crossResult);
         formData.setTablePanel(new CTablePanel(thead, tbody));
 
         return crossDatas.size();
@@ -1015,6 +998,8 @@ public class FormDataManagerImpl implements FormDataManager {
     /**
      * 解析表格内容数据,合并单元格
      *
+     * @param formData
+     *            报表模型，提供编译好的列格式
      * @param crossDatas
      *            交叉表数据内容
      * @param columns
@@ -1025,8 +1010,8 @@ public class FormDataManagerImpl implements FormDataManager {
      *            列参数
      * @return
      */
-    private static CTableBodyTBody parseCrossTbodyConbined(List<Object[]> crossDatas, List<QueryColumn> columns,
-            List<Map<String, Object>> dataMap, List<Object[]> dataColumns) {
+    private static CTableBodyTBody parseCrossTbodyConbined(FormDataModel formData, List<Object[]> crossDatas,
+            List<QueryColumn> columns, List<Map<String, Object>> dataMap, List<Object[]> dataColumns) {
         CTableBodyTBody tbody = new CTableBodyTBody();
         // 表格头固定列
         List<QueryColumn> columnHead = parseQueryColumn(columns, "R");
@@ -1037,8 +1022,10 @@ public class FormDataManagerImpl implements FormDataManager {
         // 对比数据列
         List<QueryColumn> columnData = parseQueryColumn(columns, "D");
 
-        // 需要合并单元格的坐标>=1:合并，0:忽略
-        int[][] needRowSpan = needRowSpan(columnHead, crossDatas);
+        // 固定列纵向合并，区域结束时回填起始单元格的合并行数
+        final CTableCell[] groupCell = new CTableCell[columnHead.size()];
+        RowSpanDetector spanDetector = new RowSpanDetector(columnHead,
+            (span, colIndex, firstRow, rowspan) -> groupCell[span].setRowspan(rowspan));
         for (int rowIndex = 0; rowIndex < crossDatas.size(); rowIndex++) {
 
             // 每一行数据
@@ -1050,15 +1037,14 @@ public class FormDataManagerImpl implements FormDataManager {
             int colIndex = 0;
             // 固定列
             for (QueryColumn col : columnHead) {
-                CTableCell cell = CTableCell.createTableCell(datas[colIndex++], col, params);
-                int xindex = columnHead.indexOf(col);
-                int yindex = rowIndex;
-                int rowspan = needRowSpan[xindex][yindex];
-                if (rowspan > 0) {
-                    cell.setRowspan(rowspan);
-                } else {
+                CTableCell cell = formData.getColumnFormatter(col).createCell(datas[colIndex], params);
+                if (spanDetector.nextValue(colIndex, datas[colIndex], rowIndex)) {
                     cell.setRowspan(-1);
+                } else {
+                    groupCell[colIndex] = cell;
+                    cell.setRowspan(1);
                 }
+                colIndex++;
                 tbody.addCell(cell);
             }
 
@@ -1070,7 +1056,7 @@ public class FormDataManagerImpl implements FormDataManager {
                 }
 
                 for (QueryColumn col : columnData) {
-                    CTableCell cell = CTableCell.createTableCell(datas[colIndex++], col, params);
+                    CTableCell cell = formData.getColumnFormatter(col).createCell(datas[colIndex++], params);
                     tbody.addCell(cell);
                 }
             }
@@ -1079,6 +1065,7 @@ public class FormDataManagerImpl implements FormDataManager {
                 tbody.addLine();
             }
         }
+        spanDetector.finish();
 
         return tbody;
     }
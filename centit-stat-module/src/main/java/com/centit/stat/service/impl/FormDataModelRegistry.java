@@ -0,0 +1,55 @@
+package com.centit.stat.service.impl;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.stereotype.Component;
+
+import com.centit.stat.service.CompiledQueryModel;
+
+/**
+ * 编译后的统计模块注册表，模块新增、修改或者删除时清除对应的条目。
+ */
+@Component
+public class FormDataModelRegistry {
+
+    private final Map<String, CompiledQueryModel> models = new ConcurrentHashMap<>();
+
+    /**
+     * 每次清除条目时加一，加载期间发生过清除的结果不再放入注册表，避免缓存修改之前读到的定义
+     */
+    private final AtomicLong version = new AtomicLong(0);
+
+    public CompiledQueryModel get(String modelName) {
+        return models.get(modelName);
+    }
+
+    /**
+     * 开始加载模块之前获取版本号
+     * @return 当前版本号
+     */
+    public long currentVersion() {
+        return version.get();
+    }
+
+    /**
+     * 登记编译好的模块
+     * @param model 编译好的模块
+     * @param loadVersion 开始加载时的版本号
+     */
+    public void put(CompiledQueryModel model, long loadVersion) {
+        synchronized (version) {
+            if (version.get() == loadVersion) {
+                models.put(model.getModelName(), model);
+            }
+        }
+    }
+
+    public void evict(String modelName) {
+        synchronized (version) {
+            version.incrementAndGet();
+            models.remove(modelName);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.centit.stat.service.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.centit.stat.po.QueryCondition;
+import com.centit.stat.po.html.table.CTablePanel;
+import com.centit.stat.service.ColumnarResult;
+import com.centit.stat.service.FormDataModel;
+import com.centit.support.database.utils.PageDesc;
+
+/**
+ * 一次查询的结果：统计结果、表格、查询之后的条件值和分页信息。
+ * 统计结果缓存和相同查询的合并把它复制给其他请求，统计结果和表格在请求之间共享，只读。
+ */
+final class FormDataSnapshot {
+
+    private final Integer rowCount;
+    private final int pageTotalRows;
+    private final String nextPageToken;
+    private final boolean totalRowsCounting;
+    private final boolean totalRowsUnknown;
+    private final String resultVersion;
+    private final ColumnarResult formData;
+    private final List<Object[]> crossTableColumns;
+    private final CTablePanel tablePanel;
+    private final Object[] condValues;
+
+    /**
+     * @param formData 已经完成查询的报表模型
+     * @param page 分页信息
+     * @param rowCount 查询返回的行数
+     */
+    FormDataSnapshot(FormDataModel formData, PageDesc page, Integer rowCount) {
+        this.rowCount = rowCount;
+        this.pageTotalRows = page == null ? 0 : page.getTotalRows();
+        this.nextPageToken = formData.getNextPageToken();
+        this.totalRowsCounting = formData.isTotalRowsCounting();
+        this.totalRowsUnknown = formData.isTotalRowsUnknown();
+        this.resultVersion = formData.getResultVersion();
+        this.formData = formData.getFormResult();
+        this.crossTableColumns = new ArrayList<>(formData.getCrossTableColumns());
+        this.tablePanel = formData.getTablePanel();
+        List<QueryCondition> conditions = formData.getConditions();
+        this.condValues = new Object[conditions.size()];
+        for (int i = 0; i < conditions.size(); i++) {
+            condValues[i] = conditions.get(i).getCondValue();
+        }
+    }
+
+    /**
+     * 把结果写入报表模型
+     * @param formData 报表模型
+     * @param page 分页信息，写入总行数
+     * @return 查询返回的行数
+     */
+    Integer restore(FormDataModel formData, PageDesc page) {
+        formData.setFormResult(this.formData);
+        formData.setCrossTableColumns(crossTableColumns);
+        formData.setTablePanel(tablePanel);
+        List<QueryCondition> conditions = formData.getConditions();
+        for (int i = 0; i < conditions.size() && i < condValues.length; i++) {
+            conditions.get(i).setCondValue(condValues[i]);
+        }
+        if (page != null) {
+            page.setTotalRows(pageTotalRows);
+        }
+        formData.setNextPageToken(nextPageToken);
+        formData.setTotalRowsCounting(totalRowsCounting);
+        formData.setTotalRowsUnknown(totalRowsUnknown);
+        formData.setResultVersion(resultVersion);
+        return rowCount;
+    }
+}
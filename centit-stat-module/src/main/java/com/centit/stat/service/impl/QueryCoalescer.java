@@ -0,0 +1,116 @@
+package com.centit.stat.service.impl;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.centit.stat.dao.QueryContext;
+import com.centit.stat.service.FormDataModel;
+import com.centit.support.database.utils.PageDesc;
+import com.centit.support.report.StatReportException;
+
+/**
+ * 合并同时执行的相同查询：模块、报表类型、分页和查询条件都相同的请求只有第一个执行查询，
+ * 其他请求等待它的结果。执行查询的请求失败时等待的请求得到同样的错误；
+ * 执行查询的任务被取消时，等待的请求中的一个重新执行查询。
+ */
+@Component
+public class QueryCoalescer {
+
+    /**
+     * 等待期间检查自己是否被取消的间隔
+     */
+    private static final long POLL_MILLIS = 1000L;
+
+    /**
+     * 正在执行的查询，结果为 null 表示查询被取消，需要重新执行
+     */
+    private final Map<String, CompletableFuture<FormDataSnapshot>> flights = new ConcurrentHashMap<>();
+
+    private final long timeoutMillis;
+
+    /**
+     * @param timeout 等待相同查询结果的最长时间（秒），0 不合并查询
+     */
+    public QueryCoalescer(@Value("${stat.coalesce.timeout:120}") int timeout) {
+        this.timeoutMillis = timeout * 1000L;
+    }
+
+    /**
+     * 执行查询，同时有相同的查询正在执行时等待它的结果
+     * @param queryKey 查询主键，见 FormDataCache.makeQueryKey
+     * @param formData 报表模型，结果写入其中
+     * @param page 分页信息
+     * @param query 实际执行的查询，返回查询的行数
+     * @return 查询返回的行数
+     */
+    public Integer execute(String queryKey, FormDataModel formData, PageDesc page, Supplier<Integer> query) {
+        if (queryKey == null || timeoutMillis <= 0) {
+            return query.get();
+        }
+        // 查询主键包含模块版本，模块修改之后的请求不使用修改之前的查询结果
+        while (true) {
+            CompletableFuture<FormDataSnapshot> flight = new CompletableFuture<>();
+            CompletableFuture<FormDataSnapshot> leader = flights.putIfAbsent(queryKey, flight);
+            if (leader == null) {
+                return lead(queryKey, flight, formData, page, query);
+            }
+            FormDataSnapshot result = await(leader);
+            if (result != null) {
+                return result.restore(formData, page);
+            }
+        }
+    }
+
+    private Integer lead(String key, CompletableFuture<FormDataSnapshot> flight, FormDataModel formData,
+                         PageDesc page, Supplier<Integer> query) {
+        try {
+            Integer rowCount = query.get();
+            flight.complete(new FormDataSnapshot(formData, page, rowCount));
+            return rowCount;
+        } catch (RuntimeException e) {
+            if (QueryContext.isCurrentCancelled()) {
+                // 只是这个请求不要结果了，等待的请求重新执行
+                flight.complete(null);
+            } else {
+                flight.completeExceptionally(e);
+            }
+            throw e;
+        } finally {
+            flights.remove(key, flight);
+        }
+    }
+
+    private FormDataSnapshot await(CompletableFuture<FormDataSnapshot> leader) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (true) {
+            if (QueryContext.isCurrentCancelled()) {
+                throw new StatReportException(StatReportException.DATABASE_OPERATE_EXCEPTION, "查询已取消！");
+            }
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                throw new StatReportException(StatReportException.DATABASE_OPERATE_EXCEPTION,
+                    "等待相同查询的结果超过 " + timeoutMillis / 1000 + " 秒，请稍后再试！");
+            }
+            try {
+                return leader.get(Math.min(remaining, POLL_MILLIS), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                // 继续等待
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new StatReportException(StatReportException.DATABASE_OPERATE_EXCEPTION, "查询被中断！", e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw new StatReportException(StatReportException.DATABASE_OPERATE_EXCEPTION,
+                    cause.getMessage(), cause);
+            }
+        }
+    }
+}
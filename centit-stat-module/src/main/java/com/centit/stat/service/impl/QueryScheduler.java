@@ -0,0 +1,311 @@
+package com.centit.stat.service.impl;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.centit.stat.dao.QueryContext;
+import com.centit.stat.service.FormDataModel;
+import com.centit.stat.service.QueryQueueMetrics;
+import com.centit.support.report.StatReportException;
+
+/**
+ * 统计查询的调度：每个数据库（databaseCode）同时占用的查询连接个数有上限，超过上限的查询排队。
+ * 一个报表并行执行多条语句时（同比、环比的各个时间段）按照语句个数占用通道，后台计算总行数也占用通道。
+ * 排队按照模块属主轮流、同一个属主的模块之间再轮流的方式公平调度，一个属主或者一个模块的大量查询
+ * 不会让其他模块一直等待；轮到的查询空闲通道不够时后面的查询也不插队。排队超过 stat.scheduler.maxWait 秒的查询失败。
+ */
+@Component
+public class QueryScheduler {
+
+    /**
+     * 排队期间检查自己是否被取消的间隔
+     */
+    private static final long POLL_MILLIS = 1000L;
+
+    private static class Waiter {
+        private final String owner;
+        private final String model;
+        private final int permits;
+        private final long enqueueTime;
+        private boolean granted;
+
+        private Waiter(String owner, String model, int permits) {
+            this.owner = owner;
+            this.model = model;
+            this.permits = permits;
+            this.enqueueTime = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * 一个属主的排队，模块之间轮流
+     */
+    private static class OwnerQueue {
+        private final Map<String, ArrayDeque<Waiter>> models = new HashMap<>();
+        private final ArrayDeque<String> turns = new ArrayDeque<>();
+    }
+
+    /**
+     * 一个数据库的执行通道，所有字段由通道对象的锁保护
+     */
+    private static class Lane {
+        private final String databaseCode;
+        private final int limit;
+        private int running;
+        private int queued;
+        private final Map<String, OwnerQueue> owners = new LinkedHashMap<>();
+        private final ArrayDeque<String> turns = new ArrayDeque<>();
+        private long admitted;
+        private long rejected;
+        private long timedOut;
+        private long totalWaitMillis;
+        private long maxWaitMillis;
+
+        private Lane(String databaseCode, int limit) {
+            this.databaseCode = databaseCode;
+            this.limit = limit;
+        }
+
+        private void enqueue(Waiter waiter) {
+            OwnerQueue oq = owners.get(waiter.owner);
+            if (oq == null) {
+                oq = new OwnerQueue();
+                owners.put(waiter.owner, oq);
+                turns.addLast(waiter.owner);
+            }
+            ArrayDeque<Waiter> queue = oq.models.get(waiter.model);
+            if (queue == null) {
+                queue = new ArrayDeque<>();
+                oq.models.put(waiter.model, queue);
+                oq.turns.addLast(waiter.model);
+            }
+            queue.addLast(waiter);
+            queued++;
+        }
+
+        private void remove(Waiter waiter) {
+            OwnerQueue oq = owners.get(waiter.owner);
+            ArrayDeque<Waiter> queue = oq.models.get(waiter.model);
+            queue.remove(waiter);
+            queued--;
+            if (queue.isEmpty()) {
+                oq.models.remove(waiter.model);
+                oq.turns.remove(waiter.model);
+                if (oq.models.isEmpty()) {
+                    owners.remove(waiter.owner);
+                    turns.remove(waiter.owner);
+                }
+            }
+        }
+
+        /**
+         * @return 下一个轮到的查询，不从队列中取出
+         */
+        private Waiter peek() {
+            OwnerQueue oq = owners.get(turns.peekFirst());
+            return oq.models.get(oq.turns.peekFirst()).peekFirst();
+        }
+
+        /**
+         * 按照属主、模块轮流取出下一个排队的查询
+         */
+        private Waiter next() {
+            String owner = turns.pollFirst();
+            OwnerQueue oq = owners.get(owner);
+            String model = oq.turns.pollFirst();
+            ArrayDeque<Waiter> queue = oq.models.get(model);
+            Waiter waiter = queue.pollFirst();
+            queued--;
+            if (queue.isEmpty()) {
+                oq.models.remove(model);
+            } else {
+                oq.turns.addLast(model);
+            }
+            if (oq.models.isEmpty()) {
+                owners.remove(owner);
+            } else {
+                turns.addLast(owner);
+            }
+            return waiter;
+        }
+
+        private void admit(int permits, long waitMillis) {
+            running += permits;
+            admitted++;
+            totalWaitMillis += waitMillis;
+            maxWaitMillis = Math.max(maxWaitMillis, waitMillis);
+        }
+    }
+
+    private final Map<String, Lane> lanes = new ConcurrentHashMap<>();
+
+    private final int maxConcurrent;
+
+    private final Map<String, Integer> databaseLimits;
+
+    private final long maxWaitMillis;
+
+    private final int maxQueue;
+
+    /**
+     * @param maxConcurrent 每个数据库同时使用的报表查询连接个数，0 不限制
+     * @param limits 单独设置上限的数据库，格式为 databaseCode:个数,databaseCode:个数
+     * @param maxWait 最长排队时间（秒）
+     * @param maxQueue 每个数据库最多排队的查询个数
+     */
+    public QueryScheduler(@Value("${stat.scheduler.maxConcurrent:10}") int maxConcurrent,
+                          @Value("${stat.scheduler.limits:}") String limits,
+                          @Value("${stat.scheduler.maxWait:30}") int maxWait,
+                          @Value("${stat.scheduler.maxQueue:100}") int maxQueue) {
+        this.maxConcurrent = maxConcurrent;
+        this.maxWaitMillis = maxWait * 1000L;
+        this.maxQueue = maxQueue;
+        this.databaseLimits = new HashMap<>();
+        if (StringUtils.isNotBlank(limits)) {
+            for (String item : limits.split(",")) {
+                int pos = item.indexOf(':');
+                if (pos > 0) {
+                    databaseLimits.put(item.substring(0, pos).trim(),
+                        NumberUtils.toInt(item.substring(pos + 1).trim(), maxConcurrent));
+                }
+            }
+        }
+    }
+
+    /**
+     * 在报表所在数据库的执行通道中执行查询，没有空闲的通道时排队
+     * @param formData 报表模型，按照其中的数据库、属主和模块排队
+     * @param query 查询
+     * @param <T> 查询结果类型
+     * @return 查询结果
+     */
+    public <T> T execute(FormDataModel formData, Supplier<T> query) {
+        return execute(formData, 1, query);
+    }
+
+    /**
+     * 在报表所在数据库的执行通道中执行同时使用多个连接的查询，没有足够的空闲通道时排队
+     * @param formData 报表模型，按照其中的数据库、属主和模块排队
+     * @param connections 查询同时使用的连接个数，超过通道上限时按照上限计算
+     * @param query 查询
+     * @param <T> 查询结果类型
+     * @return 查询结果
+     */
+    public <T> T execute(FormDataModel formData, int connections, Supplier<T> query) {
+        if (formData.getDbinfo() == null) {
+            return query.get();
+        }
+        final String databaseCode = formData.getDbinfo().getDatabaseCode();
+        Lane lane = lanes.computeIfAbsent(databaseCode,
+            code -> new Lane(code, databaseLimits.getOrDefault(code, maxConcurrent)));
+        if (lane.limit <= 0) {
+            return query.get();
+        }
+        int permits = Math.max(1, Math.min(connections, lane.limit));
+        acquire(lane, StringUtils.defaultString(formData.getOwnerType()) + ':'
+            + StringUtils.defaultString(formData.getOwnerCode()), formData.getModelName(), permits);
+        try {
+            return query.get();
+        } finally {
+            release(lane, permits);
+        }
+    }
+
+    private void acquire(Lane lane, String owner, String model, int permits) {
+        synchronized (lane) {
+            // 有查询在排队时不插队
+            if (lane.running + permits <= lane.limit && lane.queued == 0) {
+                lane.admit(permits, 0);
+                return;
+            }
+            if (lane.queued >= maxQueue) {
+                lane.rejected++;
+                throw new StatReportException(StatReportException.DATABASE_OPERATE_EXCEPTION,
+                    "数据库 " + lane.databaseCode + " 的统计查询排队已满，请稍后再试！");
+            }
+            Waiter waiter = new Waiter(owner, model, permits);
+            lane.enqueue(waiter);
+            long deadline = waiter.enqueueTime + maxWaitMillis;
+            while (!waiter.granted) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    lane.remove(waiter);
+                    lane.timedOut++;
+                    grantLocked(lane);
+                    throw new StatReportException(StatReportException.DATABASE_OPERATE_EXCEPTION,
+                        "数据库 " + lane.databaseCode + " 繁忙，统计查询排队超过 " + maxWaitMillis / 1000
+                            + " 秒，请稍后再试！");
+                }
+                if (QueryContext.isCurrentCancelled()) {
+                    lane.remove(waiter);
+                    grantLocked(lane);
+                    throw new StatReportException(StatReportException.DATABASE_OPERATE_EXCEPTION, "查询已取消！");
+                }
+                try {
+                    lane.wait(Math.min(remaining, POLL_MILLIS));
+                } catch (InterruptedException e) {
+                    if (!waiter.granted) {
+                        lane.remove(waiter);
+                        grantLocked(lane);
+                    } else {
+                        releaseLocked(lane, permits);
+                    }
+                    Thread.currentThread().interrupt();
+                    throw new StatReportException(StatReportException.DATABASE_OPERATE_EXCEPTION, "查询被中断！", e);
+                }
+            }
+        }
+    }
+
+    private void release(Lane lane, int permits) {
+        synchronized (lane) {
+            releaseLocked(lane, permits);
+        }
+    }
+
+    private void releaseLocked(Lane lane, int permits) {
+        lane.running -= permits;
+        grantLocked(lane);
+    }
+
+    /**
+     * 按照轮流的顺序把空闲通道交给排队的查询，轮到的查询空闲通道不够时停止
+     */
+    private void grantLocked(Lane lane) {
+        boolean granted = false;
+        while (lane.queued > 0 && lane.running + lane.peek().permits <= lane.limit) {
+            Waiter waiter = lane.next();
+            waiter.granted = true;
+            lane.admit(waiter.permits, System.currentTimeMillis() - waiter.enqueueTime);
+            granted = true;
+        }
+        if (granted) {
+            lane.notifyAll();
+        }
+    }
+
+    /**
+     * @return 每个数据库的排队情况
+     */
+    public List<QueryQueueMetrics> listMetrics() {
+        List<QueryQueueMetrics> metrics = new ArrayList<>(lanes.size());
+        for (Lane lane : lanes.values()) {
+            synchronized (lane) {
+                metrics.add(new QueryQueueMetrics(lane.databaseCode, lane.limit, lane.running, lane.queued,
+                    lane.admitted, lane.rejected, lane.timedOut, lane.totalWaitMillis, lane.maxWaitMillis));
+            }
+        }
+        return metrics;
+    }
+}
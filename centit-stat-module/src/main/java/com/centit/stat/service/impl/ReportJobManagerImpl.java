@@ -0,0 +1,139 @@
+package com.centit.stat.service.impl;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.centit.stat.dao.QueryContext;
+import com.centit.stat.service.FormDataModel;
+import com.centit.stat.service.ReportJob;
+import com.centit.stat.service.ReportJobManager;
+import com.centit.support.report.StatReportException;
+
+/**
+ * 统计任务在固定大小的线程池中执行，不占用 servlet 线程。
+ * 每个模块同时排队和执行的任务个数有上限；任务结束后结果保留 stat.job.ttl 秒，过期后清除。
+ */
+@Service
+public class ReportJobManagerImpl implements ReportJobManager {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReportJobManagerImpl.class);
+
+    private final ThreadPoolExecutor executor;
+
+    private final Map<String, ReportJob> jobs;
+
+    /**
+     * 每个模块排队和执行中的任务个数
+     */
+    private final Map<String, AtomicInteger> modelJobs;
+
+    private final int modelLimit;
+
+    private final long ttlMillis;
+
+    public ReportJobManagerImpl(@Value("${stat.job.threads:4}") int threads,
+                                @Value("${stat.job.queueSize:32}") int queueSize,
+                                @Value("${stat.job.modelLimit:2}") int modelLimit,
+                                @Value("${stat.job.ttl:600}") int ttl) {
+        this.jobs = new ConcurrentHashMap<>();
+        this.modelJobs = new ConcurrentHashMap<>();
+        this.modelLimit = modelLimit;
+        this.ttlMillis = ttl * 1000L;
+        final AtomicInteger threadNo = new AtomicInteger(0);
+        ThreadFactory threadFactory = r -> {
+            Thread t = new Thread(r, "stat-job-" + threadNo.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+        executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(queueSize), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    @Override
+    public ReportJob submitJob(FormDataModel formData, Runnable query) {
+        removeExpired();
+        final String modelName = formData.getModelName();
+        final AtomicInteger running = modelJobs.computeIfAbsent(modelName, k -> new AtomicInteger(0));
+        if (running.incrementAndGet() > modelLimit) {
+            running.decrementAndGet();
+            throw new StatReportException(StatReportException.DATABASE_OPERATE_EXCEPTION,
+                "统计模块 " + modelName + " 正在执行的任务已经达到上限，请稍后再试！");
+        }
+        final ReportJob job = new ReportJob(UUID.randomUUID().toString().replace("-", ""), formData);
+        jobs.put(job.getJobId(), job);
+        try {
+            executor.execute(() -> {
+                try {
+                    if (!job.start()) {
+                        return;
+                    }
+                    QueryContext.bind(job.getContext());
+                    try {
+                        query.run();
+                        job.finish(null);
+                    } catch (Throwable e) {
+                        // 内存不足等错误也要结束任务，否则任务一直处于执行状态
+                        logger.error("统计任务 " + job.getJobId() + " 执行失败：" + e.getLocalizedMessage());
+                        job.finish(e);
+                        if (e instanceof Error) {
+                            throw (Error) e;
+                        }
+                    } finally {
+                        QueryContext.unbind();
+                    }
+                } finally {
+                    running.decrementAndGet();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            running.decrementAndGet();
+            jobs.remove(job.getJobId());
+            throw new StatReportException(StatReportException.DATABASE_OPERATE_EXCEPTION,
+                "统计任务队列已满，请稍后再试！", e);
+        }
+        return job;
+    }
+
+    @Override
+    public ReportJob getJob(String jobId) {
+        removeExpired();
+        return jobs.get(jobId);
+    }
+
+    @Override
+    public ReportJob cancelJob(String jobId) {
+        ReportJob job = jobs.get(jobId);
+        if (job != null) {
+            job.cancel();
+        }
+        return job;
+    }
+
+    private void removeExpired() {
+        long expireBefore = System.currentTimeMillis() - ttlMillis;
+        jobs.values().removeIf(job -> job.isFinished() && job.getFinishTime().getTime() < expireBefore);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        for (ReportJob job : jobs.values()) {
+            job.cancel();
+        }
+        executor.shutdownNow();
+    }
+}
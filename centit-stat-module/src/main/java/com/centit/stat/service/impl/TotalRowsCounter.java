@@ -0,0 +1,198 @@
+package com.centit.stat.service.impl;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.centit.stat.dao.DBCPDao;
+import com.centit.stat.service.FormDataModel;
+import com.centit.support.algorithm.StringBaseOpt;
+import com.centit.support.database.utils.QueryAndNamedParams;
+
+/**
+ * 分页报表的总行数在后台线程中计算，按照模块名称、查询语句和参数缓存；
+ * 翻页时直接使用缓存的总行数，不再每页都执行一次 count 查询。
+ * 没有缓存时启动计算并立即返回，本次查询的总行数标记为正在计算。
+ * 计算失败的结果也缓存 stat.count.failedTtl 秒，期间返回未知，不会每次翻页都重新计算。
+ * 后台计算和报表查询一样在 QueryScheduler 的执行通道中排队，占用报表数据库的连接个数上限。
+ */
+@Component
+public class TotalRowsCounter {
+
+    private static final Logger logger = LoggerFactory.getLogger(TotalRowsCounter.class);
+
+    private static final int MAX_ENTRIES = 10000;
+
+    /**
+     * 总行数正在计算
+     */
+    public static final long COUNTING = -1;
+
+    /**
+     * 总行数计算失败，暂时不再计算
+     */
+    public static final long UNKNOWN = -2;
+
+    private static class CountEntry {
+        private final String modelName;
+        private final long expireTime;
+        /**
+         * 总行数，COUNTING 表示正在计算，UNKNOWN 表示计算失败
+         */
+        private volatile long totalRows;
+
+        private CountEntry(String modelName, long expireTime, long totalRows) {
+            this.modelName = modelName;
+            this.expireTime = expireTime;
+            this.totalRows = totalRows;
+        }
+    }
+
+    private final Map<String, CountEntry> counts;
+
+    private final ThreadPoolExecutor executor;
+
+    private final int ttl;
+
+    private final int failedTtl;
+
+    @Resource
+    protected QueryScheduler queryScheduler;
+
+    public TotalRowsCounter(@Value("${stat.count.ttl:300}") int ttl,
+                            @Value("${stat.count.failedTtl:30}") int failedTtl,
+                            @Value("${stat.count.threads:2}") int threads,
+                            @Value("${stat.count.queueSize:64}") int queueSize) {
+        this.ttl = ttl;
+        this.failedTtl = failedTtl;
+        this.counts = new ConcurrentHashMap<>();
+        final AtomicInteger threadNo = new AtomicInteger(0);
+        ThreadFactory threadFactory = r -> {
+            Thread t = new Thread(r, "stat-count-" + threadNo.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+        executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(queueSize), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @return 是否启用后台计算，stat.count.ttl 为 0 时在查询线程中同步计算
+     */
+    public boolean isEnabled() {
+        return ttl > 0;
+    }
+
+    /**
+     * 查询指纹：模块名称、查询语句和按照名称排序的参数值
+     */
+    private static String fingerprint(String modelName, QueryAndNamedParams qap) {
+        StringBuilder key = new StringBuilder(modelName).append('|').append(qap.getQuery());
+        if (qap.getParams() != null) {
+            for (Map.Entry<String, Object> ent : new TreeMap<>(qap.getParams()).entrySet()) {
+                key.append('|').append(ent.getKey()).append('=')
+                    .append(StringBaseOpt.objectToString(ent.getValue()));
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * 获取缓存的总行数，没有缓存时在后台启动计算
+     * @param formData 报表模型，按照其中的模块名称缓存，在其中的数据库的执行通道中计算
+     * @param qap 报表查询语句和命名参数
+     * @return 总行数，正在计算时返回 COUNTING，最近计算失败时返回 UNKNOWN
+     */
+    public long getTotalRows(FormDataModel formData, QueryAndNamedParams qap) {
+        final String modelName = formData.getModelName();
+        final String key = fingerprint(modelName, qap);
+        long now = System.currentTimeMillis();
+        CountEntry entry = counts.get(key);
+        if (entry != null && entry.expireTime >= now) {
+            return entry.totalRows;
+        }
+        if (counts.size() >= MAX_ENTRIES && !removeExpired(now)) {
+            // 缓存满了，只返回正在计算，等过期的条目清除后再计算
+            return COUNTING;
+        }
+        final CountEntry counting = new CountEntry(modelName, now + ttl * 1000L, COUNTING);
+        if (entry == null ? counts.putIfAbsent(key, counting) != null : !counts.replace(key, entry, counting)) {
+            // 其他请求已经启动了计算
+            CountEntry current = counts.get(key);
+            return current == null ? COUNTING : current.totalRows;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    counting.totalRows = queryScheduler.execute(formData,
+                        () -> DBCPDao.queryTotalRows(formData.getDbinfo(), qap, formData.getQueryLimits()));
+                } catch (RuntimeException e) {
+                    logger.error("计算报表 " + modelName + " 的总行数失败：" + e.getLocalizedMessage());
+                    counts.replace(key, counting, new CountEntry(modelName,
+                        System.currentTimeMillis() + failedTtl * 1000L, UNKNOWN));
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // 队列已满，下一次请求再计算
+            counts.remove(key, counting);
+        }
+        return COUNTING;
+    }
+
+    /**
+     * 查询到最后一页时总行数已经确定，直接缓存
+     * @param modelName 模块名称
+     * @param qap 报表查询语句和命名参数
+     * @param totalRows 总行数
+     */
+    public void putTotalRows(String modelName, QueryAndNamedParams qap, long totalRows) {
+        long now = System.currentTimeMillis();
+        if (counts.size() >= MAX_ENTRIES && !removeExpired(now)) {
+            return;
+        }
+        counts.put(fingerprint(modelName, qap), new CountEntry(modelName, now + ttl * 1000L, totalRows));
+    }
+
+    /**
+     * @return 是否清除了过期的条目
+     */
+    private boolean removeExpired(long now) {
+        boolean removed = false;
+        for (Iterator<CountEntry> it = counts.values().iterator(); it.hasNext(); ) {
+            if (it.next().expireTime < now) {
+                it.remove();
+                removed = true;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * 清除模块的所有总行数，模块修改或者删除时调用
+     * @param modelName 模块名称
+     */
+    public void evictModel(String modelName) {
+        counts.values().removeIf(entry -> modelName.equals(entry.modelName));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
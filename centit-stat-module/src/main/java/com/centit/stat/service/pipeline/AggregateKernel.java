@@ -0,0 +1,280 @@
+package com.centit.stat.service.pipeline;
+
+import java.util.Arrays;
+
+/**
+ * 按列统计的聚合内核，所有中间结果都保存在基本类型数组中，累加时不创建对象。
+ * <p>
+ * 合计使用 Kahan（Neumaier）补偿求和，方差用 Welford 算法一次遍历计算，
+ * 去重计数用 HyperLogLog 估算，只为需要的列分配寄存器。
+ */
+public class AggregateKernel {
+
+    /**
+     * 统计类型，和 QueryColumn.optType 的取值一致
+     */
+    public static final int OPT_NONE = 0;
+    public static final int OPT_SUM = 1;
+    public static final int OPT_AVG = 2;
+    public static final int OPT_SUM_AVG = 3;
+    public static final int OPT_MAX = 4;
+    public static final int OPT_MIN = 5;
+    public static final int OPT_COUNT = 6;
+    public static final int OPT_DISTINCT = 7;
+    public static final int OPT_STDDEV = 8;
+
+    /**
+     * HyperLogLog 寄存器个数为 2^HLL_BITS，标准误差约 1.04/sqrt(2^HLL_BITS)，即 3.3%
+     */
+    private static final int HLL_BITS = 10;
+    private static final int HLL_SIZE = 1 << HLL_BITS;
+
+    private final int width;
+
+    private final double[] sum;
+    private final double[] compensation;
+    private final double[] mean;
+    private final double[] m2;
+    private final double[] min;
+    private final double[] max;
+    private final long[] numberCount;
+    private final long[] valueCount;
+    private final Object[] firstValue;
+    private final byte[][] registers;
+
+    public AggregateKernel(int width) {
+        this.width = width;
+        sum = new double[width];
+        compensation = new double[width];
+        mean = new double[width];
+        m2 = new double[width];
+        min = new double[width];
+        max = new double[width];
+        numberCount = new long[width];
+        valueCount = new long[width];
+        firstValue = new Object[width];
+        registers = new byte[width][];
+        Arrays.fill(min, Double.POSITIVE_INFINITY);
+        Arrays.fill(max, Double.NEGATIVE_INFINITY);
+    }
+
+    /**
+     * 解析 optType
+     * @param optType QueryColumn.optType
+     * @return 统计类型，无法识别时返回 OPT_NONE
+     */
+    public static int parseOptType(String optType) {
+        if (optType == null || optType.length() != 1) {
+            return OPT_NONE;
+        }
+        int opt = optType.charAt(0) - '0';
+        return opt >= OPT_NONE && opt <= OPT_STDDEV ? opt : OPT_NONE;
+    }
+
+    /**
+     * 为列开启去重计数，需要在累加之前调用
+     * @param col 列序号
+     */
+    public void enableDistinct(int col) {
+        if (registers[col] == null) {
+            registers[col] = new byte[HLL_SIZE];
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * 累加一个数值
+     * @param col 列序号
+     * @param value 数值
+     */
+    public void add(int col, double value) {
+        // Neumaier 补偿求和
+        double s = sum[col];
+        double t = s + value;
+        if (Math.abs(s) >= Math.abs(value)) {
+            compensation[col] += (s - t) + value;
+        } else {
+            compensation[col] += (value - t) + s;
+        }
+        sum[col] = t;
+
+        long n = ++numberCount[col];
+        double delta = value - mean[col];
+        mean[col] += delta / n;
+        m2[col] += delta * (value - mean[col]);
+
+        if (value < min[col]) {
+            min[col] = value;
+        }
+        if (value > max[col]) {
+            max[col] = value;
+        }
+        valueCount[col]++;
+        if (registers[col] != null) {
+            addHash(col, mix64(Double.doubleToLongBits(value == 0.0 ? 0.0 : value)));
+        }
+    }
+
+    /**
+     * 累加一段列式数据
+     * @param col 列序号
+     * @param values 数值
+     * @param from 开始位置（包含）
+     * @param to 结束位置（不包含）
+     */
+    public void add(int col, double[] values, int from, int to) {
+        for (int i = from; i < to; i++) {
+            add(col, values[i]);
+        }
+    }
+
+    /**
+     * 累加一个查询结果值，数值参与所有统计，其他非空值只参与计数和去重计数
+     * @param col 列序号
+     * @param value 查询结果值
+     */
+    public void add(int col, Object value) {
+        if (value instanceof Number) {
+            if (numberCount[col] == 0) {
+                firstValue[col] = value;
+            }
+            add(col, ((Number) value).doubleValue());
+        } else if (value != null) {
+            valueCount[col]++;
+            if (registers[col] != null) {
+                addHash(col, mix64(value.toString().hashCode()));
+            }
+        }
+    }
+
+    /**
+     * 累加一行中从 from 开始的所有列
+     * @param row 数据行
+     * @param from 开始列
+     */
+    public void addRow(Object[] row, int from) {
+        int n = Math.min(width, row.length);
+        for (int i = from; i < n; i++) {
+            add(i, row[i]);
+        }
+    }
+
+    private void addHash(int col, long hash) {
+        int index = (int) (hash >>> (64 - HLL_BITS));
+        long w = (hash << HLL_BITS) | (1L << (HLL_BITS - 1));
+        byte rank = (byte) (Long.numberOfLeadingZeros(w) + 1);
+        if (rank > registers[col][index]) {
+            registers[col][index] = rank;
+        }
+    }
+
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return z ^ (z >>> 33);
+    }
+
+    public long getCount(int col) {
+        return valueCount[col];
+    }
+
+    public long getNumberCount(int col) {
+        return numberCount[col];
+    }
+
+    public double getSum(int col) {
+        return sum[col] + compensation[col];
+    }
+
+    /**
+     * @param col 列序号
+     * @return 只有一个数值并且是按对象累加的时候返回数据库返回的原始对象，否则返回合计
+     */
+    public Object getSumValue(int col) {
+        return numberCount[col] == 1 && firstValue[col] != null ? firstValue[col] : (Object) getSum(col);
+    }
+
+    public double getAverage(int col) {
+        return numberCount[col] == 0 ? Double.NaN : getSum(col) / numberCount[col];
+    }
+
+    public double getMin(int col) {
+        return numberCount[col] == 0 ? Double.NaN : min[col];
+    }
+
+    public double getMax(int col) {
+        return numberCount[col] == 0 ? Double.NaN : max[col];
+    }
+
+    /**
+     * @param col 列序号
+     * @return 样本标准差，少于两个数值时为 0
+     */
+    public double getStddev(int col) {
+        return numberCount[col] < 2 ? 0.0 : Math.sqrt(m2[col] / (numberCount[col] - 1));
+    }
+
+    /**
+     * @param col 列序号
+     * @return 去重计数估算值，没有开启时返回 -1
+     */
+    public long getDistinctEstimate(int col) {
+        byte[] reg = registers[col];
+        if (reg == null) {
+            return -1;
+        }
+        double harmonic = 0.0;
+        int zeros = 0;
+        for (byte r : reg) {
+            harmonic += 1.0 / (1L << r);
+            if (r == 0) {
+                zeros++;
+            }
+        }
+        double alpha = 0.7213 / (1.0 + 1.079 / HLL_SIZE);
+        double estimate = alpha * HLL_SIZE * HLL_SIZE / harmonic;
+        if (estimate <= 2.5 * HLL_SIZE && zeros > 0) {
+            // 基数较小时使用线性计数
+            estimate = HLL_SIZE * Math.log((double) HLL_SIZE / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    /**
+     * 按照统计类型取结果，没有数值时返回 null
+     * @param col 列序号
+     * @param opt 统计类型，OPT_SUM_AVG 按照合计处理
+     * @return 统计结果
+     */
+    public Object getResult(int col, int opt) {
+        switch (opt) {
+            case OPT_COUNT:
+                return valueCount[col];
+            case OPT_DISTINCT:
+                return valueCount[col] == 0 ? null : (Object) getDistinctEstimate(col);
+            default:
+                break;
+        }
+        if (numberCount[col] == 0) {
+            return null;
+        }
+        switch (opt) {
+            case OPT_SUM:
+            case OPT_SUM_AVG:
+                return getSumValue(col);
+            case OPT_AVG:
+                return getAverage(col);
+            case OPT_MAX:
+                return getMax(col);
+            case OPT_MIN:
+                return getMin(col);
+            case OPT_STDDEV:
+                return getStddev(col);
+            default:
+                return null;
+        }
+    }
+}
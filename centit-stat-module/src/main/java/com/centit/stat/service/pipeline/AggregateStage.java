@@ -0,0 +1,187 @@
+package com.centit.stat.service.pipeline;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.centit.stat.po.QueryColumn;
+import com.centit.support.database.utils.DBType;
+
+/**
+ * 计算统计行，查询行处理完后按照字段的 optType 追加"合计"、"平均"、"最大值"、"最小值"、
+ * "计数"、"去重计数"、"标准差"行
+ */
+public class AggregateStage implements FormDataStage {
+
+    /**
+     * 统计行的顺序
+     */
+    private static final int[] ROW_OPTS = {AggregateKernel.OPT_SUM, AggregateKernel.OPT_AVG,
+        AggregateKernel.OPT_MAX, AggregateKernel.OPT_MIN, AggregateKernel.OPT_COUNT,
+        AggregateKernel.OPT_DISTINCT, AggregateKernel.OPT_STDDEV};
+
+    private static final String[] ROW_TITLES = {"合计", "平均", "最大值", "最小值", "计数", "去重计数", "标准差"};
+
+    private final List<QueryColumn> columns;
+
+    private final int dataColCount;
+
+    private final boolean pageTotal;
+
+    private final AggregateKernel kernel;
+
+    /**
+     * 由数据库计算好的统计行，主键为统计类型；为空时用处理过的行计算
+     */
+    private final Map<Integer, Object[]> presetRows;
+
+    public AggregateStage(List<QueryColumn> columns, int dataColCount, boolean pageTotal) {
+        this.columns = columns;
+        this.dataColCount = dataColCount;
+        this.pageTotal = pageTotal;
+        this.kernel = new AggregateKernel(dataColCount);
+        this.presetRows = new HashMap<>();
+        for (int i = 1; i < dataColCount; i++) {
+            if (AggregateKernel.parseOptType(columns.get(i).getOptType()) == AggregateKernel.OPT_DISTINCT) {
+                kernel.enableDistinct(i);
+            }
+        }
+    }
+
+    @Override
+    public void processRow(FormDataRow row) {
+        if (row.isAdditionRow()) {
+            return;
+        }
+        kernel.addRow(row.getData(), 1);
+    }
+
+    /**
+     * 合计行和平均行保持原来的规则：合计行只排除 0、2，平均行只排除 0、1；其他统计行只显示对应的字段
+     */
+    private static boolean showInRow(String optType, int opt, int rowOpt) {
+        switch (rowOpt) {
+            case AggregateKernel.OPT_SUM:
+                return opt != AggregateKernel.OPT_AVG && opt < AggregateKernel.OPT_MAX && !"0".equals(optType);
+            case AggregateKernel.OPT_AVG:
+                return opt != AggregateKernel.OPT_SUM && opt < AggregateKernel.OPT_MAX && !"0".equals(optType);
+            default:
+                return opt == rowOpt;
+        }
+    }
+
+    private static boolean needRow(int opt, int rowOpt) {
+        if (opt == AggregateKernel.OPT_SUM_AVG) {
+            return rowOpt == AggregateKernel.OPT_SUM || rowOpt == AggregateKernel.OPT_AVG;
+        }
+        return opt == rowOpt;
+    }
+
+    /**
+     * 可以在数据库中做数值统计的字段：数值、金额、百分比类型，并且不是行头、列头
+     */
+    private static boolean isNumericColumn(QueryColumn column) {
+        String colType = column.getColType();
+        String showType = column.getShowType();
+        return ("N".equals(colType) || "C".equals(colType) || "P".equals(colType))
+            && !"R".equals(showType) && !"C".equals(showType);
+    }
+
+    /**
+     * 需要在数据库中计算的统计值。合计、平均、最大值、最小值、标准差只计算数值字段，
+     * 文本字段在数据库中求和会出错，统计行中显示为"--"；计数和去重计数适用于所有字段
+     * @param columns 字段
+     * @param dataColCount 数据列数
+     * @return 每一项为 {字段序号, 统计类型}
+     */
+    public static List<int[]> requiredResults(List<QueryColumn> columns, int dataColCount) {
+        List<int[]> results = new ArrayList<>();
+        for (int rowOpt : ROW_OPTS) {
+            boolean needed = false;
+            for (int i = 1; i < dataColCount; i++) {
+                if (needRow(AggregateKernel.parseOptType(columns.get(i).getOptType()), rowOpt)) {
+                    needed = true;
+                    break;
+                }
+            }
+            if (!needed) {
+                continue;
+            }
+            for (int i = 1; i < dataColCount; i++) {
+                String optType = columns.get(i).getOptType();
+                boolean counting = rowOpt == AggregateKernel.OPT_COUNT || rowOpt == AggregateKernel.OPT_DISTINCT;
+                if (showInRow(optType, AggregateKernel.parseOptType(optType), rowOpt)
+                        && (counting || isNumericColumn(columns.get(i)))) {
+                    results.add(new int[]{i, rowOpt});
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * 统计类型对应的 SQL 聚合函数模板
+     * @param rowOpt 统计类型
+     * @param dbType 数据库类型
+     * @return 函数模板，%s 为字段
+     */
+    public static String sqlFunction(int rowOpt, DBType dbType) {
+        switch (rowOpt) {
+            case AggregateKernel.OPT_AVG:
+                return "avg(%s)";
+            case AggregateKernel.OPT_MAX:
+                return "max(%s)";
+            case AggregateKernel.OPT_MIN:
+                return "min(%s)";
+            case AggregateKernel.OPT_COUNT:
+                return "count(%s)";
+            case AggregateKernel.OPT_DISTINCT:
+                return "count(distinct %s)";
+            case AggregateKernel.OPT_STDDEV:
+                return dbType == DBType.SqlServer ? "stdev(%s)" : "stddev_samp(%s)";
+            default:
+                return "sum(%s)";
+        }
+    }
+
+    /**
+     * 设置由数据库计算好的统计值，设置后所有统计行都不再使用当前页的数据计算，数据库没有计算的字段显示为"--"
+     * @param required requiredResults 返回的统计项
+     * @param values 和统计项一一对应的统计值
+     */
+    public void presetResults(List<int[]> required, Object[] values) {
+        for (int rowOpt : ROW_OPTS) {
+            presetRows.put(rowOpt, new Object[dataColCount]);
+        }
+        for (int i = 0; i < values.length; i++) {
+            presetRows.get(required.get(i)[1])[required.get(i)[0]] = values[i];
+        }
+    }
+
+    @Override
+    public void endRows(FormDataPipeline pipeline) {
+        for (int r = 0; r < ROW_OPTS.length; r++) {
+            int rowOpt = ROW_OPTS[r];
+            Object[] preset = presetRows.get(rowOpt);
+            Object[] statData = new Object[dataColCount];
+            statData[0] = pageTotal ? "本页" + ROW_TITLES[r] : ROW_TITLES[r];
+            boolean needed = false;
+            for (int i = 1; i < dataColCount; i++) {
+                String optType = columns.get(i).getOptType();
+                int opt = AggregateKernel.parseOptType(optType);
+                if (needRow(opt, rowOpt)) {
+                    needed = true;
+                }
+                Object value = null;
+                if (showInRow(optType, opt, rowOpt)) {
+                    value = preset != null ? preset[i] : kernel.getResult(i, rowOpt);
+                }
+                statData[i] = value == null ? "--" : value;
+            }
+            if (needed) {
+                pipeline.pushRow(statData, true);
+            }
+        }
+    }
+}
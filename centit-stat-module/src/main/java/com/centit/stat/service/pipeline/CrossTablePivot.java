@@ -0,0 +1,261 @@
+package com.centit.stat.service.pipeline;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.centit.stat.dao.ResultRowHandler;
+
+/**
+ * 交叉制表的透视引擎，行头和列头都用散列的组合键定位，输入数据不需要排序。
+ * <p>
+ * 查询结果每行的结构为：行头（rowGroup 个）、列头（colGroup 个）、数据（dataAnalyseSum 个）；
+ * 输出的每行为：行头、每个列头对应的数据、每个合计列对应的数据。合计列的第一个列头为"合计"，
+ * 其余列头相同的列累加到同一个合计列中。同一个单元格只有一个值时保留原值，有多个数值时累加，
+ * 累加的结果保持数值类型：整数为 Long，定点数为 BigDecimal。
+ * 行和列都按照第一次出现的顺序输出。
+ */
+public class CrossTablePivot implements ResultRowHandler {
+
+    public static final String SUM_COLUMN_TITLE = "合计";
+
+    private final int rowGroup;
+
+    private final int colGroup;
+
+    private final int dataAnalyseSum;
+
+    /**
+     * 预先设置了列头（来自列头查询语句）时，不在列头中的数据忽略
+     */
+    private boolean fixedColumns;
+
+    private final List<Object[]> dataColumns;
+
+    private final Map<CrossKey, Integer> dataColumnIndex;
+
+    private final List<Object[]> sumColumns;
+
+    private final Map<CrossKey, Integer> sumColumnIndex;
+
+    private final Map<CrossKey, PivotRow> rows;
+
+    public CrossTablePivot(int rowGroup, int colGroup, int dataAnalyseSum) {
+        this.rowGroup = rowGroup;
+        this.colGroup = colGroup;
+        this.dataAnalyseSum = dataAnalyseSum;
+        this.fixedColumns = false;
+        this.dataColumns = new ArrayList<>();
+        this.dataColumnIndex = new HashMap<>();
+        this.sumColumns = new ArrayList<>();
+        this.sumColumnIndex = new HashMap<>();
+        this.rows = new LinkedHashMap<>();
+    }
+
+    /**
+     * 组合键，按照字符串比较，和原来逐个字段 toString 比较的规则一致
+     */
+    private static final class CrossKey {
+        private final String[] values;
+        private final int hash;
+
+        CrossKey(Object[] source, int from, int length) {
+            values = new String[length];
+            for (int i = 0; i < length; i++) {
+                Object v = source[from + i];
+                values[i] = v == null ? null : v.toString();
+            }
+            hash = Arrays.hashCode(values);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof CrossKey && Arrays.equals(values, ((CrossKey) obj).values);
+        }
+    }
+
+    /**
+     * 一组单元格的累加器，数组随列头的增加而扩展。
+     * 整数累加为 long，BigDecimal 累加为 BigDecimal，其他数值累加为 double；
+     * 都是整数的单元格合计为 Long，有 BigDecimal 没有浮点数时合计为 BigDecimal，其他为 Double。
+     */
+    private static final class PivotCells {
+        private static final byte HAS_DECIMAL = 1;
+        private static final byte HAS_DOUBLE = 2;
+
+        private long[] longs = new long[16];
+        private double[] doubles = new double[16];
+        private BigDecimal[] decimals;
+        private byte[] kinds = new byte[16];
+        private int[] counts = new int[16];
+        private Object[] values = new Object[16];
+
+        private void ensure(int size) {
+            if (size > counts.length) {
+                int n = Math.max(size, counts.length * 2);
+                longs = Arrays.copyOf(longs, n);
+                doubles = Arrays.copyOf(doubles, n);
+                if (decimals != null) {
+                    decimals = Arrays.copyOf(decimals, n);
+                }
+                kinds = Arrays.copyOf(kinds, n);
+                counts = Arrays.copyOf(counts, n);
+                values = Arrays.copyOf(values, n);
+            }
+        }
+
+        void add(int index, Object value) {
+            ensure(index + 1);
+            if (value instanceof Number) {
+                if (value instanceof Long || value instanceof Integer || value instanceof Short
+                        || value instanceof Byte) {
+                    longs[index] += ((Number) value).longValue();
+                } else if (value instanceof BigDecimal || value instanceof BigInteger) {
+                    BigDecimal d = value instanceof BigDecimal ? (BigDecimal) value
+                        : new BigDecimal((BigInteger) value);
+                    if (decimals == null) {
+                        decimals = new BigDecimal[counts.length];
+                    }
+                    decimals[index] = decimals[index] == null ? d : decimals[index].add(d);
+                    kinds[index] |= HAS_DECIMAL;
+                } else {
+                    doubles[index] += ((Number) value).doubleValue();
+                    kinds[index] |= HAS_DOUBLE;
+                }
+                counts[index]++;
+                values[index] = counts[index] == 1 ? value : null;
+            } else if (value != null && counts[index] == 0) {
+                values[index] = value;
+            }
+        }
+
+        Object value(int index) {
+            if (index >= counts.length) {
+                return null;
+            }
+            if (counts[index] <= 1) {
+                return values[index];
+            }
+            if ((kinds[index] & HAS_DOUBLE) != 0) {
+                double sum = longs[index] + doubles[index];
+                return (kinds[index] & HAS_DECIMAL) != 0 ? sum + decimals[index].doubleValue() : sum;
+            }
+            if ((kinds[index] & HAS_DECIMAL) != 0) {
+                return longs[index] == 0 ? decimals[index] : decimals[index].add(BigDecimal.valueOf(longs[index]));
+            }
+            return longs[index];
+        }
+    }
+
+    private static final class PivotRow {
+        private final Object[] head;
+        private final PivotCells data = new PivotCells();
+        private final PivotCells sums = new PivotCells();
+
+        PivotRow(Object[] head) {
+            this.head = head;
+        }
+    }
+
+    private Object[] sumColumnOf(Object[] col) {
+        Object[] col2 = new Object[colGroup];
+        col2[0] = SUM_COLUMN_TITLE;
+        System.arraycopy(col, 1, col2, 1, colGroup - 1);
+        return col2;
+    }
+
+    private int registerColumn(Object[] col) {
+        CrossKey key = new CrossKey(col, 0, colGroup);
+        Integer nf = dataColumnIndex.get(key);
+        if (nf == null) {
+            nf = dataColumns.size();
+            dataColumns.add(col);
+            dataColumnIndex.put(key, nf);
+        }
+        Object[] col2 = sumColumnOf(col);
+        CrossKey sumKey = new CrossKey(col2, 0, colGroup);
+        if (!sumColumnIndex.containsKey(sumKey)) {
+            sumColumnIndex.put(sumKey, sumColumns.size());
+            sumColumns.add(col2);
+        }
+        return nf;
+    }
+
+    /**
+     * 预先设置列头，需要在处理数据之前调用
+     * @param col 列头的值，多余的字段忽略
+     */
+    public void addColumn(Object[] col) {
+        registerColumn(col.length == colGroup ? col : Arrays.copyOf(col, colGroup));
+        fixedColumns = true;
+    }
+
+    @Override
+    public void handleRow(Object[] row) {
+        CrossKey rowKey = new CrossKey(row, 0, rowGroup);
+        PivotRow pivotRow = rows.get(rowKey);
+        if (pivotRow == null) {
+            pivotRow = new PivotRow(Arrays.copyOf(row, rowGroup));
+            rows.put(rowKey, pivotRow);
+        }
+
+        Integer nf = dataColumnIndex.get(new CrossKey(row, rowGroup, colGroup));
+        if (nf == null && !fixedColumns) {
+            nf = registerColumn(Arrays.copyOfRange(row, rowGroup, rowGroup + colGroup));
+        }
+        if (nf != null) {
+            for (int j = 0; j < dataAnalyseSum; j++) {
+                pivotRow.data.add(nf * dataAnalyseSum + j, row[rowGroup + colGroup + j]);
+            }
+        }
+
+        Object[] col2 = sumColumnOf(Arrays.copyOfRange(row, rowGroup, rowGroup + colGroup));
+        Integer sf = sumColumnIndex.get(new CrossKey(col2, 0, colGroup));
+        if (sf != null) {
+            for (int j = 0; j < dataAnalyseSum; j++) {
+                pivotRow.sums.add(sf * dataAnalyseSum + j, row[rowGroup + colGroup + j]);
+            }
+        }
+    }
+
+    /**
+     * @return 所有的列头，数据列在前，合计列在后
+     */
+    public List<Object[]> getColumns() {
+        List<Object[]> columns = new ArrayList<>(dataColumns.size() + sumColumns.size());
+        columns.addAll(dataColumns);
+        columns.addAll(sumColumns);
+        return columns;
+    }
+
+    /**
+     * @return 透视后的数据行
+     */
+    public List<Object[]> getRows() {
+        int dataCells = dataColumns.size() * dataAnalyseSum;
+        int sumCells = sumColumns.size() * dataAnalyseSum;
+        List<Object[]> crossDatas = new ArrayList<>(rows.size());
+        for (PivotRow pivotRow : rows.values()) {
+            Object[] rowData = new Object[rowGroup + dataCells + sumCells];
+            System.arraycopy(pivotRow.head, 0, rowData, 0, rowGroup);
+            for (int i = 0; i < dataCells; i++) {
+                rowData[rowGroup + i] = pivotRow.data.value(i);
+            }
+            for (int i = 0; i < sumCells; i++) {
+                rowData[rowGroup + dataCells + i] = pivotRow.sums.value(i);
+            }
+            crossDatas.add(rowData);
+        }
+        return crossDatas;
+    }
+}
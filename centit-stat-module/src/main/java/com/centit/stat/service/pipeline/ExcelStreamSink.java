@@ -0,0 +1,191 @@
+package com.centit.stat.service.pipeline;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.poi.ss.usermodel.BorderStyle;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.FillPatternType;
+import org.apache.poi.ss.usermodel.HorizontalAlignment;
+import org.apache.poi.ss.usermodel.IndexedColors;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.VerticalAlignment;
+import org.apache.poi.ss.util.CellRangeAddress;
+import org.apache.poi.xssf.streaming.SXSSFSheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+import com.centit.stat.po.html.table.CTableBodyTHead;
+import com.centit.stat.po.html.table.CTableCell;
+import com.centit.stat.po.html.table.CTableLine;
+import com.centit.stat.po.html.table.CTablePanel;
+
+/**
+ * 流式输出 xlsx 的输出端，内存中只保留最近 rowWindow 行，其余的行写入临时文件；
+ * 行合并在分组结束时登记，不需要回看已经写出的行。
+ * 使用完后必须关闭，以删除临时文件。
+ */
+public class ExcelStreamSink implements FormDataRowSink, Closeable {
+
+    private final SXSSFWorkbook workbook;
+
+    private final SXSSFSheet sheet;
+
+    private final CellStyle headStyle;
+
+    private final CellStyle bodyStyle;
+
+    /**
+     * 表头占用的行数，数据行从这一行开始
+     */
+    private int headRows;
+
+    public ExcelStreamSink(int rowWindow) {
+        workbook = new SXSSFWorkbook(rowWindow);
+        workbook.setCompressTempFiles(true);
+        sheet = workbook.createSheet();
+        sheet.setDefaultColumnWidth(20);
+
+        headStyle = workbook.createCellStyle();
+        headStyle.setAlignment(HorizontalAlignment.CENTER);
+        headStyle.setWrapText(true);
+        headStyle.setFillPattern(FillPatternType.FINE_DOTS);
+        headStyle.setFillForegroundColor(IndexedColors.YELLOW.getIndex());
+        headStyle.setFillBackgroundColor(IndexedColors.YELLOW.getIndex());
+        headStyle.setBorderBottom(BorderStyle.THIN);
+        headStyle.setBorderTop(BorderStyle.THIN);
+        headStyle.setBorderLeft(BorderStyle.THIN);
+        headStyle.setBorderRight(BorderStyle.THIN);
+
+        bodyStyle = workbook.createCellStyle();
+        bodyStyle.setWrapText(true);
+        bodyStyle.setAlignment(HorizontalAlignment.CENTER);
+        bodyStyle.setVerticalAlignment(VerticalAlignment.CENTER);
+
+        headRows = 0;
+    }
+
+    private static boolean isNumType(Object value) {
+        return value instanceof Number;
+    }
+
+    private void writeCell(Row row, int col, CTableCell tableCell, CellStyle style) {
+        Cell cell = row.createCell(col);
+        cell.setCellStyle(style);
+        Object value = tableCell.getValue();
+        // 数字型的都按Number保存，避免单元格出现左上角箭头，非数字型统统取displayvalue
+        if (isNumType(value)) {
+            cell.setCellValue(((Number) value).doubleValue());
+        } else if (tableCell.getDisplayValue() != null) {
+            cell.setCellValue(tableCell.getDisplayValue());
+        }
+    }
+
+    /**
+     * 合并区域来自表格的 rowspan、colspan 和 RowSpanDetector，互相不会重叠；
+     * addMergedRegion 每次都和已有的所有区域比较，导出的行数多时是平方复杂度，这里不做检查
+     */
+    private void mergeCells(int firstRow, int lastRow, int firstCol, int lastCol) {
+        if (lastRow > firstRow || lastCol > firstCol) {
+            sheet.addMergedRegionUnsafe(new CellRangeAddress(firstRow, lastRow, firstCol, lastCol));
+        }
+    }
+
+    /**
+     * 按照 HTML 表格的规则写表头，被上方单元格跨行占用的位置跳过
+     * @param lines 表头行
+     */
+    private void writeHeadLines(List<CTableLine> lines) {
+        int[] busyUntil = new int[16];
+        for (int y = 0; y < lines.size(); y++) {
+            CTableLine line = lines.get(y);
+            int rowIndex = headRows + y;
+            Row row = sheet.createRow(rowIndex);
+            int x = line.getFirstCellCol();
+            for (CTableCell cell : line.getCells()) {
+                while (x < busyUntil.length && busyUntil[x] > rowIndex) {
+                    x++;
+                }
+                int rowspan = Math.max(cell.getRowspan(), 1);
+                int colspan = Math.max(cell.getColspan(), 1);
+                if (x + colspan > busyUntil.length) {
+                    busyUntil = Arrays.copyOf(busyUntil, Math.max(x + colspan, busyUntil.length * 2));
+                }
+                for (int k = 0; k < colspan; k++) {
+                    writeCell(row, x + k, cell, headStyle);
+                    busyUntil[x + k] = rowIndex + rowspan;
+                }
+                mergeCells(rowIndex, rowIndex + rowspan - 1, x, x + colspan - 1);
+                x += colspan;
+            }
+        }
+        headRows += lines.size();
+    }
+
+    @Override
+    public void writeHead(CTableBodyTHead thead) {
+        writeHeadLines(thead.getLines());
+    }
+
+    @Override
+    public void writeRow(FormDataRow formRow) {
+        Row row = sheet.createRow(headRows + formRow.getRowIndex());
+        int x = 0;
+        for (CTableCell cell : formRow.getCells()) {
+            writeCell(row, x++, cell, bodyStyle);
+        }
+    }
+
+    @Override
+    public void closeRowSpan(int colIndex, int firstRow, int rowspan, CTableCell firstCell) {
+        mergeCells(headRows + firstRow, headRows + firstRow + rowspan - 1, colIndex, colIndex);
+    }
+
+    @Override
+    public void finish(int rowCount) {
+        // 行已经全部写出，合并区域在 write 时一起输出
+    }
+
+    /**
+     * 写入已经在内存中组装好的表格，用于同比、环比和交叉表这类需要先汇总数据的报表；
+     * 表体中每行都包含所有的单元格，跨行的后续单元格 rowspan 为 -1
+     * @param tablePanel 表格
+     */
+    public void writeTablePanel(CTablePanel tablePanel) {
+        writeHeadLines(tablePanel.getThead().getLines());
+        List<CTableLine> lines = tablePanel.getTbody().getLines();
+        for (int y = 0; y < lines.size(); y++) {
+            CTableLine line = lines.get(y);
+            int rowIndex = headRows + y;
+            Row row = sheet.createRow(rowIndex);
+            int x = line.getFirstCellCol();
+            for (CTableCell cell : line.getCells()) {
+                int colspan = Math.max(cell.getColspan(), 1);
+                for (int k = 0; k < colspan; k++) {
+                    writeCell(row, x + k, cell, bodyStyle);
+                }
+                mergeCells(rowIndex, rowIndex + Math.max(cell.getRowspan(), 1) - 1, x, x + colspan - 1);
+                x += colspan;
+            }
+        }
+    }
+
+    /**
+     * 输出整个工作簿
+     * @param out 输出流
+     * @throws IOException 写入失败
+     */
+    public void write(OutputStream out) throws IOException {
+        workbook.write(out);
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        workbook.dispose();
+        workbook.close();
+    }
+}
@@ -0,0 +1,137 @@
+package com.centit.stat.service.pipeline;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.centit.stat.dao.ResultRowHandler;
+import com.centit.stat.po.QueryColumn;
+import com.centit.stat.po.html.table.CTableBodyTHead;
+import com.centit.stat.po.html.table.CTableCell;
+import com.centit.stat.service.FormDataModel;
+
+/**
+ * 二维报表的流式处理流水线：合计、链接参数、单元格渲染、行合并都在一次遍历中完成，
+ * 渲染好的行直接交给输出端，流水线本身只保留常量级的状态。
+ */
+public class FormDataPipeline implements ResultRowHandler {
+
+    private final List<FormDataStage> stages;
+
+    private final FormDataRowSink sink;
+
+    private int rowCount;
+
+    private boolean started;
+
+    public FormDataPipeline(FormDataRowSink sink) {
+        this.sink = sink;
+        this.stages = new ArrayList<>();
+        this.rowCount = 0;
+        this.started = false;
+    }
+
+    /**
+     * 按照二维报表的规则组装流水线
+     * @param formData 报表模型
+     * @param pageTotal 是否为分页查询，分页时合计行显示为"本页合计"
+     * @param sink 输出端
+     * @return 流水线
+     */
+    public static FormDataPipeline createFormPipeline(FormDataModel formData, boolean pageTotal,
+                                                      FormDataRowSink sink) {
+        return createFormPipeline(formData,
+            new AggregateStage(formData.getColumns(), formData.getDataColumnCount(), pageTotal), sink);
+    }
+
+    /**
+     * 按照二维报表的规则组装流水线，统计阶段由调用方创建
+     * @param formData 报表模型
+     * @param aggregate 统计阶段
+     * @param sink 输出端
+     * @return 流水线
+     */
+    public static FormDataPipeline createFormPipeline(FormDataModel formData, AggregateStage aggregate,
+                                                      FormDataRowSink sink) {
+        return createFormPipeline(formData, aggregate, null, sink);
+    }
+
+    /**
+     * 按照二维报表的规则组装流水线，树形报表在统计之后替换为子树的统计值
+     * @param formData 报表模型
+     * @param aggregate 统计阶段
+     * @param treeRollup 子树统计阶段，为 null 时不替换
+     * @param sink 输出端
+     * @return 流水线
+     */
+    public static FormDataPipeline createFormPipeline(FormDataModel formData, AggregateStage aggregate,
+                                                      TreeRollupStage treeRollup, FormDataRowSink sink) {
+        List<QueryColumn> columns = formData.getColumns();
+        FormDataPipeline pipeline = new FormDataPipeline(sink).addStage(aggregate);
+        if (treeRollup != null) {
+            pipeline.addStage(treeRollup);
+        }
+        return pipeline
+            .addStage(new LinkParamStage(columns, formData.getConditions()))
+            .addStage(new RenderStage(formData))
+            .addStage(new RowSpanStage(columns, sink));
+    }
+
+    public FormDataPipeline addStage(FormDataStage stage) {
+        stages.add(stage);
+        return this;
+    }
+
+    /**
+     * 输出表头
+     * @param columns 列
+     */
+    public void start(List<QueryColumn> columns) {
+        CTableBodyTHead thead = new CTableBodyTHead();
+        for (QueryColumn col : columns) {
+            thead.addCell(CTableCell.createTableHeadCell(col.getColName(), col));
+        }
+        sink.writeHead(thead);
+        started = true;
+    }
+
+    @Override
+    public void handleRow(Object[] data) {
+        pushRow(data, false);
+    }
+
+    /**
+     * 将一行数据推入流水线
+     * @param data 行数据
+     * @param additionRow 是否为合计、平均等附加行
+     */
+    public void pushRow(Object[] data, boolean additionRow) {
+        FormDataRow row = new FormDataRow(data, rowCount++, additionRow);
+        for (FormDataStage stage : stages) {
+            stage.processRow(row);
+        }
+        sink.writeRow(row);
+    }
+
+    /**
+     * 结束流水线，各阶段依次收尾，最后通知输出端
+     * @return 总行数，包括合计、平均行
+     */
+    public int finish() {
+        if (!started) {
+            throw new IllegalStateException("流水线没有输出表头。");
+        }
+        for (FormDataStage stage : stages) {
+            stage.endRows(this);
+        }
+        sink.finish(rowCount);
+        return rowCount;
+    }
+
+    public FormDataRowSink getSink() {
+        return sink;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+}
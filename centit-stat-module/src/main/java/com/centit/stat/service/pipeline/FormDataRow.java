@@ -0,0 +1,67 @@
+package com.centit.stat.service.pipeline;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import com.centit.stat.po.html.table.CTableCell;
+
+/**
+ * 流水线中流转的一行数据，各个处理阶段依次填充链接参数和单元格
+ */
+public class FormDataRow {
+    /**
+     * 查询结果（或合计、平均行）的原始值
+     */
+    private final Object[] data;
+
+    private final int rowIndex;
+
+    /**
+     * 是否为合计、平均等附加行
+     */
+    private final boolean additionRow;
+
+    /**
+     * 链接参数
+     */
+    private Map<String, Object> params;
+
+    /**
+     * 渲染后的单元格
+     */
+    private List<CTableCell> cells;
+
+    public FormDataRow(Object[] data, int rowIndex, boolean additionRow) {
+        this.data = data;
+        this.rowIndex = rowIndex;
+        this.additionRow = additionRow;
+    }
+
+    public Object[] getData() {
+        return data;
+    }
+
+    public int getRowIndex() {
+        return rowIndex;
+    }
+
+    public boolean isAdditionRow() {
+        return additionRow;
+    }
+
+    public Map<String, Object> getParams() {
+        return params;
+    }
+
+    public void setParams(Map<String, Object> params) {
+        this.params = params;
+    }
+
+    public List<CTableCell> getCells() {
+        if (null == cells) {
+            cells = new ArrayList<>();
+        }
+        return cells;
+    }
+}
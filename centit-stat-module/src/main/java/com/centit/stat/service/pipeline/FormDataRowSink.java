@@ -0,0 +1,37 @@
+package com.centit.stat.service.pipeline;
+
+import com.centit.stat.po.html.table.CTableBodyTHead;
+import com.centit.stat.po.html.table.CTableCell;
+
+/**
+ * 流水线的输出端，可以是内存中的表格，也可以直接写到 excel 或者 http 输出流
+ */
+public interface FormDataRowSink {
+
+    /**
+     * 输出表头，在第一行数据之前调用
+     * @param thead 表头
+     */
+    void writeHead(CTableBodyTHead thead);
+
+    /**
+     * 输出一行已经渲染好的数据
+     * @param row 数据行
+     */
+    void writeRow(FormDataRow row);
+
+    /**
+     * 行头列的一个纵向合并区域结束，此时区域内的行都已经输出
+     * @param colIndex 列序号
+     * @param firstRow 合并区域的第一行
+     * @param rowspan 合并的行数
+     * @param firstCell 合并区域第一行的单元格
+     */
+    void closeRowSpan(int colIndex, int firstRow, int rowspan, CTableCell firstCell);
+
+    /**
+     * 所有的行都已经输出
+     * @param rowCount 总行数，包括合计、平均行
+     */
+    void finish(int rowCount);
+}
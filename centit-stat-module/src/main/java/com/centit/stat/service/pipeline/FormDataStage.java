@@ -0,0 +1,19 @@
+package com.centit.stat.service.pipeline;
+
+/**
+ * 报表流水线的处理阶段，每行数据按顺序经过所有阶段后交给输出端
+ */
+public interface FormDataStage {
+
+    /**
+     * 处理一行数据
+     * @param row 当前行
+     */
+    void processRow(FormDataRow row);
+
+    /**
+     * 所有查询行处理完毕，可以在这里追加合计行或者结束未关闭的分组
+     * @param pipeline 所在的流水线
+     */
+    void endRows(FormDataPipeline pipeline);
+}
@@ -0,0 +1,144 @@
+package com.centit.stat.service.pipeline;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.centit.stat.po.html.AbstractCHtmlComponent;
+import com.centit.stat.po.html.table.CTableBodyTHead;
+import com.centit.stat.po.html.table.CTableCell;
+import com.centit.support.report.StatReportException;
+
+/**
+ * 流式输出 HTML 表格。行头单元格的 rowspan 要在分组结束后才知道，所以一行在它开始的分组都结束后才写出；
+ * 只缓存还有分组没有结束的行，最多是最大的一个分组，不缓存整个表格。
+ */
+public class HtmlStreamSink implements FormDataRowSink {
+
+    private final Appendable out;
+
+    /**
+     * 等待输出的行，第一个元素的行号为 firstPending
+     */
+    private final List<FormDataRow> pending;
+
+    /**
+     * 等待输出的行中还没有结束的分组个数
+     */
+    private int[] openGroups;
+
+    private int firstPending;
+
+    private int head;
+
+    /**
+     * 已经输出的行中最多的单元格个数，错误信息行横跨这么多列
+     */
+    private int width;
+
+    private boolean finished;
+
+    public HtmlStreamSink(Appendable out) {
+        this.out = out;
+        this.pending = new ArrayList<>();
+        this.openGroups = new int[16];
+        this.firstPending = 0;
+        this.head = 0;
+    }
+
+    @Override
+    public void writeHead(CTableBodyTHead thead) {
+        try {
+            out.append("<table>");
+            thead.writeHtml(out);
+            out.append("<tbody>");
+        } catch (IOException e) {
+            throw new StatReportException(e);
+        }
+    }
+
+    @Override
+    public void writeRow(FormDataRow row) {
+        int index = row.getRowIndex() - firstPending;
+        if (index >= openGroups.length) {
+            openGroups = Arrays.copyOf(openGroups, Math.max(index + 1, openGroups.length * 2));
+        }
+        // RowSpanStage 给每个分组的第一个单元格先设置 rowspan 为 1，其他单元格 rowspan 为 0 或者 -1
+        int open = 0;
+        for (CTableCell cell : row.getCells()) {
+            if (cell.getRowspan() > 0) {
+                open++;
+            }
+        }
+        openGroups[index] = open;
+        pending.add(row);
+        flushReady();
+    }
+
+    @Override
+    public void closeRowSpan(int colIndex, int firstRow, int rowspan, CTableCell firstCell) {
+        openGroups[firstRow - firstPending]--;
+        flushReady();
+    }
+
+    private void flushReady() {
+        try {
+            while (head < pending.size() && openGroups[head] == 0) {
+                writeLine(pending.get(head));
+                pending.set(head, null);
+                head++;
+            }
+        } catch (IOException e) {
+            throw new StatReportException(e);
+        }
+        if (head == pending.size()) {
+            firstPending += head;
+            pending.clear();
+            head = 0;
+        }
+    }
+
+    private void writeLine(FormDataRow row) throws IOException {
+        width = Math.max(width, row.getCells().size());
+        out.append("<tr>");
+        for (CTableCell cell : row.getCells()) {
+            if (cell.getRowspan() >= 0) {
+                cell.writeHtml(out);
+            }
+        }
+        out.append("</tr>");
+    }
+
+    @Override
+    public void finish(int rowCount) {
+        flushReady();
+        try {
+            out.append("</tbody></table>");
+        } catch (IOException e) {
+            throw new StatReportException(e);
+        }
+        finished = true;
+    }
+
+    /**
+     * 已经输出部分表格之后查询失败：写出等待的行，再写一行错误信息并结束表格
+     * @param message 错误信息
+     * @throws IOException 写入失败
+     */
+    public void writeError(String message) throws IOException {
+        if (finished) {
+            return;
+        }
+        // 分组没有结束的行也写出，rowspan 可能大于实际的行数
+        for (int i = head; i < pending.size(); i++) {
+            writeLine(pending.get(i));
+        }
+        pending.clear();
+        head = 0;
+        out.append("<tr><td class=\"error\" colspan=\"").append(String.valueOf(Math.max(1, width))).append("\">");
+        AbstractCHtmlComponent.escape(out, message == null ? "" : message);
+        out.append("</td></tr></tbody></table>");
+        finished = true;
+    }
+}
@@ -0,0 +1,28 @@
+package com.centit.stat.service.pipeline;
+
+import java.util.List;
+
+import com.centit.stat.po.QueryColumn;
+import com.centit.stat.po.QueryCondition;
+
+/**
+ * 生成每一行的链接参数，行头列的值和查询条件都可以在链接中引用；
+ * 参数按名称在行数组和共享的查询条件中查找，不为每行复制参数表
+ */
+public class LinkParamStage implements FormDataStage {
+
+    private final LinkParams.Layout layout;
+
+    public LinkParamStage(List<QueryColumn> columns, List<QueryCondition> conditions) {
+        this.layout = new LinkParams.Layout(columns, conditions);
+    }
+
+    @Override
+    public void processRow(FormDataRow row) {
+        row.setParams(layout.forRow(row.getData()));
+    }
+
+    @Override
+    public void endRows(FormDataPipeline pipeline) {
+    }
+}
@@ -0,0 +1,117 @@
+package com.centit.stat.service.pipeline;
+
+import java.util.AbstractMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.centit.stat.po.QueryColumn;
+import com.centit.stat.po.QueryCondition;
+import com.centit.support.algorithm.StringBaseOpt;
+
+/**
+ * 一行的链接参数视图，主键为 :name。行头列的值直接从行数组中读取，查询条件所有行共享，
+ * 只有在行中追加的参数（如交叉表的列头值）才单独保存，每行不再复制一个 HashMap。
+ * <p>
+ * 同名时的优先级：追加的参数、查询条件、行头列。
+ */
+public class LinkParams extends AbstractMap<String, Object> {
+
+    /**
+     * 所有行共享的参数布局
+     */
+    public static class Layout {
+        /**
+         * 行头列的参数名和在行中的序号
+         */
+        private final Map<String, Integer> rowParams;
+
+        private final Map<String, Object> conditionParams;
+
+        /**
+         * @param columns 列，行头列按照顺序对应行的前几个值
+         * @param conditions 查询条件，空值不作为参数
+         */
+        public Layout(List<QueryColumn> columns, List<QueryCondition> conditions) {
+            rowParams = new HashMap<>();
+            int index = 0;
+            // 只处理行头的链接
+            for (QueryColumn col : columns) {
+                if ("R".equals(col.getShowType())) {
+                    rowParams.put(":" + col.getColName(), index++);
+                }
+            }
+            conditionParams = new HashMap<>();
+            for (QueryCondition condition : conditions) {
+                String value = StringBaseOpt.objectToString(condition.getCondValue());
+                if (StringUtils.isBlank(value))
+                    continue;
+                conditionParams.put(":" + condition.getCondName(), value);
+            }
+        }
+
+        public LinkParams forRow(Object[] row) {
+            return new LinkParams(this, row);
+        }
+    }
+
+    private final Layout layout;
+
+    private final Object[] row;
+
+    private Map<String, Object> extraParams;
+
+    private LinkParams(Layout layout, Object[] row) {
+        this.layout = layout;
+        this.row = row;
+    }
+
+    @Override
+    public Object get(Object key) {
+        if (extraParams != null && extraParams.containsKey(key)) {
+            return extraParams.get(key);
+        }
+        Object value = layout.conditionParams.get(key);
+        if (value != null) {
+            return value;
+        }
+        Integer index = layout.rowParams.get(key);
+        return index == null || index >= row.length ? null : row[index];
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return (extraParams != null && extraParams.containsKey(key))
+            || layout.conditionParams.containsKey(key) || layout.rowParams.containsKey(key);
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        Object old = get(key);
+        if (extraParams == null) {
+            extraParams = new HashMap<>();
+        }
+        extraParams.put(key, value);
+        return old;
+    }
+
+    /**
+     * 遍历时才生成完整的参数表，正常的渲染过程只按名称取值
+     */
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        Map<String, Object> all = new LinkedHashMap<>();
+        for (Map.Entry<String, Integer> ent : layout.rowParams.entrySet()) {
+            all.put(ent.getKey(), ent.getValue() < row.length ? row[ent.getValue()] : null);
+        }
+        all.putAll(layout.conditionParams);
+        if (extraParams != null) {
+            all.putAll(extraParams);
+        }
+        return all.entrySet();
+    }
+}
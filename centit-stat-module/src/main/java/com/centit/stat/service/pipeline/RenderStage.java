@@ -0,0 +1,37 @@
+package com.centit.stat.service.pipeline;
+
+import java.util.List;
+
+import com.centit.stat.po.QueryColumn;
+import com.centit.stat.po.html.table.CTableCell;
+import com.centit.stat.po.html.table.ColumnFormatter;
+import com.centit.stat.service.FormDataModel;
+
+/**
+ * 将一行数据渲染成表格单元格，使用模块编译好的列格式
+ */
+public class RenderStage implements FormDataStage {
+
+    private final ColumnFormatter[] formatters;
+
+    public RenderStage(FormDataModel formData) {
+        List<QueryColumn> columns = formData.getColumns();
+        formatters = new ColumnFormatter[columns.size()];
+        for (int i = 0; i < formatters.length; i++) {
+            formatters[i] = formData.getColumnFormatter(columns.get(i));
+        }
+    }
+
+    @Override
+    public void processRow(FormDataRow row) {
+        Object[] data = row.getData();
+        List<CTableCell> cells = row.getCells();
+        for (int i = 0; i < formatters.length; i++) {
+            cells.add(formatters[i].createCell(data[i], row.getParams()));
+        }
+    }
+
+    @Override
+    public void endRows(FormDataPipeline pipeline) {
+    }
+}
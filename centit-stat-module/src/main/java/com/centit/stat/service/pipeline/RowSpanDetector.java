@@ -0,0 +1,118 @@
+package com.centit.stat.service.pipeline;
+
+import java.util.List;
+
+import com.centit.stat.po.QueryColumn;
+
+/**
+ * 行头（R）列纵向合并区域的检测器，数据按行头排好序逐行输入，相邻行的值相同则属于同一个区域。
+ * 只保存每个行头列当前区域的起始行、行数和值，区域结束时通知监听者；
+ * 流式输出（HTML、excel）和内存中的表格使用同一个检测器。
+ */
+public class RowSpanDetector {
+
+    /**
+     * 合并区域结束的通知
+     */
+    public interface SpanListener {
+        /**
+         * 一个合并区域结束，区域内的行都已经输入
+         * @param span 行头列在检测器中的序号
+         * @param colIndex 行头列在行中的序号
+         * @param firstRow 区域的第一行
+         * @param rowspan 区域的行数
+         */
+        void closeSpan(int span, int colIndex, int firstRow, int rowspan);
+    }
+
+    private final SpanListener listener;
+
+    /**
+     * 行头列在行中的序号
+     */
+    private final int[] spanCols;
+
+    private final Object[] groupValue;
+
+    private final int[] groupBegin;
+
+    private final int[] groupSize;
+
+    public RowSpanDetector(List<QueryColumn> columns, SpanListener listener) {
+        this.listener = listener;
+        int n = 0;
+        for (QueryColumn col : columns) {
+            if ("R".equals(col.getShowType())) {
+                n++;
+            }
+        }
+        spanCols = new int[n];
+        n = 0;
+        for (int i = 0; i < columns.size(); i++) {
+            if ("R".equals(columns.get(i).getShowType())) {
+                spanCols[n++] = i;
+            }
+        }
+        groupValue = new Object[n];
+        groupBegin = new int[n];
+        groupSize = new int[n];
+    }
+
+    private static boolean sameGroup(Object prev, Object curr) {
+        if (null == curr) {
+            return null == prev;
+        }
+        return curr.equals(prev);
+    }
+
+    /**
+     * @return 行头列的个数
+     */
+    public int getSpanCount() {
+        return spanCols.length;
+    }
+
+    /**
+     * @param span 行头列在检测器中的序号
+     * @return 行头列在行中的序号
+     */
+    public int getSpanColumn(int span) {
+        return spanCols[span];
+    }
+
+    /**
+     * 输入一行中某个行头列的值
+     * @param span 行头列在检测器中的序号
+     * @param value 值
+     * @param rowIndex 行号，必须递增
+     * @return true 表示这一行的单元格被上方的单元格合并，false 表示开始一个新的区域
+     */
+    public boolean nextValue(int span, Object value, int rowIndex) {
+        if (groupSize[span] > 0 && sameGroup(groupValue[span], value)) {
+            groupSize[span]++;
+            return true;
+        }
+        closeGroup(span);
+        groupValue[span] = value;
+        groupBegin[span] = rowIndex;
+        groupSize[span] = 1;
+        return false;
+    }
+
+    private void closeGroup(int span) {
+        if (groupSize[span] > 0) {
+            listener.closeSpan(span, spanCols[span], groupBegin[span], groupSize[span]);
+        }
+        groupSize[span] = 0;
+        groupValue[span] = null;
+    }
+
+    /**
+     * 所有的行都已经输入，结束所有区域
+     */
+    public void finish() {
+        for (int k = 0; k < spanCols.length; k++) {
+            closeGroup(k);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.centit.stat.service.pipeline;
+
+import java.util.List;
+
+import com.centit.stat.po.QueryColumn;
+import com.centit.stat.po.html.table.CTableCell;
+
+/**
+ * 行头（R）列纵向合并单元格，相邻行的值相同则合并；
+ * 分组的起始单元格先设置 rowspan 为 1，被合并的单元格设置为 -1，分组结束时设置实际行数并通知输出端。
+ */
+public class RowSpanStage implements FormDataStage, RowSpanDetector.SpanListener {
+
+    private final FormDataRowSink sink;
+
+    private final RowSpanDetector detector;
+
+    private final CTableCell[] groupCell;
+
+    public RowSpanStage(List<QueryColumn> columns, FormDataRowSink sink) {
+        this.sink = sink;
+        this.detector = new RowSpanDetector(columns, this);
+        this.groupCell = new CTableCell[detector.getSpanCount()];
+    }
+
+    @Override
+    public void processRow(FormDataRow row) {
+        Object[] data = row.getData();
+        for (int k = 0; k < groupCell.length; k++) {
+            int col = detector.getSpanColumn(k);
+            CTableCell cell = row.getCells().get(col);
+            if (detector.nextValue(k, data[col], row.getRowIndex())) {
+                cell.setRowspan(-1);
+            } else {
+                groupCell[k] = cell;
+                cell.setRowspan(1);
+            }
+        }
+    }
+
+    @Override
+    public void closeSpan(int span, int colIndex, int firstRow, int rowspan) {
+        CTableCell cell = groupCell[span];
+        cell.setRowspan(rowspan);
+        sink.closeRowSpan(colIndex, firstRow, rowspan, cell);
+    }
+
+    @Override
+    public void endRows(FormDataPipeline pipeline) {
+        detector.finish();
+    }
+}
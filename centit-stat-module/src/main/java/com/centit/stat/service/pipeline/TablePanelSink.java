@@ -0,0 +1,60 @@
+package com.centit.stat.service.pipeline;
+
+import com.centit.stat.po.html.table.CTableBodyTBody;
+import com.centit.stat.po.html.table.CTableBodyTHead;
+import com.centit.stat.po.html.table.CTableCell;
+import com.centit.stat.po.html.table.CTablePanel;
+import com.centit.stat.service.ColumnarResult;
+import com.centit.stat.service.FormDataModel;
+
+/**
+ * 将流水线的输出组装成内存中的表格，查询结果按列存储，结束时写回 FormDataModel
+ */
+public class TablePanelSink implements FormDataRowSink {
+
+    private final FormDataModel formData;
+
+    private final ColumnarResult rows;
+
+    private CTableBodyTHead thead;
+
+    private final CTableBodyTBody tbody;
+
+    public TablePanelSink(FormDataModel formData) {
+        this.formData = formData;
+        String[] colTypes = new String[formData.getColumns().size()];
+        for (int i = 0; i < colTypes.length; i++) {
+            colTypes[i] = formData.getColumns().get(i).getColType();
+        }
+        this.rows = new ColumnarResult(colTypes);
+        this.tbody = new CTableBodyTBody();
+    }
+
+    @Override
+    public void writeHead(CTableBodyTHead thead) {
+        this.thead = thead;
+    }
+
+    @Override
+    public void writeRow(FormDataRow row) {
+        if (row.getRowIndex() > 0) {
+            tbody.addLine();
+        }
+        for (CTableCell cell : row.getCells()) {
+            tbody.addCell(cell);
+        }
+        rows.handleRow(row.getData());
+    }
+
+    @Override
+    public void closeRowSpan(int colIndex, int firstRow, int rowspan, CTableCell firstCell) {
+        // 单元格对象保留在内存中，RowSpanStage 已经设置了合并行数
+    }
+
+    @Override
+    public void finish(int rowCount) {
+        rows.trim();
+        formData.setFormResult(rows);
+        formData.setTablePanel(new CTablePanel(thead, tbody));
+    }
+}
@@ -0,0 +1,33 @@
+package com.centit.stat.service.pipeline;
+
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * 树形报表的上级节点显示子树的统计值：放在统计阶段之后，合计行仍然按照每个节点自己的值计算，
+ * 之后的阶段和输出端看到的是子树的合计或者平均值。
+ */
+public class TreeRollupStage implements FormDataStage {
+
+    private Iterator<Object[]> rolled;
+
+    /**
+     * 设置每一行的子树统计值，取出树形数据之后、推入第一行之前调用
+     * @param rolledRows TreeRows.rollup 的结果，和推入流水线的行顺序相同
+     */
+    public void setRolledRows(List<Object[]> rolledRows) {
+        this.rolled = rolledRows.iterator();
+    }
+
+    @Override
+    public void processRow(FormDataRow row) {
+        if (row.isAdditionRow() || rolled == null || !rolled.hasNext()) {
+            return;
+        }
+        TreeRows.applyRollup(row.getData(), rolled.next());
+    }
+
+    @Override
+    public void endRows(FormDataPipeline pipeline) {
+    }
+}
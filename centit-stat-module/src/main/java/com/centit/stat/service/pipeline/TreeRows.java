@@ -0,0 +1,224 @@
+package com.centit.stat.service.pipeline;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 树形报表的行：第一列为节点编号，第二列为上级节点编号。
+ * 用散列表按照编号定位上级节点，一次遍历建立树，再按照深度优先的顺序排列，同级节点保持原来的顺序；
+ * 上级节点不在结果中的行作为根节点，循环引用的行排在最后。
+ * 深度优先的顺序中上级节点总是在下级节点前面，逆序遍历一次就可以自下而上计算每个子树的合计和平均值，
+ * 合计和 AggregateKernel 一样使用 Neumaier 补偿求和。
+ */
+public class TreeRows {
+
+    private final List<Object[]> rows;
+
+    /**
+     * 上级节点在 rows 中的位置，根节点为 -1
+     */
+    private final int[] parents;
+
+    /**
+     * @param datas 查询结果，不会被修改
+     */
+    public TreeRows(List<Object[]> datas) {
+        int n = datas.size();
+        Map<Object, Integer> index = new HashMap<>(n * 4 / 3 + 1);
+        for (int i = 0; i < n; i++) {
+            Object id = datas.get(i)[0];
+            if (id != null) {
+                index.putIfAbsent(id, i);
+            }
+        }
+        // 下级节点用链表保存，保持原来的顺序
+        int[] parentOf = new int[n];
+        int[] firstChild = new int[n];
+        int[] lastChild = new int[n];
+        int[] nextSibling = new int[n];
+        for (int i = 0; i < n; i++) {
+            firstChild[i] = lastChild[i] = nextSibling[i] = -1;
+        }
+        for (int i = 0; i < n; i++) {
+            Object parentId = datas.get(i)[1];
+            Integer p = parentId == null ? null : index.get(parentId);
+            parentOf[i] = p == null || p == i ? -1 : p;
+            if (parentOf[i] >= 0) {
+                if (lastChild[p] < 0) {
+                    firstChild[p] = i;
+                } else {
+                    nextSibling[lastChild[p]] = i;
+                }
+                lastChild[p] = i;
+            }
+        }
+
+        rows = new ArrayList<>(n);
+        parents = new int[n];
+        int[] position = new int[n];
+        boolean[] visited = new boolean[n];
+        int[] stack = new int[n];
+        // 先从根节点开始，再处理循环引用中的节点
+        for (int pass = 0; pass < 2; pass++) {
+            for (int root = 0; root < n; root++) {
+                if (visited[root] || (pass == 0 && parentOf[root] >= 0)) {
+                    continue;
+                }
+                int top = 0;
+                stack[top++] = root;
+                visited[root] = true;
+                while (top > 0) {
+                    int node = stack[--top];
+                    position[node] = rows.size();
+                    parents[rows.size()] = node == root ? -1 : position[parentOf[node]];
+                    rows.add(datas.get(node));
+                    // 下级节点逆序入栈，出栈时保持原来的顺序
+                    int count = 0;
+                    for (int c = firstChild[node]; c >= 0; c = nextSibling[c]) {
+                        if (!visited[c]) {
+                            count++;
+                        }
+                    }
+                    int pos = top + count;
+                    top = pos;
+                    for (int c = firstChild[node]; c >= 0; c = nextSibling[c]) {
+                        if (!visited[c]) {
+                            visited[c] = true;
+                            stack[--pos] = c;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 按照 id、上级 id 排列成树，代替 ListOpt.sortAsTree
+     * @param datas 查询结果
+     * @return 深度优先顺序的行
+     */
+    public static List<Object[]> sortAsTree(List<Object[]> datas) {
+        return new TreeRows(datas).getRows();
+    }
+
+    /**
+     * @return 深度优先顺序的行
+     */
+    public List<Object[]> getRows() {
+        return rows;
+    }
+
+    /**
+     * @param row 行在 getRows 中的位置
+     * @return 上级节点的位置，根节点为 -1
+     */
+    public int getParent(int row) {
+        return parents[row];
+    }
+
+    /**
+     * 自下而上计算每个节点所在子树的统计值
+     * @param opts 每一列的统计方式，AggregateKernel.OPT_SUM、OPT_SUM_AVG 为子树合计，OPT_AVG 为子树平均值，
+     *             其他的列不计算
+     * @return 和 getRows 顺序相同，每行中不计算的列为 null；都是整数的列合计为 Long，其他为 Double
+     */
+    public List<Object[]> rollup(int[] opts) {
+        int n = rows.size();
+        int width = opts.length;
+        int[] cols = new int[width];
+        int k = 0;
+        for (int c = 0; c < width; c++) {
+            if (opts[c] == AggregateKernel.OPT_SUM || opts[c] == AggregateKernel.OPT_SUM_AVG
+                    || opts[c] == AggregateKernel.OPT_AVG) {
+                cols[k++] = c;
+            }
+        }
+        double[][] sums = new double[n][k];
+        double[][] compensations = new double[n][k];
+        long[][] counts = new long[n][k];
+        boolean[] integral = new boolean[k];
+        for (int j = 0; j < k; j++) {
+            integral[j] = true;
+        }
+        for (int r = n - 1; r >= 0; r--) {
+            Object[] row = rows.get(r);
+            for (int j = 0; j < k; j++) {
+                Object value = cols[j] < row.length ? row[cols[j]] : null;
+                if (value instanceof Number) {
+                    add(sums[r], compensations[r], j, ((Number) value).doubleValue());
+                    counts[r][j]++;
+                    integral[j] = integral[j] && isIntegral((Number) value);
+                }
+            }
+            int p = parents[r];
+            if (p >= 0) {
+                for (int j = 0; j < k; j++) {
+                    add(sums[p], compensations[p], j, sums[r][j] + compensations[r][j]);
+                    counts[p][j] += counts[r][j];
+                }
+            }
+        }
+        List<Object[]> rolled = new ArrayList<>(n);
+        for (int r = 0; r < n; r++) {
+            Object[] values = new Object[width];
+            for (int j = 0; j < k; j++) {
+                if (counts[r][j] == 0) {
+                    continue;
+                }
+                int c = cols[j];
+                double sum = sums[r][j] + compensations[r][j];
+                if (opts[c] == AggregateKernel.OPT_AVG) {
+                    values[c] = sum / counts[r][j];
+                } else {
+                    values[c] = integral[j] ? (Object) Math.round(sum) : (Object) sum;
+                }
+            }
+            rolled.add(values);
+        }
+        return rolled;
+    }
+
+    /**
+     * Neumaier 补偿求和，和 AggregateKernel.add 相同
+     */
+    private static void add(double[] sum, double[] compensation, int j, double value) {
+        double s = sum[j];
+        double t = s + value;
+        if (Math.abs(s) >= Math.abs(value)) {
+            compensation[j] += (s - t) + value;
+        } else {
+            compensation[j] += (value - t) + s;
+        }
+        sum[j] = t;
+    }
+
+    /**
+     * 用子树的统计值替换行中对应的列
+     * @param row 行
+     * @param rolled rollup 返回的对应行
+     */
+    public static void applyRollup(Object[] row, Object[] rolled) {
+        int n = Math.min(row.length, rolled.length);
+        for (int c = 0; c < n; c++) {
+            if (rolled[c] != null) {
+                row[c] = rolled[c];
+            }
+        }
+    }
+
+    private static boolean isIntegral(Number value) {
+        if (value instanceof Long || value instanceof Integer || value instanceof Short
+                || value instanceof Byte || value instanceof BigInteger) {
+            return true;
+        }
+        if (value instanceof BigDecimal) {
+            BigDecimal d = (BigDecimal) value;
+            return d.signum() == 0 || d.scale() <= 0 || d.stripTrailingZeros().scale() <= 0;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,80 @@
+package com.centit.stat.dao;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * keyset 分页语句的形式：空值统一排在最后，定位条件用 is null 处理空值
+ */
+public class DBCPDaoTest {
+
+    private static final String[] KEYS = {"stat_page.a", "stat_page.b"};
+
+    @Test
+    public void orderByPutsNullsLast() {
+        assertEquals("case when stat_page.a is null then 1 else 0 end, stat_page.a, "
+                + "case when stat_page.b is null then 1 else 0 end, stat_page.b",
+            DBCPDao.keysetOrderBy(KEYS, null));
+        assertEquals("case when stat_page.a is null then 1 else 0 end, stat_page.a desc, "
+                + "case when stat_page.b is null then 1 else 0 end, stat_page.b",
+            DBCPDao.keysetOrderBy(KEYS, new boolean[]{true, false}));
+    }
+
+    @Test
+    public void predicateWithoutNulls() {
+        List<Object> params = new ArrayList<>();
+        String where = DBCPDao.keysetPredicate(KEYS, null, new Object[]{1, 2}, params);
+        assertEquals("((stat_page.a > ? or stat_page.a is null))"
+                + " or (stat_page.a = ? and (stat_page.b > ? or stat_page.b is null))"
+                + " or (stat_page.a = ? and stat_page.b = ?)", where);
+        assertEquals(Arrays.<Object>asList(1, 1, 2, 1, 2), params);
+    }
+
+    @Test
+    public void predicateWithNullInLaterKey() {
+        List<Object> params = new ArrayList<>();
+        String where = DBCPDao.keysetPredicate(KEYS, null, new Object[]{1, null}, params);
+        // b 为空时没有排在它后面的 b，只有 a 更大的行和 a 相同、b 也为空的行
+        assertEquals("((stat_page.a > ? or stat_page.a is null))"
+                + " or (stat_page.a = ? and stat_page.b is null)", where);
+        assertEquals(Arrays.<Object>asList(1, 1), params);
+    }
+
+    @Test
+    public void predicateWithNullInFirstKey() {
+        List<Object> params = new ArrayList<>();
+        String where = DBCPDao.keysetPredicate(KEYS, null, new Object[]{null, 2}, params);
+        assertEquals("(stat_page.a is null and (stat_page.b > ? or stat_page.b is null))"
+                + " or (stat_page.a is null and stat_page.b = ?)", where);
+        assertEquals(Arrays.<Object>asList(2, 2), params);
+    }
+
+    @Test
+    public void predicateWithAllKeysNull() {
+        List<Object> params = new ArrayList<>();
+        String where = DBCPDao.keysetPredicate(KEYS, null, new Object[]{null, null}, params);
+        assertEquals("(stat_page.a is null and stat_page.b is null)", where);
+        assertEquals(0, params.size());
+    }
+
+    @Test
+    public void predicateWithDescendingKey() {
+        List<Object> params = new ArrayList<>();
+        String where = DBCPDao.keysetPredicate(KEYS, new boolean[]{true, false}, new Object[]{1, 2}, params);
+        assertEquals("((stat_page.a < ? or stat_page.a is null))"
+                + " or (stat_page.a = ? and (stat_page.b > ? or stat_page.b is null))"
+                + " or (stat_page.a = ? and stat_page.b = ?)", where);
+    }
+
+    @Test
+    public void predicateAppendsToExistingParams() {
+        List<Object> params = new ArrayList<>(Arrays.<Object>asList("2018"));
+        DBCPDao.keysetPredicate(new String[]{"stat_page.a"}, null, new Object[]{"x"}, params);
+        assertEquals(Arrays.<Object>asList("2018", "x", "x"), params);
+    }
+}
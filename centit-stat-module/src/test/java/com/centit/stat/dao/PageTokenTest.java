@@ -0,0 +1,121 @@
+package com.centit.stat.dao;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.centit.support.report.StatReportException;
+
+/**
+ * keyset 分页标记：编码、解析，以及排序键有重复值和空值时下一页的定位
+ */
+public class PageTokenTest {
+
+    private static final int[] KEY_COLS = {0, 1};
+
+    private static PageToken roundTrip(PageToken token) {
+        return PageToken.decode(token.encode(), KEY_COLS.length);
+    }
+
+    @Test
+    public void firstPageHasNoToken() {
+        assertNull(PageToken.decode(null, 2));
+        assertNull(PageToken.decode("", 2));
+    }
+
+    @Test
+    public void encodeDecodeKeepsKeyTypes() {
+        List<Object[]> rows = Arrays.asList(
+            new Object[]{"江苏", 1, "x"},
+            new Object[]{"江苏|\"南京\"", new Timestamp(1514736000000L), "y"});
+        PageToken token = roundTrip(PageToken.next(null, rows, KEY_COLS));
+        assertArrayEquals(new Object[]{"江苏|\"南京\"", new Timestamp(1514736000000L)}, token.getKeyValues());
+        assertEquals(2, token.getOffset());
+        assertEquals(1, token.getSkip());
+
+        rows = Arrays.asList(new Object[][]{{3, new BigDecimal("12.50"), "z"}});
+        token = roundTrip(PageToken.next(token, rows, KEY_COLS));
+        assertArrayEquals(new Object[]{new BigDecimal("3"), new BigDecimal("12.50")}, token.getKeyValues());
+        assertEquals(3, token.getOffset());
+    }
+
+    @Test
+    public void nullKeysAreKept() {
+        List<Object[]> rows = Arrays.asList(
+            new Object[]{"A", 1},
+            new Object[]{"B", null},
+            new Object[]{"B", null});
+        PageToken token = roundTrip(PageToken.next(null, rows, KEY_COLS));
+        assertArrayEquals(new Object[]{"B", null}, token.getKeyValues());
+        assertEquals(2, token.getSkip());
+        assertEquals(3, token.getOffset());
+    }
+
+    @Test
+    public void duplicateKeysAtPageEndAreSkipped() {
+        List<Object[]> rows = Arrays.asList(
+            new Object[]{"A", 1},
+            new Object[]{"A", 2},
+            new Object[]{"A", 2},
+            new Object[]{"A", 2});
+        PageToken token = PageToken.next(null, rows, KEY_COLS);
+        assertEquals(3, token.getSkip());
+    }
+
+    @Test
+    public void pageOfOneDuplicateKeyAddsPreviousSkip() {
+        PageToken first = roundTrip(PageToken.next(null, Arrays.asList(
+            new Object[]{"A", 1},
+            new Object[]{"A", 2},
+            new Object[]{"A", 2}), KEY_COLS));
+        assertEquals(2, first.getSkip());
+        PageToken second = roundTrip(PageToken.next(first, Arrays.asList(
+            new Object[]{"A", 2},
+            new Object[]{"A", 2},
+            new Object[]{"A", 2}), KEY_COLS));
+        assertEquals(5, second.getSkip());
+        assertEquals(6, second.getOffset());
+        PageToken third = roundTrip(PageToken.next(second, Arrays.asList(
+            new Object[]{"A", 2},
+            new Object[]{"A", 3}), KEY_COLS));
+        assertEquals(1, third.getSkip());
+        assertEquals(8, third.getOffset());
+    }
+
+    @Test
+    public void pageOfOneNullKeyAddsPreviousSkip() {
+        PageToken first = roundTrip(PageToken.next(null, Arrays.asList(
+            new Object[]{"A", 1},
+            new Object[]{null, null}), KEY_COLS));
+        PageToken second = PageToken.next(first, Arrays.asList(
+            new Object[]{null, null},
+            new Object[]{null, null}), KEY_COLS);
+        assertEquals(3, second.getSkip());
+    }
+
+    @Test
+    public void legacyTokenWithoutKeys() {
+        PageToken token = PageToken.decode("WzQwLDQwXQ", 2);
+        assertNull(token.getKeyValues());
+        assertEquals(40, token.getSkip());
+        assertEquals(40, token.getOffset());
+    }
+
+    @Test(expected = StatReportException.class)
+    public void keyCountMismatch() {
+        PageToken token = PageToken.next(null, Arrays.asList(new Object[][]{{"A", 1}}), KEY_COLS);
+        PageToken.decode(token.encode(), 3);
+    }
+
+    @Test(expected = StatReportException.class)
+    public void invalidToken() {
+        PageToken.decode("not a token", 2);
+    }
+}
@@ -0,0 +1,177 @@
+package com.centit.stat.service;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.centit.stat.service.pipeline.AggregateKernel;
+
+/**
+ * 按列存储的结果：取出的值和存入的值类型、数值都相同
+ */
+public class ColumnarResultTest {
+
+    private static void assertRoundTrip(List<Object[]> rows, String[] colTypes) {
+        ColumnarResult result = ColumnarResult.fromRows(rows, colTypes);
+        assertEquals(rows.size(), result.getRowCount());
+        for (int r = 0; r < rows.size(); r++) {
+            Object[] row = result.getRow(r);
+            for (int c = 0; c < row.length; c++) {
+                Object expected = rows.get(r)[c];
+                Object actual = row[c];
+                assertEquals("row " + r + " col " + c, expected, actual);
+                if (expected != null) {
+                    assertEquals("row " + r + " col " + c, expected.getClass(), actual.getClass());
+                }
+            }
+        }
+    }
+
+    private static List<Object[]> column(Object... values) {
+        List<Object[]> rows = new ArrayList<>(values.length);
+        for (Object value : values) {
+            rows.add(new Object[]{value});
+        }
+        return rows;
+    }
+
+    @Test
+    public void integersKeepBoxedType() {
+        assertRoundTrip(column(1, 2, null, Integer.MAX_VALUE), null);
+        assertRoundTrip(column(1L, Long.MAX_VALUE, Long.MIN_VALUE), new String[]{"N"});
+        assertRoundTrip(column((short) 1, (byte) 2), null);
+    }
+
+    @Test
+    public void longsAboveDoublePrecisionStayExact() {
+        long big = (1L << 53) + 1;
+        assertRoundTrip(column(big, 1.5, big + 2), new String[]{"N"});
+    }
+
+    @Test
+    public void decimalsKeepValueAndScale() {
+        assertRoundTrip(column(new BigDecimal("12.30"), new BigDecimal("0.1"), new BigDecimal("-7"),
+            new BigDecimal("1E+3"), null, new BigDecimal("99999999999999999.99")), new String[]{"N"});
+    }
+
+    @Test
+    public void decimalsOutOfLongRange() {
+        assertRoundTrip(column(new BigDecimal("1.5"), new BigDecimal("123456789012345678901234567890.12"),
+            new BigDecimal(BigInteger.ONE, 200)), null);
+    }
+
+    @Test
+    public void doublesAndMixedNumbers() {
+        assertRoundTrip(column(1.5, 2.25, Double.NaN, 3), null);
+        assertRoundTrip(column(1, new BigDecimal("2.5"), 3.0f, BigInteger.TEN), new String[]{"N"});
+    }
+
+    @Test
+    public void datesKeepJdbcType() {
+        assertRoundTrip(column(new java.sql.Date(1514736000000L), null, new java.sql.Date(1514822400000L)),
+            new String[]{"D"});
+        assertRoundTrip(column(new Timestamp(1514736000123L), new Timestamp(1514736000456L)), null);
+        assertRoundTrip(column(new Time(3600000L), new Date(1514736000000L)), null);
+    }
+
+    @Test
+    public void timestampNanosAreKept() {
+        Timestamp ts = new Timestamp(1514736000000L);
+        ts.setNanos(123456789);
+        assertRoundTrip(column(new Timestamp(1514736000000L), ts), new String[]{"D"});
+    }
+
+    @Test
+    public void stringsAndOtherValues() {
+        assertRoundTrip(column("a", "b", "a", null, "合计"), new String[]{"S"});
+        // 数值列中的"合计"、"--"单独存放
+        assertRoundTrip(column(1, 2, "合计", "--"), new String[]{"N"});
+    }
+
+    @Test
+    public void tooManyOtherValuesFallBackToObjects() {
+        List<Object[]> rows = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            rows.add(new Object[]{i % 2 == 0 ? (Object) i : "v" + i});
+        }
+        assertRoundTrip(rows, new String[]{"N"});
+    }
+
+    @Test
+    public void shortRowsArePaddedWithNulls() {
+        ColumnarResult result = new ColumnarResult(3);
+        result.handleRow(new Object[]{1});
+        result.handleRow(new Object[]{2, "x", 3.5, "ignored"});
+        result.trim();
+        assertArrayEquals(new Object[]{1, null, null}, result.getRow(0));
+        assertArrayEquals(new Object[]{2, "x", 3.5}, result.getRow(1));
+        assertTrue(result.isNull(0, 1));
+        assertEquals(2, result.asRows().size());
+    }
+
+    @Test
+    public void valueEquals() {
+        ColumnarResult result = ColumnarResult.fromRows(Arrays.asList(
+            new Object[]{new BigDecimal("1.5"), "a"},
+            new Object[]{new BigDecimal("1.5"), "a"},
+            new Object[]{new BigDecimal("1.50"), null},
+            new Object[]{null, null}), null);
+        assertTrue(result.valueEquals(0, 0, 1));
+        assertFalse(result.valueEquals(0, 0, 2));
+        assertFalse(result.valueEquals(0, 2, 3));
+        assertTrue(result.valueEquals(1, 0, 1));
+        assertTrue(result.valueEquals(1, 2, 3));
+    }
+
+    @Test
+    public void addToKernel() {
+        ColumnarResult result = ColumnarResult.fromRows(Arrays.asList(
+            new Object[]{1L, new BigDecimal("0.10"), 0.5},
+            new Object[]{2L, new BigDecimal("0.20"), null},
+            new Object[]{3L, new BigDecimal("0.30"), 1.5}), null);
+        AggregateKernel kernel = new AggregateKernel(3);
+        for (int c = 0; c < 3; c++) {
+            result.addTo(kernel, c, 0, result.getRowCount());
+        }
+        assertEquals(6.0, kernel.getSum(0), 0.0);
+        assertEquals(0.6, kernel.getSum(1), 1e-15);
+        assertEquals(2.0, kernel.getSum(2), 0.0);
+        assertEquals(2L, kernel.getNumberCount(2));
+    }
+
+    @Test
+    public void serializable() throws Exception {
+        ColumnarResult result = ColumnarResult.fromRows(Arrays.asList(
+            new Object[]{1, new BigDecimal("2.50"), "a", new Timestamp(1514736000000L)},
+            new Object[]{null, new BigDecimal("3"), "b", null}), null);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(result);
+        }
+        ColumnarResult copy;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            copy = (ColumnarResult) in.readObject();
+        }
+        for (int r = 0; r < 2; r++) {
+            assertArrayEquals(result.getRow(r), copy.getRow(r));
+        }
+        assertNull(copy.getValue(1, 0));
+    }
+}
@@ -0,0 +1,103 @@
+package com.centit.stat.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.centit.support.database.utils.QueryAndNamedParams;
+
+/**
+ * 语句模板的缓存：同一条语句只编译一次，翻译结果的主键由参数名、参数类型和参数值决定
+ */
+public class SqlTemplateTest {
+
+    @Test
+    public void compileReturnsCachedTemplate() {
+        String sql = "select unit_code, count(1) from f_test_compile group by unit_code";
+        assertSame(SqlTemplate.compile(sql), SqlTemplate.compile(sql));
+        assertNotSame(SqlTemplate.compile(sql), SqlTemplate.compile(sql + " "));
+    }
+
+    @Test
+    public void translationKeyIgnoresParamOrder() {
+        Map<String, Object> p1 = new LinkedHashMap<>();
+        p1.put("unitCode", "U01");
+        p1.put("year", 2018);
+        Map<String, Object> p2 = new LinkedHashMap<>();
+        p2.put("year", 2018);
+        p2.put("unitCode", "U01");
+        assertEquals(SqlTemplate.translationKey(p1), SqlTemplate.translationKey(p2));
+    }
+
+    @Test
+    public void translationKeyDistinguishesValueTypes() {
+        Map<String, Object> p1 = new HashMap<>();
+        p1.put("year", 2018);
+        Map<String, Object> p2 = new HashMap<>();
+        p2.put("year", "2018");
+        assertNotEquals(SqlTemplate.translationKey(p1), SqlTemplate.translationKey(p2));
+    }
+
+    @Test
+    public void translationKeyDistinguishesNullAndEmpty() {
+        Map<String, Object> p1 = new HashMap<>();
+        p1.put("unitCode", null);
+        Map<String, Object> p2 = new HashMap<>();
+        p2.put("unitCode", "");
+        assertNotEquals(SqlTemplate.translationKey(p1), SqlTemplate.translationKey(p2));
+        assertNotEquals(SqlTemplate.translationKey(p1), SqlTemplate.translationKey(new HashMap<>()));
+    }
+
+    @Test
+    public void plainSqlIsBoundWithoutTranslation() {
+        String sql = "select unit_code, count(1) from f_test_plain where year = :year group by unit_code";
+        Map<String, Object> params = new HashMap<>();
+        params.put("year", 2018);
+        QueryAndNamedParams qap = SqlTemplate.compile(sql).bind(params);
+        assertEquals(sql, qap.getQuery());
+        assertSame(params, qap.getParams());
+    }
+
+    @Test
+    public void orderFieldReplacesOrderBy() {
+        String sql = "select unit_code, year from f_test_order order by unit_code";
+        Map<String, Object> params = new HashMap<>();
+        params.put("orderField", "year");
+        params.put("orderDirection", "desc");
+        String query = SqlTemplate.compile(sql).bind(params).getQuery();
+        assertTrue(query.endsWith(" order by year desc"));
+        assertFalse(query.contains("order by unit_code"));
+    }
+
+    private static String items(String sql) {
+        StringBuilder text = new StringBuilder();
+        for (String[] item : SqlTemplate.orderByItems(sql)) {
+            text.append(item[0]).append(' ').append(item[1]).append(';');
+        }
+        return text.toString();
+    }
+
+    @Test
+    public void orderByItems() {
+        assertEquals("a desc;t.b asc;", items("select a, t.b from t order by a desc, t.b"));
+        assertEquals("a asc;b desc;", items("SELECT a, b FROM t ORDER   BY a ASC, b DESC NULLS LAST"));
+        assertEquals("1 asc;", items("select a, row_number() over (order by b) rn from t order by 1"));
+        assertEquals("coalesce(a, ',') asc;", items("select a from t order by coalesce(a, ',')"));
+    }
+
+    @Test
+    public void orderByItemsIgnoresNestedAndQuoted() {
+        assertEquals("", items("select * from (select a from t order by a) x"));
+        assertEquals("", items("select 'order by a' s, border_by from t"));
+        assertEquals("", items(null));
+    }
+}
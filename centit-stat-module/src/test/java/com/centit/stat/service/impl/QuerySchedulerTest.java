@@ -0,0 +1,253 @@
+package com.centit.stat.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.centit.framework.ip.po.DatabaseInfo;
+import com.centit.stat.service.FormDataModel;
+import com.centit.stat.service.QueryQueueMetrics;
+import com.centit.support.report.StatReportException;
+
+/**
+ * 统计查询的调度：通道满时排队，有查询排队时新的查询不插队，排队的查询按照属主、模块轮流执行，
+ * 同时使用多个连接的查询按照连接个数占用通道
+ */
+public class QuerySchedulerTest {
+
+    private static final String DATABASE = "stat_db";
+
+    private static FormDataModel formData(String databaseCode, String owner, String model) {
+        FormDataModel formData = new FormDataModel();
+        if (databaseCode != null) {
+            DatabaseInfo dbinfo = new DatabaseInfo();
+            dbinfo.setDatabaseCode(databaseCode);
+            formData.setDbinfo(dbinfo);
+        }
+        formData.setOwnerType("U");
+        formData.setOwnerCode(owner);
+        formData.setModelName(model);
+        return formData;
+    }
+
+    private static QueryQueueMetrics metrics(QueryScheduler scheduler, String databaseCode) {
+        for (QueryQueueMetrics metrics : scheduler.listMetrics()) {
+            if (databaseCode.equals(metrics.getDatabaseCode())) {
+                return metrics;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 等到通道中执行和排队的查询个数符合预期，保证排队的先后次序是确定的
+     */
+    private static void awaitLane(QueryScheduler scheduler, int running, int queued) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (System.currentTimeMillis() < deadline) {
+            QueryQueueMetrics metrics = metrics(scheduler, DATABASE);
+            if (metrics != null && metrics.getRunning() == running && metrics.getQueued() == queued) {
+                return;
+            }
+            Thread.sleep(5L);
+        }
+        fail("lane did not reach running=" + running + " queued=" + queued);
+    }
+
+    private static Thread start(QueryScheduler scheduler, FormDataModel formData, Runnable query,
+                                List<Throwable> errors) {
+        return start(scheduler, formData, 1, query, errors);
+    }
+
+    private static Thread start(QueryScheduler scheduler, FormDataModel formData, int connections,
+                                Runnable query, List<Throwable> errors) {
+        Thread thread = new Thread(() -> {
+            try {
+                scheduler.execute(formData, connections, () -> {
+                    query.run();
+                    return null;
+                });
+            } catch (Throwable e) {
+                errors.add(e);
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * 占用一个执行通道，直到 release 计数归零
+     */
+    private static Thread hold(QueryScheduler scheduler, CountDownLatch release, List<Throwable> errors) {
+        return start(scheduler, formData(DATABASE, "holder", "holder"), () -> {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, errors);
+    }
+
+    @Test
+    public void runsDirectlyWithoutLimit() {
+        QueryScheduler scheduler = new QueryScheduler(0, "", 30, 100);
+        assertEquals("a", scheduler.execute(formData(DATABASE, "o", "m"), () -> "a"));
+        assertEquals("b", scheduler.execute(formData(null, "o", "m"), () -> "b"));
+        assertEquals(0, metrics(scheduler, DATABASE).getAdmitted());
+    }
+
+    @Test
+    public void databaseLimitsOverrideDefault() {
+        QueryScheduler scheduler = new QueryScheduler(3, "stat_db:1, other_db:x", 30, 100);
+        scheduler.execute(formData(DATABASE, "o", "m"), () -> null);
+        scheduler.execute(formData("other_db", "o", "m"), () -> null);
+        scheduler.execute(formData("third_db", "o", "m"), () -> null);
+        assertEquals(1, metrics(scheduler, DATABASE).getMaxConcurrent());
+        assertEquals(3, metrics(scheduler, "other_db").getMaxConcurrent());
+        assertEquals(3, metrics(scheduler, "third_db").getMaxConcurrent());
+        assertEquals(1, metrics(scheduler, DATABASE).getAdmitted());
+    }
+
+    @Test
+    public void queuedQueriesTakeTurnsByOwnerAndModel() throws Exception {
+        QueryScheduler scheduler = new QueryScheduler(1, "", 30, 100);
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch release = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        threads.add(hold(scheduler, release, errors));
+        awaitLane(scheduler, 1, 0);
+
+        String[][] arrivals = {
+            {"A", "m1", "a1"}, {"A", "m1", "a2"}, {"A", "m1", "a3"}, {"A", "m2", "b1"}, {"B", "m3", "c1"}};
+        for (int i = 0; i < arrivals.length; i++) {
+            String name = arrivals[i][2];
+            threads.add(start(scheduler, formData(DATABASE, arrivals[i][0], arrivals[i][1]),
+                () -> order.add(name), errors));
+            awaitLane(scheduler, 1, i + 1);
+        }
+        release.countDown();
+        for (Thread thread : threads) {
+            thread.join(5000L);
+        }
+
+        assertTrue(errors.toString(), errors.isEmpty());
+        // 属主 A、B 轮流，属主 A 的模块 m1、m2 轮流
+        assertEquals(Arrays.asList("a1", "c1", "b1", "a2", "a3"), order);
+        QueryQueueMetrics metrics = metrics(scheduler, DATABASE);
+        assertEquals(0, metrics.getRunning());
+        assertEquals(0, metrics.getQueued());
+        assertEquals(6, metrics.getAdmitted());
+    }
+
+    @Test
+    public void newQueryDoesNotJumpTheQueue() throws Exception {
+        QueryScheduler scheduler = new QueryScheduler(1, "", 30, 100);
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch release = new CountDownLatch(1);
+        Thread holder = hold(scheduler, release, errors);
+        awaitLane(scheduler, 1, 0);
+        Thread waiter = start(scheduler, formData(DATABASE, "A", "m1"), () -> order.add("queued"), errors);
+        awaitLane(scheduler, 1, 1);
+
+        // 通道释放时直接交给排队的查询，随后到达的查询排在它后面
+        release.countDown();
+        holder.join(5000L);
+        scheduler.execute(formData(DATABASE, "B", "m2"), () -> order.add("arrived"));
+        waiter.join(5000L);
+
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertEquals(Arrays.asList("queued", "arrived"), order);
+    }
+
+    @Test
+    public void multiConnectionQueryWaitsForEnoughSlots() throws Exception {
+        QueryScheduler scheduler = new QueryScheduler(3, "", 30, 100);
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch release = new CountDownLatch(1);
+        Thread holder = hold(scheduler, release, errors);
+        awaitLane(scheduler, 1, 0);
+        // 空闲两个连接，需要三个连接的查询排队，随后只需要一个连接的查询也不插队
+        Thread compare = start(scheduler, formData(DATABASE, "A", "m1"), 3,
+            () -> order.add("compare:" + metrics(scheduler, DATABASE).getRunning()), errors);
+        awaitLane(scheduler, 1, 1);
+        Thread single = start(scheduler, formData(DATABASE, "B", "m2"),
+            () -> order.add("single"), errors);
+        awaitLane(scheduler, 1, 2);
+
+        release.countDown();
+        holder.join(5000L);
+        compare.join(5000L);
+        single.join(5000L);
+
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertEquals(Arrays.asList("compare:3", "single"), order);
+        assertEquals(0, metrics(scheduler, DATABASE).getRunning());
+    }
+
+    @Test
+    public void connectionsAreCappedAtLimit() {
+        QueryScheduler scheduler = new QueryScheduler(2, "", 30, 100);
+        int running = scheduler.execute(formData(DATABASE, "A", "m1"), 8,
+            () -> metrics(scheduler, DATABASE).getRunning());
+        assertEquals(2, running);
+        assertEquals(0, metrics(scheduler, DATABASE).getRunning());
+    }
+
+    @Test
+    public void fullQueueRejects() throws Exception {
+        QueryScheduler scheduler = new QueryScheduler(1, "", 30, 1);
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch release = new CountDownLatch(1);
+        Thread holder = hold(scheduler, release, errors);
+        awaitLane(scheduler, 1, 0);
+        Thread waiter = start(scheduler, formData(DATABASE, "A", "m1"), () -> { }, errors);
+        awaitLane(scheduler, 1, 1);
+        try {
+            scheduler.execute(formData(DATABASE, "B", "m2"), () -> null);
+            fail("queue is full");
+        } catch (StatReportException e) {
+            assertEquals(StatReportException.DATABASE_OPERATE_EXCEPTION, e.getExceptionCode());
+        } finally {
+            release.countDown();
+            holder.join(5000L);
+            waiter.join(5000L);
+        }
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertEquals(1, metrics(scheduler, DATABASE).getRejected());
+        assertEquals(2, metrics(scheduler, DATABASE).getAdmitted());
+    }
+
+    @Test
+    public void waitingTooLongTimesOut() throws Exception {
+        QueryScheduler scheduler = new QueryScheduler(1, "", 1, 100);
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch release = new CountDownLatch(1);
+        Thread holder = hold(scheduler, release, errors);
+        awaitLane(scheduler, 1, 0);
+        try {
+            scheduler.execute(formData(DATABASE, "A", "m1"), () -> null);
+            fail("wait exceeds stat.scheduler.maxWait");
+        } catch (StatReportException e) {
+            assertEquals(StatReportException.DATABASE_OPERATE_EXCEPTION, e.getExceptionCode());
+        } finally {
+            release.countDown();
+            holder.join(5000L);
+        }
+        QueryQueueMetrics metrics = metrics(scheduler, DATABASE);
+        assertEquals(1, metrics.getTimedOut());
+        assertEquals(0, metrics.getQueued());
+        assertEquals(0, metrics.getRunning());
+    }
+}
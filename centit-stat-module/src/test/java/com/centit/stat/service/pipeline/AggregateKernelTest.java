@@ -0,0 +1,124 @@
+package com.centit.stat.service.pipeline;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+
+import org.junit.Test;
+
+/**
+ * 聚合内核：补偿求和、Welford 方差、HyperLogLog 去重计数的误差范围
+ */
+public class AggregateKernelTest {
+
+    /**
+     * HyperLogLog 的标准误差为 1.04/sqrt(1024)，允许 3 倍标准误差
+     */
+    private static final double HLL_MAX_ERROR = 3 * 1.04 / Math.sqrt(1024);
+
+    @Test
+    public void parseOptType() {
+        assertEquals(AggregateKernel.OPT_SUM, AggregateKernel.parseOptType("1"));
+        assertEquals(AggregateKernel.OPT_STDDEV, AggregateKernel.parseOptType("8"));
+        assertEquals(AggregateKernel.OPT_NONE, AggregateKernel.parseOptType("9"));
+        assertEquals(AggregateKernel.OPT_NONE, AggregateKernel.parseOptType("11"));
+        assertEquals(AggregateKernel.OPT_NONE, AggregateKernel.parseOptType(null));
+    }
+
+    @Test
+    public void neumaierSumKeepsSmallValues() {
+        AggregateKernel kernel = new AggregateKernel(1);
+        kernel.add(0, 1.0);
+        kernel.add(0, 1e100);
+        kernel.add(0, 1.0);
+        kernel.add(0, -1e100);
+        assertEquals(2.0, kernel.getSum(0), 0.0);
+    }
+
+    @Test
+    public void neumaierSumOfManyDecimals() {
+        AggregateKernel kernel = new AggregateKernel(1);
+        for (int i = 0; i < 1000000; i++) {
+            kernel.add(0, 0.1);
+        }
+        assertEquals(100000.0, kernel.getSum(0), 1e-9);
+        assertEquals(0.1, kernel.getAverage(0), 1e-15);
+    }
+
+    @Test
+    public void welfordStddevWithLargeOffset() {
+        AggregateKernel kernel = new AggregateKernel(1);
+        for (double v : new double[]{4, 7, 13, 16}) {
+            kernel.add(0, 1e9 + v);
+        }
+        assertEquals(Math.sqrt(30.0), kernel.getStddev(0), 1e-6);
+        assertEquals(1e9 + 10, kernel.getAverage(0), 1e-6);
+    }
+
+    @Test
+    public void stddevOfSingleValueIsZero() {
+        AggregateKernel kernel = new AggregateKernel(1);
+        kernel.add(0, 5.0);
+        assertEquals(0.0, kernel.getStddev(0), 0.0);
+    }
+
+    @Test
+    public void minMaxAndCounts() {
+        AggregateKernel kernel = new AggregateKernel(2);
+        kernel.addRow(new Object[]{"北京", 3}, 0);
+        kernel.addRow(new Object[]{"上海", -2.5}, 0);
+        kernel.addRow(new Object[]{null, null}, 0);
+        assertEquals(2L, kernel.getResult(0, AggregateKernel.OPT_COUNT));
+        assertNull(kernel.getResult(0, AggregateKernel.OPT_SUM));
+        assertEquals(2L, kernel.getResult(1, AggregateKernel.OPT_COUNT));
+        assertEquals(3.0, kernel.getResult(1, AggregateKernel.OPT_MAX));
+        assertEquals(-2.5, kernel.getResult(1, AggregateKernel.OPT_MIN));
+        assertEquals(0.25, kernel.getResult(1, AggregateKernel.OPT_AVG));
+    }
+
+    @Test
+    public void singleValueSumKeepsOriginalObject() {
+        AggregateKernel kernel = new AggregateKernel(1);
+        BigDecimal value = new BigDecimal("12.30");
+        kernel.add(0, value);
+        assertSame(value, kernel.getResult(0, AggregateKernel.OPT_SUM));
+        kernel.add(0, 1);
+        assertEquals(13.3, (Double) kernel.getResult(0, AggregateKernel.OPT_SUM), 1e-12);
+    }
+
+    @Test
+    public void distinctNotEnabled() {
+        AggregateKernel kernel = new AggregateKernel(1);
+        kernel.add(0, 1.0);
+        assertEquals(-1L, kernel.getDistinctEstimate(0));
+    }
+
+    @Test
+    public void distinctEstimateWithinErrorBound() {
+        for (int n : new int[]{100, 1000, 10000, 100000, 1000000}) {
+            AggregateKernel kernel = new AggregateKernel(1);
+            kernel.enableDistinct(0);
+            for (int i = 0; i < n; i++) {
+                kernel.add(0, (double) i);
+                // 重复的值不影响估算
+                kernel.add(0, (double) i);
+            }
+            long estimate = (Long) kernel.getResult(0, AggregateKernel.OPT_DISTINCT);
+            assertTrue("n=" + n + " estimate=" + estimate, Math.abs(estimate - n) <= n * HLL_MAX_ERROR);
+        }
+    }
+
+    @Test
+    public void distinctOfStrings() {
+        AggregateKernel kernel = new AggregateKernel(1);
+        kernel.enableDistinct(0);
+        for (int i = 0; i < 50000; i++) {
+            kernel.add(0, "unit" + (i % 5000));
+        }
+        long estimate = kernel.getDistinctEstimate(0);
+        assertTrue("estimate=" + estimate, Math.abs(estimate - 5000) <= 5000 * HLL_MAX_ERROR);
+    }
+}
@@ -0,0 +1,98 @@
+package com.centit.stat.service.pipeline;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * 交叉表透视：行、列按照第一次出现的顺序输出，合计列按照除第一个列头之外的列头累加
+ */
+public class CrossTablePivotTest {
+
+    private static CrossTablePivot pivot(Object[]... rows) {
+        CrossTablePivot pivot = new CrossTablePivot(1, 2, 1);
+        for (Object[] row : rows) {
+            pivot.handleRow(row);
+        }
+        return pivot;
+    }
+
+    @Test
+    public void columnsInFirstSeenOrderWithSumColumns() {
+        CrossTablePivot pivot = pivot(
+            new Object[]{"A", "2017", "Q1", 1},
+            new Object[]{"A", "2017", "Q2", 2},
+            new Object[]{"B", "2018", "Q1", 3});
+        List<Object[]> columns = pivot.getColumns();
+        assertEquals(5, columns.size());
+        assertArrayEquals(new Object[]{"2017", "Q1"}, columns.get(0));
+        assertArrayEquals(new Object[]{"2017", "Q2"}, columns.get(1));
+        assertArrayEquals(new Object[]{"2018", "Q1"}, columns.get(2));
+        assertArrayEquals(new Object[]{CrossTablePivot.SUM_COLUMN_TITLE, "Q1"}, columns.get(3));
+        assertArrayEquals(new Object[]{CrossTablePivot.SUM_COLUMN_TITLE, "Q2"}, columns.get(4));
+    }
+
+    @Test
+    public void singleValueKeptAndRepeatedCellsSummed() {
+        CrossTablePivot pivot = pivot(
+            new Object[]{"A", "2017", "Q1", 1},
+            new Object[]{"A", "2017", "Q2", 2},
+            new Object[]{"B", "2018", "Q1", 3},
+            new Object[]{"A", "2017", "Q1", 4});
+        List<Object[]> rows = pivot.getRows();
+        assertEquals(2, rows.size());
+        assertArrayEquals(new Object[]{"A", 5L, 2, null, 5L, 2}, rows.get(0));
+        assertArrayEquals(new Object[]{"B", null, null, 3, 3, null}, rows.get(1));
+    }
+
+    @Test
+    public void keysCompareAsStrings() {
+        CrossTablePivot pivot = pivot(
+            new Object[]{1, 2017, "Q1", 1},
+            new Object[]{"1", "2017", "Q1", 2});
+        List<Object[]> rows = pivot.getRows();
+        assertEquals(1, rows.size());
+        assertEquals(1, pivot.getColumns().size() - 1);
+        assertEquals(3L, rows.get(0)[1]);
+    }
+
+    @Test
+    public void sumsKeepNumericType() {
+        CrossTablePivot pivot = pivot(
+            new Object[]{"A", "2017", "Q1", new BigDecimal("0.10")},
+            new Object[]{"A", "2017", "Q1", new BigDecimal("0.20")},
+            new Object[]{"A", "2018", "Q1", 3},
+            new Object[]{"B", "2017", "Q1", 1.5},
+            new Object[]{"B", "2017", "Q1", 2},
+            new Object[]{"C", "2017", "Q1", 1},
+            new Object[]{"C", "2018", "Q1", new BigDecimal("0.5")});
+        List<Object[]> rows = pivot.getRows();
+        // 定点数累加没有二进制舍入误差，和整数相加仍然是定点数
+        assertEquals(new BigDecimal("0.30"), rows.get(0)[1]);
+        assertEquals(new BigDecimal("3.30"), rows.get(0)[3]);
+        assertEquals(3.5, rows.get(1)[1]);
+        assertEquals(new BigDecimal("1.5"), rows.get(2)[3]);
+    }
+
+    @Test
+    public void fixedColumnsIgnoreOtherData() {
+        CrossTablePivot pivot = new CrossTablePivot(1, 2, 1);
+        pivot.addColumn(new Object[]{"2017", "Q1", "extra"});
+        pivot.handleRow(new Object[]{"A", "2017", "Q1", 1});
+        pivot.handleRow(new Object[]{"A", "2017", "Q2", 2});
+        assertEquals(2, pivot.getColumns().size());
+        // 不在列头中的数据也不计入合计列
+        assertArrayEquals(new Object[]{"A", 1, 1}, pivot.getRows().get(0));
+    }
+
+    @Test
+    public void noRows() {
+        CrossTablePivot pivot = new CrossTablePivot(1, 2, 1);
+        assertEquals(0, pivot.getRows().size());
+        assertEquals(0, pivot.getColumns().size());
+    }
+}
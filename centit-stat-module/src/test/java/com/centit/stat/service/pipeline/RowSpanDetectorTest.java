@@ -0,0 +1,91 @@
+package com.centit.stat.service.pipeline;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.centit.stat.po.QueryColumn;
+
+/**
+ * 行头合并区域检测：相邻行的值相同属于同一个区域，区域结束时按照结束的顺序通知
+ */
+public class RowSpanDetectorTest {
+
+    private static List<QueryColumn> columns(String... showTypes) {
+        List<QueryColumn> columns = new ArrayList<>(showTypes.length);
+        for (String showType : showTypes) {
+            QueryColumn column = new QueryColumn();
+            column.setShowType(showType);
+            columns.add(column);
+        }
+        return columns;
+    }
+
+    /**
+     * 逐行输入数据，返回 {span, colIndex, firstRow, rowspan} 形式的通知
+     */
+    private static List<String> detect(List<QueryColumn> columns, Object[][] rows) {
+        final List<String> spans = new ArrayList<>();
+        RowSpanDetector detector = new RowSpanDetector(columns,
+            (span, colIndex, firstRow, rowspan) -> spans.add(span + ":" + colIndex + ":" + firstRow + ":" + rowspan));
+        for (int r = 0; r < rows.length; r++) {
+            for (int k = 0; k < detector.getSpanCount(); k++) {
+                detector.nextValue(k, rows[r][detector.getSpanColumn(k)], r);
+            }
+        }
+        detector.finish();
+        return spans;
+    }
+
+    @Test
+    public void onlyRowHeaderColumnsAreTracked() {
+        RowSpanDetector detector = new RowSpanDetector(columns("D", "R", "D", "R"), (s, c, f, n) -> { });
+        assertEquals(2, detector.getSpanCount());
+        assertEquals(1, detector.getSpanColumn(0));
+        assertEquals(3, detector.getSpanColumn(1));
+    }
+
+    @Test
+    public void nextValueReportsMergedCells() {
+        RowSpanDetector detector = new RowSpanDetector(columns("R"), (s, c, f, n) -> { });
+        assertFalse(detector.nextValue(0, "A", 0));
+        assertTrue(detector.nextValue(0, "A", 1));
+        assertFalse(detector.nextValue(0, "B", 2));
+        assertFalse(detector.nextValue(0, null, 3));
+        assertTrue(detector.nextValue(0, null, 4));
+    }
+
+    @Test
+    public void spansCloseInOrder() {
+        List<String> spans = detect(columns("R", "R", "D"), new Object[][]{
+            {"江苏", "南京", 1},
+            {"江苏", "南京", 2},
+            {"江苏", "苏州", 3},
+            {"浙江", "杭州", 4},
+            {"浙江", "杭州", 5}});
+        List<String> expected = new ArrayList<>();
+        expected.add("1:1:0:2");
+        expected.add("0:0:0:3");
+        expected.add("1:1:2:1");
+        expected.add("0:0:3:2");
+        expected.add("1:1:3:2");
+        assertEquals(expected, spans);
+    }
+
+    @Test
+    public void sameValueInDifferentRunsIsNotMerged() {
+        List<String> spans = detect(columns("R"), new Object[][]{{"A"}, {"B"}, {"A"}});
+        assertEquals(3, spans.size());
+        assertEquals("0:0:2:1", spans.get(2));
+    }
+
+    @Test
+    public void noRowsNoSpans() {
+        assertTrue(detect(columns("R", "D"), new Object[0][]).isEmpty());
+    }
+}
@@ -0,0 +1,141 @@
+package com.centit.stat.service.pipeline;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * 树形报表的行：深度优先排列，上级节点不在结果中的行作为根节点，循环引用的行排在最后；子树合计自下而上计算
+ */
+public class TreeRowsTest {
+
+    private static List<Object> ids(TreeRows tree) {
+        List<Object> ids = new ArrayList<>();
+        for (Object[] row : tree.getRows()) {
+            ids.add(row[0]);
+        }
+        return ids;
+    }
+
+    private static int[] parents(TreeRows tree) {
+        int[] parents = new int[tree.getRows().size()];
+        for (int r = 0; r < parents.length; r++) {
+            parents[r] = tree.getParent(r);
+        }
+        return parents;
+    }
+
+    @Test
+    public void depthFirstKeepsSiblingOrder() {
+        TreeRows tree = new TreeRows(Arrays.asList(
+            new Object[]{"4", "2"},
+            new Object[]{"1", null},
+            new Object[]{"3", "1"},
+            new Object[]{"2", "1"},
+            new Object[]{"5", null}));
+        assertEquals(Arrays.<Object>asList("1", "3", "2", "4", "5"), ids(tree));
+        assertArrayEquals(new int[]{-1, 0, 0, 2, -1}, parents(tree));
+    }
+
+    @Test
+    public void orphansAndSelfParentsAreRoots() {
+        TreeRows tree = new TreeRows(Arrays.asList(
+            new Object[]{"1", "99"},
+            new Object[]{"2", "1"},
+            new Object[]{"3", "3"}));
+        assertEquals(Arrays.<Object>asList("1", "2", "3"), ids(tree));
+        assertArrayEquals(new int[]{-1, 0, -1}, parents(tree));
+    }
+
+    @Test
+    public void cyclesArePlacedLast() {
+        TreeRows tree = new TreeRows(Arrays.asList(
+            new Object[]{"a", "b"},
+            new Object[]{"b", "a"},
+            new Object[]{"r", null},
+            new Object[]{"c", "a"},
+            new Object[]{"s", "r"}));
+        assertEquals(Arrays.<Object>asList("r", "s", "a", "b", "c"), ids(tree));
+        // 循环中第一个出现的节点作为根节点
+        assertArrayEquals(new int[]{-1, 0, -1, 2, 2}, parents(tree));
+    }
+
+    @Test
+    public void duplicateIdsUseFirstRowAsParent() {
+        TreeRows tree = new TreeRows(Arrays.asList(
+            new Object[]{"1", null, "first"},
+            new Object[]{"1", null, "second"},
+            new Object[]{"2", "1", "child"}));
+        List<Object[]> rows = tree.getRows();
+        assertEquals(3, rows.size());
+        assertEquals("first", rows.get(0)[2]);
+        assertEquals("child", rows.get(1)[2]);
+        assertEquals("second", rows.get(2)[2]);
+    }
+
+    @Test
+    public void inputIsNotModified() {
+        List<Object[]> datas = new ArrayList<>(Arrays.asList(
+            new Object[]{"2", "1"},
+            new Object[]{"1", null}));
+        List<Object[]> sorted = TreeRows.sortAsTree(datas);
+        assertEquals("2", datas.get(0)[0]);
+        assertEquals("1", sorted.get(0)[0]);
+        assertEquals(Arrays.<Object>asList(), ids(new TreeRows(new ArrayList<>())));
+    }
+
+    @Test
+    public void rollupSumsAndAveragesSubtrees() {
+        TreeRows tree = new TreeRows(Arrays.asList(
+            new Object[]{"1", null, 10, 10, "x"},
+            new Object[]{"2", "1", 20, 20, "y"},
+            new Object[]{"3", "2", 30, 30, "z"},
+            new Object[]{"4", "1", null, null, null}));
+        List<Object[]> rolled = tree.rollup(new int[]{
+            AggregateKernel.OPT_NONE, AggregateKernel.OPT_NONE,
+            AggregateKernel.OPT_SUM, AggregateKernel.OPT_AVG, AggregateKernel.OPT_SUM});
+        assertArrayEquals(new Object[]{null, null, 60L, 20.0, null}, rolled.get(0));
+        assertArrayEquals(new Object[]{null, null, 50L, 25.0, null}, rolled.get(1));
+        assertArrayEquals(new Object[]{null, null, 30L, 30.0, null}, rolled.get(2));
+        // 子树中没有数值时不计算
+        assertArrayEquals(new Object[]{null, null, null, null, null}, rolled.get(3));
+    }
+
+    @Test
+    public void rollupKeepsIntegralTypes() {
+        TreeRows tree = new TreeRows(Arrays.asList(
+            new Object[]{"1", null, new BigDecimal("2.00"), 1},
+            new Object[]{"2", "1", 3L, 1.5}));
+        List<Object[]> rolled = tree.rollup(new int[]{
+            AggregateKernel.OPT_NONE, AggregateKernel.OPT_NONE, AggregateKernel.OPT_SUM_AVG, AggregateKernel.OPT_SUM});
+        assertEquals(5L, rolled.get(0)[2]);
+        assertEquals(2.5, rolled.get(0)[3]);
+        assertEquals(1.5, rolled.get(1)[3]);
+    }
+
+    @Test
+    public void rollupUsesCompensatedSum() {
+        List<Object[]> datas = new ArrayList<>();
+        datas.add(new Object[]{"root", null, 1e16, null});
+        for (int i = 0; i < 10; i++) {
+            datas.add(new Object[]{"c" + i, "root", 1.0, 0.1});
+        }
+        List<Object[]> rolled = new TreeRows(datas).rollup(new int[]{
+            AggregateKernel.OPT_NONE, AggregateKernel.OPT_NONE, AggregateKernel.OPT_SUM, AggregateKernel.OPT_SUM});
+        assertEquals(1.000000000000001e16, (Double) rolled.get(0)[2], 0.0);
+        assertEquals(1.0, (Double) rolled.get(0)[3], 0.0);
+    }
+
+    @Test
+    public void applyRollupReplacesComputedColumns() {
+        Object[] row = {"1", null, 10, 10, "x"};
+        TreeRows.applyRollup(row, new Object[]{null, null, 60L, 20.0});
+        assertArrayEquals(new Object[]{"1", null, 60L, 20.0, "x"}, row);
+    }
+}
@@ -323,6 +323,11 @@ define(['app', 'echarts'], function(model, echarts) {
       var input = $("<input type=text />");
       input.attr("name", "modelName");
       input.attr("value", $scope.queryName);
+      form.append(input);
+
+      input = $("<input type=text />");
+      input.attr("name", "fileType");
+      input.attr("value", "xlsx");
       form.append(input);
 
         /*------------------加入查询参数 --------------------------*/
@@ -7,6 +7,8 @@ import com.centit.framework.components.impl.TextOperationLogWriterImpl;
 import com.centit.framework.ip.app.config.IPAppSystemBeanConfig;
 import com.centit.framework.model.adapter.NotificationCenter;
 import com.centit.framework.model.adapter.OperationLogWriter;
+import com.centit.stat.dao.DataSourcePoolConfig;
+import com.centit.stat.dao.StatDataSourcePools;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.*;
 
@@ -22,6 +24,36 @@ public class ServiceConfig {
     @Value("${app.home:./}")
     private String appHome;
 
+    @Value("${stat.pool.maxTotal:20}")
+    private int poolMaxTotal;
+
+    @Value("${stat.pool.maxIdle:10}")
+    private int poolMaxIdle;
+
+    @Value("${stat.pool.minIdle:0}")
+    private int poolMinIdle;
+
+    @Value("${stat.pool.maxWait:20000}")
+    private long poolMaxWait;
+
+    @Value("${stat.pool.validationQuery:}")
+    private String poolValidationQuery;
+
+    @Value("${stat.pool.evictionRunMillis:60000}")
+    private long poolEvictionRunMillis;
+
+    @Value("${stat.pool.minEvictableIdleMillis:300000}")
+    private long poolMinEvictableIdleMillis;
+
+    @Value("${stat.pool.maxOpenPreparedStatements:100}")
+    private int poolMaxOpenPreparedStatements;
+
+    @Value("${stat.fetch.sizes:}")
+    private String fetchSizes;
+
+    @Value("${stat.fetch.mysqlStreaming:true}")
+    private boolean mysqlStreaming;
+
     @Bean
     public NotificationCenter notificationCenter() {
         NotificationCenterImpl notificationCenter = new NotificationCenterImpl();
@@ -39,6 +71,28 @@ public class ServiceConfig {
         return operationLog;
     }
 
+    /**
+     * 统计查询的数据库连接池配置
+     * @return 连接池配置
+     */
+    @Bean
+    public DataSourcePoolConfig dataSourcePoolConfig() {
+        DataSourcePoolConfig config = new DataSourcePoolConfig();
+        config.setMaxTotal(poolMaxTotal);
+        config.setMaxIdle(poolMaxIdle);
+        config.setMinIdle(poolMinIdle);
+        config.setMaxWaitMillis(poolMaxWait);
+        config.setValidationQuery(poolValidationQuery);
+        config.setTimeBetweenEvictionRunsMillis(poolEvictionRunMillis);
+        config.setMinEvictableIdleTimeMillis(poolMinEvictableIdleMillis);
+        config.setPoolPreparedStatements(poolMaxOpenPreparedStatements > 0);
+        config.setMaxOpenPreparedStatements(poolMaxOpenPreparedStatements);
+        config.setFetchSizes(fetchSizes);
+        config.setMysqlStreaming(mysqlStreaming);
+        StatDataSourcePools.setPoolConfig(config);
+        return config;
+    }
+
     @Bean
     public InstantiationServiceBeanPostProcessor instantiationServiceBeanPostProcessor() {
         return new InstantiationServiceBeanPostProcessor();
@@ -0,0 +1 @@
+alter table Q_QueryModel add CACHETTL decimal(6);
@@ -0,0 +1 @@
+alter table Q_QueryModel add TOTALINDB varchar(1);
@@ -0,0 +1,3 @@
+alter table Q_QueryModel add QUERYTIMEOUT decimal(6);
+alter table Q_QueryModel add MAXROWS decimal(10);
+alter table Q_QueryModel add FETCHSIZE decimal(6);
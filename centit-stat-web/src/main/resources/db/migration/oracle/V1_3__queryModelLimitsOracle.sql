@@ -0,0 +1,3 @@
+alter table Q_QueryModel add QUERYTIMEOUT NUMBER(6);
+alter table Q_QueryModel add MAXROWS NUMBER(10);
+alter table Q_QueryModel add FETCHSIZE NUMBER(6);